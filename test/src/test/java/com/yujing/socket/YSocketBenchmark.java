@@ -0,0 +1,633 @@
+package com.yujing.socket;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * socket压力测试，本机回环，不需要设备，在test模块的单元测试（JVM）中运行，和socket包同名以便使用包内成员
+ * 1.进程内服务端：一个YSocketLoop线程，TCP按帧、UDP按数据报回应，默认原样返回，可以设置Responder模拟设备协议。
+ * 2.负载可配置：连接数、消息长度、每个连接每秒消息数（0不限速）、每个连接最多未应答消息数、预热时间、测试时间。
+ * 3.每种传输方式输出：p50、p99、最大延迟，吞吐量，内存分配速度，传输方式使用的线程数。
+ * 消息格式：长度(4，大端，不含自己) | 发送时间nanoTime(8) | 填充，延迟为发送到收到应答的时间。
+ * 内存分配用com.sun.management.ThreadMXBean统计（JVM），安卓不支持时为-1；包含压测自己创建的消息数组（每条消息长度）。
+ * 线程数为测试中活动线程数减去开始前的线程数和压测自己的发送线程。
+ *
+ * @author 余静 2026年10月18日20:08:51
+ */
+/*
+使用方法：
+YSocketBenchmark benchmark = new YSocketBenchmark();
+benchmark.setConnections(8);
+benchmark.setMessageSize(256);
+benchmark.setRate(0);
+benchmark.setDuration(5000);
+for (YSocketBenchmark.Result result : benchmark.runAll()) System.out.println(result);
+
+//只测一种
+System.out.println(benchmark.run(YSocketBenchmark.Transport.YSOCKET_NIO));
+
+//模拟设备协议，收到一帧后回应
+benchmark.setResponder(request -> { ... return response; });
+ */
+@SuppressWarnings("unused")
+public class YSocketBenchmark {
+    protected static final int HEAD_LENGTH = 12;// 长度(4) + 发送时间(8)
+    protected int connections = 4;// 连接数
+    protected int messageSize = 128;// 消息长度，包含12字节头
+    protected int rate = 0;// 每个连接每秒消息数，0不限速
+    protected int window = 1;// 每个连接最多未应答消息数，1为一问一答
+    protected long warmup = 1000;// 预热时间，不统计
+    protected long duration = 1000 * 5;// 测试时间
+    protected int timeOut = 1000 * 3;// 应答超时时间
+    protected Responder responder;// 服务端回应，为null原样返回
+
+    /**
+     * 传输方式
+     */
+    public enum Transport {
+        YSOCKET,// YSocket线程模式，异步发送，零复制帧回调
+        YSOCKET_NIO,// YSocket NIO模式
+        YSOCKET_SYNC,// YSocketSync一问一答
+        YTCP,// YTcp每次新建连接
+        YTCP_KEEP_ALIVE,// YTcp复用连接
+        YUDP,// YUdp.sendSync每次新建DatagramSocket
+        YUDP_NIO// YUdp.sendFuture，在共享的YSocketLoop上
+    }
+
+    /**
+     * 服务端回应，TCP为一帧完整数据，UDP为一个数据报，在服务端事件循环线程中调用
+     */
+    public interface Responder {
+        /**
+         * @param request 请求，只在调用期间有效
+         * @return 回应，为null不回应；回应的第4~12字节必须是请求的发送时间，否则延迟统计错误
+         */
+        byte[] respond(ByteBuffer request);
+    }
+
+    public void setConnections(int connections) {
+        this.connections = Math.max(1, connections);
+    }
+
+    public void setMessageSize(int messageSize) {
+        this.messageSize = Math.max(HEAD_LENGTH, messageSize);
+    }
+
+    public void setRate(int rate) {
+        this.rate = Math.max(0, rate);
+    }
+
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    public void setWarmup(long warmup) {
+        this.warmup = Math.max(0, warmup);
+    }
+
+    public void setDuration(long duration) {
+        this.duration = Math.max(1, duration);
+    }
+
+    public void setTimeOut(int timeOut) {
+        this.timeOut = Math.max(1, timeOut);
+    }
+
+    public void setResponder(Responder responder) {
+        this.responder = responder;
+    }
+
+    /**
+     * 依次测试全部传输方式
+     */
+    public List<Result> runAll() throws Exception {
+        List<Result> results = new ArrayList<>();
+        for (Transport transport : Transport.values()) results.add(run(transport));
+        return results;
+    }
+
+    /**
+     * 测试一种传输方式，阻塞到测试结束
+     */
+    public Result run(Transport transport) throws Exception {
+        Server server = new Server(responder);
+        server.start();
+        Run run = new Run(transport, server);
+        try {
+            return run.execute();
+        } finally {
+            run.close();
+            server.close();
+        }
+    }
+
+    /**
+     * 构建一条消息
+     */
+    protected byte[] message() {
+        byte[] bytes = new byte[messageSize];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putInt(messageSize - 4);
+        buffer.putLong(System.nanoTime());
+        return bytes;
+    }
+
+    /**
+     * 一次测试
+     */
+    protected class Run {
+        protected final Transport transport;
+        protected final Server server;
+        protected final List<Connection> list = new ArrayList<>();
+        protected final List<Thread> workers = new ArrayList<>();
+        protected final Recorder recorder = new Recorder();
+        protected final AtomicLong sent = new AtomicLong();
+        protected final AtomicLong errors = new AtomicLong();
+        protected volatile boolean running = true;
+        protected boolean keepAlive;// YTcp原来的keepAlive设置
+
+        protected Run(Transport transport, Server server) {
+            this.transport = transport;
+            this.server = server;
+        }
+
+        protected Result execute() throws Exception {
+            int baseThreads = Thread.activeCount();
+            for (int i = 0; i < connections; i++) {
+                Connection connection = new Connection(this);
+                connection.client = createClient(connection);
+                list.add(connection);
+            }
+            for (int i = 0; i < list.size(); i++) {
+                Thread worker = new Thread(list.get(i)::work);
+                worker.setName("YSocketBenchmark-发送" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+            Thread.sleep(warmup);
+            // 开始统计
+            recorder.reset();
+            sent.set(0);
+            errors.set(0);
+            long allocatedStart = allocatedBytes();
+            long start = System.nanoTime();
+            Thread.sleep(duration);
+            long time = System.nanoTime() - start;
+            long allocatedEnd = allocatedBytes();
+            int threads = Thread.activeCount() - baseThreads - workers.size();
+            Result result = recorder.result(transport);
+            result.connections = connections;
+            result.messageSize = messageSize;
+            result.sent = sent.get();
+            result.errors = errors.get();
+            result.time = time / 1000_000;
+            result.throughput = result.received * 1e9 / time;
+            result.bytesPerSecond = result.received * (double) messageSize * 1e9 / time;
+            result.allocationRate = allocatedStart < 0 || allocatedEnd < 0 ? -1 : (allocatedEnd - allocatedStart) * 1e9 / time;
+            result.threads = Math.max(0, threads);
+            return result;
+        }
+
+        protected Client createClient(Connection connection) throws Exception {
+            String ip = "127.0.0.1";
+            switch (transport) {
+                case YSOCKET:
+                case YSOCKET_NIO: {
+                    YSocket ySocket = new YSocket(ip, server.getTcpPort());
+                    ySocket.setNio(transport == Transport.YSOCKET_NIO);
+                    ySocket.setNoHeartbeatSendUrgentData(false);
+                    ySocket.setFrameDecoder(YFrameDecoder.lengthField(0, 4, true, 4));
+                    ySocket.setFrameListener(connection::onResponse);
+                    ySocket.start();
+                    long end = System.currentTimeMillis() + timeOut;
+                    while (!ySocket.isConnect() && System.currentTimeMillis() < end) Thread.sleep(10);
+                    if (!ySocket.isConnect()) throw new IOException("YSocket连接失败");
+                    return new Client() {
+                        @Override
+                        public void send(byte[] message) {
+                            ySocket.sendAsync(message).addListener(future -> {
+                                if (!future.isSuccess()) connection.onError();
+                            });
+                        }
+
+                        @Override
+                        public void close() {
+                            ySocket.closeConnect();
+                        }
+                    };
+                }
+                case YSOCKET_SYNC: {
+                    YSocketSync ySocketSync = new YSocketSync(ip, server.getTcpPort());
+                    ySocketSync.setNoHeartbeatSendUrgentData(false);
+                    ySocketSync.setFrameDecoder(YFrameDecoder.lengthField(0, 4, true, 4));
+                    ySocketSync.setReadTimeOut(timeOut);
+                    ySocketSync.start();
+                    long end = System.currentTimeMillis() + timeOut;
+                    while (!ySocketSync.isConnect() && System.currentTimeMillis() < end) Thread.sleep(10);
+                    if (!ySocketSync.isConnect()) throw new IOException("YSocketSync连接失败");
+                    return new Client() {
+                        @Override
+                        public void send(byte[] message) {
+                            byte[] response = ySocketSync.send(message, null);
+                            if (response == null) connection.onError();
+                            else connection.onResponse(ByteBuffer.wrap(response));
+                        }
+
+                        @Override
+                        public void close() {
+                            ySocketSync.exit();
+                        }
+                    };
+                }
+                case YTCP:
+                case YTCP_KEEP_ALIVE: {
+                    keepAlive = YTcp.INSTANCE.getKeepAlive();
+                    YTcp.INSTANCE.setKeepAlive(transport == Transport.YTCP_KEEP_ALIVE);
+                    YFrameDecoder decoder = YFrameDecoder.lengthField(0, 4, true, 4);
+                    return new Client() {
+                        @Override
+                        public void send(byte[] message) throws Exception {
+                            byte[] response = YTcp.sendFrame(ip, server.getTcpPort(), message, decoder, timeOut);
+                            if (response == null) connection.onError();
+                            else connection.onResponse(ByteBuffer.wrap(response));
+                        }
+
+                        @Override
+                        public void close() {
+                            if (transport == Transport.YTCP_KEEP_ALIVE) YTcp.clearKeepAlive();
+                            YTcp.INSTANCE.setKeepAlive(keepAlive);
+                        }
+                    };
+                }
+                case YUDP:
+                    return new Client() {
+                        @Override
+                        public void send(byte[] message) throws Exception {
+                            connection.onResponse(ByteBuffer.wrap(YUdp.sendSync(ip, server.getUdpPort(), message, messageSize, timeOut)));
+                        }
+
+                        @Override
+                        public void close() {
+                        }
+                    };
+                case YUDP_NIO:
+                    return new Client() {
+                        @Override
+                        public void send(byte[] message) {
+                            YUdp.sendFuture(ip, server.getUdpPort(), message, messageSize, timeOut).addListener(future -> {
+                                if (future.isSuccess()) connection.onResponse(ByteBuffer.wrap(future.getNow()));
+                                else connection.onError();
+                            });
+                        }
+
+                        @Override
+                        public void close() {
+                        }
+                    };
+                default:
+                    throw new IllegalArgumentException("不支持：" + transport);
+            }
+        }
+
+        protected void close() {
+            running = false;
+            for (Thread worker : workers) worker.interrupt();
+            for (Thread worker : workers) {
+                try {
+                    worker.join(timeOut);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (Connection connection : list) {
+                if (connection.client != null) connection.client.close();
+            }
+        }
+    }
+
+    /**
+     * 一个连接，一个发送线程
+     */
+    protected class Connection {
+        protected final Run run;
+        protected final Semaphore permits = new Semaphore(window);// 未应答的消息数
+        protected Client client;
+
+        protected Connection(Run run) {
+            this.run = run;
+        }
+
+        /**
+         * 发送线程，限速时按固定间隔发送，窗口满时等待应答
+         */
+        protected void work() {
+            long interval = rate > 0 ? 1000_000_000L / rate : 0;
+            long next = System.nanoTime();
+            while (run.running && !Thread.currentThread().isInterrupted()) {
+                try {
+                    if (interval > 0) {
+                        long wait = next - System.nanoTime();
+                        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                        next += interval;
+                    }
+                    // 应答丢失（如UDP丢包）时超时放弃，当作错误
+                    if (!permits.tryAcquire(timeOut, TimeUnit.MILLISECONDS)) {
+                        run.errors.incrementAndGet();
+                        permits.release();
+                        continue;
+                    }
+                    run.sent.incrementAndGet();
+                    client.send(message());
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    onError();
+                }
+            }
+        }
+
+        /**
+         * 收到应答，取出发送时间计算延迟
+         */
+        protected void onResponse(ByteBuffer response) {
+            if (response.remaining() >= HEAD_LENGTH) {
+                run.recorder.add((System.nanoTime() - response.getLong(response.position() + 4)) / 1000);
+            } else {
+                run.errors.incrementAndGet();
+            }
+            permits.release();
+        }
+
+        protected void onError() {
+            run.errors.incrementAndGet();
+            permits.release();
+        }
+    }
+
+    /**
+     * 被测客户端
+     */
+    protected interface Client {
+        /**
+         * 发送一条消息，同步方式在当前线程等待应答后回调Connection.onResponse
+         */
+        void send(byte[] message) throws Exception;
+
+        void close();
+    }
+
+    /**
+     * 延迟记录，微秒
+     */
+    protected static class Recorder {
+        protected long[] samples = new long[1024];
+        protected int count;
+
+        protected synchronized void add(long micros) {
+            if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+            samples[count++] = micros;
+        }
+
+        protected synchronized void reset() {
+            count = 0;
+        }
+
+        protected synchronized Result result(Transport transport) {
+            Result result = new Result();
+            result.transport = transport;
+            result.received = count;
+            if (count == 0) return result;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            result.p50 = sorted[(int) (count * 0.5)];
+            result.p99 = sorted[Math.min(count - 1, (int) (count * 0.99))];
+            result.max = sorted[count - 1];
+            return result;
+        }
+    }
+
+    /**
+     * 全部线程已分配的内存，不支持返回-1
+     * com.sun.management.ThreadMXBean只有JVM有，安卓没有java.lang.management，所以用反射
+     */
+    protected static long allocatedBytes() {
+        try {
+            Object bean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (!type.isInstance(bean)) return -1;
+            long[] ids = (long[]) Class.forName("java.lang.management.ThreadMXBean").getMethod("getAllThreadIds").invoke(bean);
+            Method method = type.getMethod("getThreadAllocatedBytes", long[].class);
+            long[] bytes = (long[]) method.invoke(bean, (Object) ids);
+            long total = 0;
+            for (long b : bytes) if (b > 0) total += b;
+            return total;
+        } catch (Throwable e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 进程内服务端，一个事件循环线程，TCP按帧、UDP按数据报回应
+     */
+    protected static class Server {
+        protected final Responder responder;
+        protected final YSocketLoop loop = new YSocketLoop("YSocketBenchmark-服务端");
+        protected ServerSocketChannel serverChannel;
+        protected DatagramChannel datagramChannel;
+        protected final List<SocketChannel> channels = new ArrayList<>();
+
+        protected Server(Responder responder) {
+            this.responder = responder;
+        }
+
+        protected void start() throws Exception {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+            datagramChannel = DatagramChannel.open();
+            datagramChannel.configureBlocking(false);
+            datagramChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            YFuture<Boolean> future = new YFuture<>();
+            loop.execute(() -> {
+                try {
+                    loop.register(serverChannel, SelectionKey.OP_ACCEPT, key -> accept());
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+                    loop.register(datagramChannel, SelectionKey.OP_READ, key -> receive(buffer));
+                    future.complete(true);
+                } catch (IOException e) {
+                    future.fail(e);
+                }
+            });
+            future.get();
+        }
+
+        protected int getTcpPort() {
+            return serverChannel.socket().getLocalPort();
+        }
+
+        protected int getUdpPort() {
+            return datagramChannel.socket().getLocalPort();
+        }
+
+        protected void accept() {
+            try {
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    channels.add(channel);
+                    new Session(channel).register();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        protected void receive(ByteBuffer buffer) {
+            try {
+                // 一次最多处理64个数据报，不饿死其他通道
+                for (int i = 0; i < 64; i++) {
+                    buffer.clear();
+                    SocketAddress address = datagramChannel.receive(buffer);
+                    if (address == null) return;
+                    buffer.flip();
+                    byte[] response = respond(buffer);
+                    if (response != null) datagramChannel.send(ByteBuffer.wrap(response), address);
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        protected byte[] respond(ByteBuffer request) {
+            if (responder != null) return responder.respond(request);
+            byte[] bytes = new byte[request.remaining()];
+            request.duplicate().get(bytes);
+            return bytes;
+        }
+
+        /**
+         * 一个TCP连接，按帧回应，写不完时等待OP_WRITE
+         */
+        protected class Session implements YSocketLoop.Handler {
+            protected final SocketChannel channel;
+            protected final YFramePipeline pipeline = new YFramePipeline(YFrameDecoder.lengthField(0, 4, true, 4));
+            protected final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+            protected SelectionKey key;
+
+            protected Session(SocketChannel channel) {
+                this.channel = channel;
+            }
+
+            protected void register() throws IOException {
+                key = loop.register(channel, SelectionKey.OP_READ, this);
+            }
+
+            @Override
+            public void onReady(SelectionKey key) {
+                try {
+                    if (key.isReadable() && pipeline.readFrom(channel, frame -> {
+                        byte[] response = respond(frame);
+                        if (response != null) pending.add(ByteBuffer.wrap(response));
+                    }) < 0) {
+                        close();
+                        return;
+                    }
+                    flush();
+                } catch (IOException e) {
+                    close();
+                }
+            }
+
+            protected void flush() throws IOException {
+                ByteBuffer buffer;
+                while ((buffer = pending.peek()) != null) {
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) break;
+                    pending.poll();
+                }
+                key.interestOps(pending.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+
+            protected void close() {
+                key.cancel();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        protected void close() {
+            loop.execute(() -> {
+                for (SocketChannel channel : channels) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                try {
+                    serverChannel.close();
+                    datagramChannel.close();
+                } catch (IOException ignored) {
+                }
+            });
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * 测试结果
+     */
+    public static class Result {
+        public Transport transport;// 传输方式
+        public int connections;// 连接数
+        public int messageSize;// 消息长度
+        public long sent;// 发送消息数
+        public long received;// 收到应答数
+        public long errors;// 失败、超时数
+        public long time;// 统计时间，毫秒
+        public long p50;// 延迟中位数，微秒
+        public long p99;// 99%延迟，微秒
+        public long max;// 最大延迟，微秒
+        public double throughput;// 每秒应答数
+        public double bytesPerSecond;// 每秒应答字节数（单向）
+        public double allocationRate;// 每秒分配字节数，不支持为-1
+        public int threads;// 传输方式使用的线程数
+
+        @Override
+        public String toString() {
+            return transport + "：连接" + connections + "，消息" + messageSize + "字节，发送" + sent + "，应答" + received + "，失败" + errors
+                    + "，p50：" + p50 + "μs，p99：" + p99 + "μs，最大：" + max + "μs"
+                    + "，吞吐：" + String.format("%.0f", throughput) + "条/秒，" + String.format("%.2f", bytesPerSecond / 1024 / 1024) + "MB/秒"
+                    + "，分配：" + (allocationRate < 0 ? "不支持" : String.format("%.2f", allocationRate / 1024 / 1024) + "MB/秒")
+                    + "，线程：" + threads;
+        }
+    }
+
+    /**
+     * JVM中直接运行
+     */
+    public static void main(String[] args) throws Exception {
+        YSocketBenchmark benchmark = new YSocketBenchmark();
+        if (args.length > 0) benchmark.setConnections(Integer.parseInt(args[0]));
+        if (args.length > 1) benchmark.setMessageSize(Integer.parseInt(args[1]));
+        if (args.length > 2) benchmark.setRate(Integer.parseInt(args[2]));
+        if (args.length > 3) benchmark.setDuration(Long.parseLong(args[3]));
+        for (Result result : benchmark.runAll()) System.out.println(result);
+        System.exit(0);
+    }
+}
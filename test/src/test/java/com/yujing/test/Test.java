@@ -2,11 +2,29 @@ package com.yujing.test;
 
 import android.app.Activity;
 
+import com.yujing.socket.YFuture;
+import com.yujing.socket.YSocketBenchmark;
+import com.yujing.socket.YSocketLoop;
+import com.yujing.socket.YUdpChannel;
+import com.yujing.socket.YUdpReliable;
 import com.yujing.utils.YDelay;
 import com.yujing.utils.YLog;
 import com.yujing.utils.YLoop;
 import com.yujing.utils.YNumber;
 
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 public class Test {
 
     public void main() {
@@ -20,6 +38,87 @@ public class Test {
         YLog.d("我被调用了");
     }
 
+    //socket压力测试，本机回环，不需要设备，JVM中可以直接运行
+    public void socketBenchmark() throws Exception {
+        YSocketBenchmark benchmark = new YSocketBenchmark();
+        benchmark.setConnections(4);
+        benchmark.setMessageSize(256);
+        benchmark.setRate(0);
+        benchmark.setDuration(3000);
+        for (YSocketBenchmark.Result result : benchmark.runAll()) {
+            System.out.println(result);
+        }
+    }
+
+    //可靠UDP丢包、乱序测试，本机回环，中间转发时丢掉第一个数据报（第一条消息只有一个分片），再随机丢20%、乱序30%，全部消息要按顺序收到
+    public void udpReliableLoss() throws Exception {
+        DatagramSocket proxy = new DatagramSocket(0);
+        YSocketLoop loop = new YSocketLoop("可靠UDP测试");
+        YUdpChannel channelA = new YUdpChannel(loop, 2048, 256);
+        YUdpChannel channelB = new YUdpChannel(loop, 2048, 256);
+        channelA.setRemote("127.0.0.1", proxy.getLocalPort());
+        channelB.setRemote("127.0.0.1", proxy.getLocalPort());
+        YUdpReliable sender = new YUdpReliable(channelA);
+        YUdpReliable receiver = new YUdpReliable(channelB);
+        sender.setRto(20, 200);
+        sender.setMaxRetransmit(30);
+        sender.setMss(300);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        receiver.setMessageListener(bytes -> received.add(new String(bytes, StandardCharsets.UTF_8)));
+        channelA.open().get(3000);
+        channelB.open().get(3000);
+        int portA = channelA.getBoundPort(), portB = channelB.getBoundPort();
+        Random random = new Random(7);
+        ScheduledExecutorService delay = Executors.newSingleThreadScheduledExecutor();
+        Thread forward = new Thread(() -> {
+            boolean first = true;
+            try {
+                while (true) {
+                    DatagramPacket packet = new DatagramPacket(new byte[4096], 4096);
+                    proxy.receive(packet);
+                    if (packet.getPort() == portA && first) {
+                        first = false;
+                        continue;
+                    }
+                    if (random.nextDouble() < 0.2) continue;
+                    byte[] data = Arrays.copyOf(packet.getData(), packet.getLength());
+                    DatagramPacket out = new DatagramPacket(data, data.length, InetAddress.getLoopbackAddress(), packet.getPort() == portA ? portB : portA);
+                    if (random.nextDouble() < 0.3) delay.schedule(() -> {
+                        try {
+                            proxy.send(out);
+                        } catch (Exception ignored) {
+                        }
+                    }, random.nextInt(30), TimeUnit.MILLISECONDS);
+                    else proxy.send(out);
+                }
+            } catch (Exception ignored) {
+            }
+        });
+        forward.setDaemon(true);
+        forward.start();
+        try {
+            List<String> sent = new ArrayList<>();
+            List<YFuture<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                StringBuilder message = new StringBuilder("消息" + i + "：");
+                for (int k = i == 0 ? 0 : random.nextInt(1200); k > 0; k--) message.append((char) ('a' + k % 26));
+                sent.add(message.toString());
+                futures.add(sender.send(message.toString().getBytes(StandardCharsets.UTF_8)));
+            }
+            for (YFuture<Boolean> future : futures) {
+                if (!future.get(30000)) throw new AssertionError("发送失败");
+            }
+            Thread.sleep(200);
+            if (!received.equals(sent)) throw new AssertionError("收到" + received.size() + "条，和发送的不一致");
+            System.out.println(sender.getStats());
+            System.out.println(receiver.getStats());
+        } finally {
+            proxy.close();
+            delay.shutdownNow();
+            loop.shutdown();
+        }
+    }
+
     protected void onDestroy() {
         //停止循环调用abc方法
         YLoop.stop(this,"abc");
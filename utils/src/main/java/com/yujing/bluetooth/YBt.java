@@ -7,6 +7,8 @@ import android.content.Context;
 
 import com.yujing.contract.YListener1;
 import com.yujing.contract.YSuccessFailListener;
+import com.yujing.socket.YFrameDecoder;
+import com.yujing.socket.YFramePipeline;
 import com.yujing.utils.YLog;
 import com.yujing.utils.YReadInputStream;
 import com.yujing.utils.YThread;
@@ -37,6 +39,9 @@ public class YBt implements YBluetoothDeviceConnect {
     private YReadInputStream readInputStream;
     Context context;
     InputStreamReadListener inputStreamReadListener = null;
+    private YFramePipeline framePipeline;//帧解码管道
+    private Thread frameReadThread;//按帧读取线程
+    private BluetoothSocket frameReadSocket;//按帧读取线程正在读取的socket
 
     public YBt(Context context) {
         this.context = context;
@@ -61,6 +66,15 @@ public class YBt implements YBluetoothDeviceConnect {
         this.readInputStream = readInputStream;
     }
 
+    /**
+     * 设置帧解码器，设置后按帧回调readListener，连接之前调用
+     *
+     * @param frameDecoder 帧解码器，null则使用readInputStream组包
+     */
+    public void setFrameDecoder(YFrameDecoder frameDecoder) {
+        this.framePipeline = frameDecoder == null ? null : new YFramePipeline(frameDecoder);
+    }
+
     /**
      * 尝试连接一个设备，子线程中完成，因为会线程阻塞
      *
@@ -125,6 +139,11 @@ public class YBt implements YBluetoothDeviceConnect {
         //如果没有设置读取监听，直接返回
         if (readListener == null)
             return;
+        //如果设置了帧解码器，按帧读取
+        if (inputStreamReadListener == null && framePipeline != null) {
+            startFrameRead();
+            return;
+        }
         //如果设置inputStream读取监听，那就就是用户自己解析inputStream
         if (inputStreamReadListener != null) {
             try {
@@ -146,6 +165,40 @@ public class YBt implements YBluetoothDeviceConnect {
         }
     }
 
+    /**
+     * 按帧读取线程，阻塞读取，直到socket关闭
+     * 每个读取线程使用自己的帧管道，旧线程阻塞在readFrame中时不会和新线程共用半帧数据
+     */
+    private synchronized void startFrameRead() {
+        BluetoothSocket socket = bluetoothSocket;
+        if (frameReadThread != null && frameReadThread.isAlive()) {
+            //同一个socket已经在读取，不再开线程抢读
+            if (frameReadSocket == socket) return;
+            frameReadThread.interrupt();
+            //interrupt不能打断阻塞的read，关闭旧socket让旧线程退出
+            try {
+                frameReadSocket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        YFramePipeline pipeline = new YFramePipeline(framePipeline.getDecoder());
+        frameReadSocket = socket;
+        frameReadThread = new Thread(() -> {
+            try {
+                InputStream inputStream = socket.getInputStream();
+                while (!Thread.currentThread().isInterrupted()) {
+                    byte[] frame = pipeline.readFrame(inputStream);
+                    if (readListener != null) readListener.value(frame);
+                }
+            } catch (IOException e) {
+                YLog.d("blueTooth", "退出按帧读取：" + e.getMessage());
+            }
+        });
+        frameReadThread.setName("YBt-按帧读取线程");
+        frameReadThread.start();
+    }
+
     /**
      * inputSteam读取解析监听
      */
@@ -163,5 +216,7 @@ public class YBt implements YBluetoothDeviceConnect {
     public void onDestroy() {
         if (readInputStream != null)
             readInputStream.stop();
+        if (frameReadThread != null)
+            frameReadThread.interrupt();
     }
 }
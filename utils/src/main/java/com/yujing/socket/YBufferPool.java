@@ -0,0 +1,135 @@
+package com.yujing.socket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 有上限的直接内存缓存池，缓存大小固定
+ * 1.直接内存（allocateDirect）读写通道时不用再复制一次到堆外，分配代价高，所以重复使用。
+ * 2.最多maxCount个缓存，全部借出后acquire返回null，调用方应暂停读取，等待归还，内存不会无限增长。
+ * 线程安全，可以在任意线程归还。
+ *
+ * @author 余静 2026年10月18日17:05:36
+ */
+/*
+使用方法：
+YBufferPool pool = new YBufferPool(2048, 64);
+ByteBuffer buffer = pool.acquire();
+if (buffer != null) {
+    channel.receive(buffer);
+    ...
+    pool.release(buffer);
+}
+ */
+@SuppressWarnings("unused")
+public class YBufferPool {
+    protected final int bufferSize;// 每个缓存大小
+    protected final int maxCount;// 最多缓存个数
+    protected final boolean direct;// 是否使用直接内存
+    protected final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();// 空闲缓存
+    protected int allocated;// 已分配个数
+    protected long acquireCount;// 借出次数
+    protected long exhaustedCount;// 借不到的次数
+    protected Runnable releaseListener;// 全部借出后又有归还时回调，用于恢复读取
+
+    /**
+     * @param bufferSize 每个缓存大小
+     * @param maxCount   最多缓存个数
+     */
+    public YBufferPool(int bufferSize, int maxCount) {
+        this(bufferSize, maxCount, true);
+    }
+
+    /**
+     * @param bufferSize 每个缓存大小
+     * @param maxCount   最多缓存个数
+     * @param direct     是否使用直接内存
+     */
+    public YBufferPool(int bufferSize, int maxCount, boolean direct) {
+        if (bufferSize < 1 || maxCount < 1) throw new IllegalArgumentException("bufferSize、maxCount必须大于0");
+        this.bufferSize = bufferSize;
+        this.maxCount = maxCount;
+        this.direct = direct;
+    }
+
+    /**
+     * 借出一个缓存，已经clear，全部借出返回null
+     */
+    public synchronized ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null) {
+            if (allocated >= maxCount) {
+                exhaustedCount++;
+                return null;
+            }
+            allocated++;
+            buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        acquireCount++;
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 归还缓存，只能归还从这个池借出的缓存，不能重复归还
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize) return;
+        Runnable listener;
+        synchronized (this) {
+            boolean wasEmpty = free.isEmpty() && allocated >= maxCount;
+            free.addFirst(buffer);
+            listener = wasEmpty ? releaseListener : null;
+        }
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * 全部借出后又有归还时回调，在归还的线程中回调
+     */
+    public synchronized void setReleaseListener(Runnable releaseListener) {
+        this.releaseListener = releaseListener;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 当前借出个数
+     */
+    public synchronized int getInUse() {
+        return allocated - free.size();
+    }
+
+    /**
+     * 统计信息
+     */
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.bufferSize = bufferSize;
+        stats.maxCount = maxCount;
+        stats.allocated = allocated;
+        stats.inUse = allocated - free.size();
+        stats.acquireCount = acquireCount;
+        stats.exhaustedCount = exhaustedCount;
+        return stats;
+    }
+
+    /**
+     * 统计信息
+     */
+    public static class Stats {
+        public int bufferSize;// 每个缓存大小
+        public int maxCount;// 最多缓存个数
+        public int allocated;// 已分配个数
+        public int inUse;// 当前借出个数
+        public long acquireCount;// 借出次数
+        public long exhaustedCount;// 借不到的次数
+
+        @Override
+        public String toString() {
+            return "缓存大小：" + bufferSize + "，上限：" + maxCount + "，已分配：" + allocated + "，借出中：" + inUse + "，借出次数：" + acquireCount + "，借不到：" + exhaustedCount;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.yujing.socket;
+
+import com.yujing.utils.YConvertNumberBytes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 按消息压缩，YSocket发送、接收时压缩解压
+ * 1.Deflater、Inflater一个连接一个，重复使用（reset），不像YGzip.compress每次创建，减少分配和本地内存。
+ * 2.预置字典：用典型数据训练字典（trainDictionary），JSON等短消息也能压缩，字典ID（Adler32）写在帧头里，接收方按ID找字典，两端先各自添加字典再切换发送字典即可平滑升级。
+ * 3.小于阈值的消息不压缩，压缩后没有变小的也不压缩，原样发送。
+ * 4.统计压缩率和每帧压缩、解压耗时，用于按链路决定是否开启。
+ * 帧格式：魔数0x59 0x43 | 标志(1) | 长度(4，大端，不含帧头) | 内容
+ * 压缩时内容为：原长度(4) | 字典ID(4，有字典时) | deflate数据（nowrap）
+ * 两端都要使用YCompressor，设置后YSocket按这个帧头分帧，不能再设置其他帧解码器。
+ *
+ * @author 余静 2026年10月18日19:26:40
+ */
+/*
+使用方法：
+//训练字典，用现场采集的典型数据，两端使用同一个字典
+byte[] dictionary = YCompressor.trainDictionary(samples, 4096);
+YCompressor compressor = new YCompressor();
+compressor.setDictionary(dictionary);
+compressor.setThreshold(64);
+ySocket.setCompressor(compressor);
+
+//统计
+YLog.i(compressor.getStats().toString());
+ */
+@SuppressWarnings("unused")
+public class YCompressor {
+    public static final byte[] MAGIC = {0x59, 0x43};// 魔数
+    public static final int HEAD_LENGTH = 7;// 帧头长度
+    public static final int FLAG_DEFLATE = 1;// 已压缩
+    public static final int FLAG_DICTIONARY = 2;// 使用了字典
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;// deflate窗口大小，字典超过部分无效
+    protected int threshold = 128;// 小于这个长度不压缩
+    protected int level = Deflater.DEFAULT_COMPRESSION;// 压缩级别
+    protected int maxLength = YFramePipeline.DEFAULT_MAX_FRAME_LENGTH;// 解压后最大长度
+    protected byte[] dictionary;// 发送使用的字典
+    protected int dictionaryId;// 发送使用的字典ID
+    protected final Map<Integer, byte[]> dictionaries = new HashMap<>();// 接收可用的字典，key为字典ID
+    protected final Deflater deflater;
+    protected final Inflater inflater = new Inflater(true);
+    protected final Object deflateLock = new Object();// 压缩锁，可以在多个线程中发送
+    protected final Object inflateLock = new Object();// 解压锁
+    protected byte[] deflateBuffer = new byte[1024];// 压缩输出缓存，重复使用
+    // 统计
+    protected long encodeCount;// 发送消息数
+    protected long compressCount;// 压缩发送的消息数
+    protected long rawBytes;// 发送原始字节数
+    protected long wireBytes;// 发送实际字节数，含帧头
+    protected long compressNanos;// 压缩总耗时
+    protected long decodeCount;// 接收消息数
+    protected long decompressCount;// 解压的消息数
+    protected long receiveRawBytes;// 接收解压后字节数
+    protected long receiveWireBytes;// 接收实际字节数，含帧头
+    protected long decompressNanos;// 解压总耗时
+
+    public YCompressor() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level 压缩级别，0~9，低端设备上1~3压缩率差不多，耗时少很多
+     */
+    public YCompressor(int level) {
+        this.level = level;
+        this.deflater = new Deflater(level, true);
+    }
+
+    /**
+     * 帧解码器，按帧头分帧，YSocket.setCompressor时自动设置
+     */
+    public YFrameDecoder getFrameDecoder() {
+        return YFrameDecoder.magicHeader(MAGIC, 3, 4, true, HEAD_LENGTH);
+    }
+
+    /**
+     * 小于这个长度不压缩，默认128
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = Math.max(0, threshold);
+    }
+
+    /**
+     * 解压后最大长度，超过认为数据错误，默认1M
+     */
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * 设置发送使用的字典，同时加入接收字典，为null不使用字典
+     * 对方必须先有这个字典（addDictionary），否则无法解压
+     */
+    public void setDictionary(byte[] dictionary) {
+        synchronized (deflateLock) {
+            if (dictionary == null || dictionary.length == 0) {
+                this.dictionary = null;
+                this.dictionaryId = 0;
+                return;
+            }
+            this.dictionary = tail(dictionary);
+            this.dictionaryId = addDictionary(dictionary);
+        }
+    }
+
+    /**
+     * 添加接收字典，可以添加多个，按帧头中的字典ID选择
+     *
+     * @return 字典ID
+     */
+    public int addDictionary(byte[] dictionary) {
+        byte[] bytes = tail(dictionary);
+        int id = dictionaryId(bytes);
+        synchronized (dictionaries) {
+            dictionaries.put(id, bytes);
+        }
+        return id;
+    }
+
+    /**
+     * 字典ID，字典的Adler32
+     */
+    public static int dictionaryId(byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary, 0, dictionary.length);
+        return (int) adler32.getValue();
+    }
+
+    /**
+     * deflate只用字典最后32K
+     */
+    protected static byte[] tail(byte[] dictionary) {
+        if (dictionary.length <= MAX_DICTIONARY_SIZE) return dictionary;
+        byte[] bytes = new byte[MAX_DICTIONARY_SIZE];
+        System.arraycopy(dictionary, dictionary.length - MAX_DICTIONARY_SIZE, bytes, 0, MAX_DICTIONARY_SIZE);
+        return bytes;
+    }
+
+    /**
+     * 编码一条消息，返回带帧头的数据
+     * 小于阈值或者压缩后没有变小时原样发送
+     */
+    public byte[] encode(byte[] data) {
+        int length = data.length;
+        byte[] frame = null;
+        synchronized (deflateLock) {
+            encodeCount++;
+            rawBytes += length;
+            if (length >= threshold && length > 0) {
+                long start = System.nanoTime();
+                int extra = dictionary != null ? 8 : 4;
+                // 输出不少于原长度才值得压缩，缓存只需要这么大
+                int limit = length - extra;
+                if (limit > 0) {
+                    if (deflateBuffer.length < limit) deflateBuffer = new byte[Math.max(limit, deflateBuffer.length * 2)];
+                    if (dictionary != null) deflater.setDictionary(dictionary);
+                    deflater.setInput(data, 0, length);
+                    deflater.finish();
+                    int count = 0;
+                    while (!deflater.finished() && count < limit) count += deflater.deflate(deflateBuffer, count, limit - count);
+                    boolean smaller = deflater.finished();
+                    deflater.reset();
+                    if (smaller) {
+                        int flags = FLAG_DEFLATE | (dictionary != null ? FLAG_DICTIONARY : 0);
+                        frame = head(flags, extra + count);
+                        YConvertNumberBytes.intToBytes(length, frame, HEAD_LENGTH);
+                        if (dictionary != null) YConvertNumberBytes.intToBytes(dictionaryId, frame, HEAD_LENGTH + 4);
+                        System.arraycopy(deflateBuffer, 0, frame, HEAD_LENGTH + extra, count);
+                        compressCount++;
+                    }
+                }
+                compressNanos += System.nanoTime() - start;
+            }
+            if (frame == null) {
+                frame = head(0, length);
+                System.arraycopy(data, 0, frame, HEAD_LENGTH, length);
+            }
+            wireBytes += frame.length;
+        }
+        return frame;
+    }
+
+    /**
+     * 创建帧，写好帧头
+     */
+    protected static byte[] head(int flags, int bodyLength) {
+        byte[] frame = new byte[HEAD_LENGTH + bodyLength];
+        frame[0] = MAGIC[0];
+        frame[1] = MAGIC[1];
+        frame[2] = (byte) flags;
+        YConvertNumberBytes.intToBytes(bodyLength, frame, 3);
+        return frame;
+    }
+
+    /**
+     * 解码一帧，frame为getFrameDecoder切分出的完整一帧（含帧头）
+     */
+    public byte[] decode(byte[] frame) throws IOException {
+        return decode(ByteBuffer.wrap(frame));
+    }
+
+    /**
+     * 解码一帧，frame为getFrameDecoder切分出的完整一帧（含帧头），从position到limit，不修改position
+     *
+     * @throws IOException 帧格式错误、没有对应字典、数据损坏
+     */
+    public byte[] decode(ByteBuffer frame) throws IOException {
+        int position = frame.position();
+        int remaining = frame.remaining();
+        if (remaining < HEAD_LENGTH || frame.get(position) != MAGIC[0] || frame.get(position + 1) != MAGIC[1])
+            throw new IOException("不是压缩帧");
+        int flags = frame.get(position + 2);
+        int bodyLength = frame.getInt(position + 3);
+        if (bodyLength < 0 || bodyLength > remaining - HEAD_LENGTH) throw new IOException("压缩帧长度错误：" + bodyLength);
+        int bodyStart = position + HEAD_LENGTH;
+        if ((flags & FLAG_DEFLATE) == 0) {
+            byte[] bytes = new byte[bodyLength];
+            // 不用链式调用，Java 8及安卓上Buffer.position返回Buffer
+            ByteBuffer dup = frame.duplicate();
+            dup.position(bodyStart);
+            dup.get(bytes);
+            synchronized (inflateLock) {
+                decodeCount++;
+                receiveRawBytes += bodyLength;
+                receiveWireBytes += HEAD_LENGTH + bodyLength;
+            }
+            return bytes;
+        }
+        boolean useDictionary = (flags & FLAG_DICTIONARY) != 0;
+        int extra = useDictionary ? 8 : 4;
+        if (bodyLength < extra) throw new IOException("压缩帧长度错误：" + bodyLength);
+        int rawLength = frame.getInt(bodyStart);
+        if (rawLength < 0 || rawLength > maxLength) throw new IOException("解压后长度错误：" + rawLength);
+        byte[] dictionary = null;
+        if (useDictionary) {
+            int id = frame.getInt(bodyStart + 4);
+            synchronized (dictionaries) {
+                dictionary = dictionaries.get(id);
+            }
+            if (dictionary == null) throw new IOException("没有压缩字典：" + Integer.toHexString(id));
+        }
+        // Inflater只能读数组，直接内存时复制一次
+        byte[] input;
+        int offset;
+        int inputLength = bodyLength - extra;
+        if (frame.hasArray()) {
+            input = frame.array();
+            offset = frame.arrayOffset() + bodyStart + extra;
+        } else {
+            input = new byte[inputLength];
+            ByteBuffer dup = frame.duplicate();
+            dup.position(bodyStart + extra);
+            dup.get(input);
+            offset = 0;
+        }
+        byte[] bytes = new byte[rawLength];
+        synchronized (inflateLock) {
+            long start = System.nanoTime();
+            try {
+                if (dictionary != null) inflater.setDictionary(dictionary);
+                inflater.setInput(input, offset, inputLength);
+                int count = 0;
+                while (count < rawLength) {
+                    int n = inflater.inflate(bytes, count, rawLength - count);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+                    count += n;
+                }
+                if (count != rawLength) throw new IOException("解压长度错误：" + count + "/" + rawLength);
+            } catch (DataFormatException e) {
+                throw new IOException("解压失败：" + e.getMessage(), e);
+            } finally {
+                inflater.reset();
+            }
+            decodeCount++;
+            decompressCount++;
+            receiveRawBytes += rawLength;
+            receiveWireBytes += HEAD_LENGTH + bodyLength;
+            decompressNanos += System.nanoTime() - start;
+        }
+        return bytes;
+    }
+
+    /**
+     * 用典型数据训练字典：统计8字节片段在多少条样本中出现，按样本中公共片段的比例排序，
+     * 选公共部分最多的样本拼接，最常见的放在最后（距离越近deflate编码越短）
+     *
+     * @param samples 样本，越接近实际数据越好，一般几十到几百条
+     * @param maxSize 字典最大长度，不超过32K，一般1K~8K
+     */
+    public static byte[] trainDictionary(List<byte[]> samples, int maxSize) {
+        final int k = 8;
+        maxSize = Math.min(maxSize, MAX_DICTIONARY_SIZE);
+        Map<Long, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + k <= sample.length; i++) {
+                Long key = YConvertNumberBytes.bytesToLong(sample, i);
+                if (seen.add(key)) {
+                    Integer count = counts.get(key);
+                    counts.put(key, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        // 每条样本的得分：每个字节平均被多少条其他样本共用
+        List<double[]> scores = new ArrayList<>();
+        for (int index = 0; index < samples.size(); index++) {
+            byte[] sample = samples.get(index);
+            if (sample.length < k) continue;
+            Set<Long> seen = new HashSet<>();
+            double score = 0;
+            for (int i = 0; i + k <= sample.length; i++) {
+                Long key = YConvertNumberBytes.bytesToLong(sample, i);
+                if (seen.add(key)) score += counts.get(key) - 1;
+            }
+            scores.add(new double[]{score / sample.length, index});
+        }
+        Collections.sort(scores, (a, b) -> Double.compare(b[0], a[0]));
+        // 从得分高的开始选，放在字典末尾
+        List<byte[]> picked = new ArrayList<>();
+        Set<Long> covered = new HashSet<>();
+        int size = 0;
+        for (double[] score : scores) {
+            byte[] sample = samples.get((int) score[1]);
+            if (size + sample.length > maxSize) continue;
+            // 已经被字典覆盖大半的样本不再加入
+            int fresh = 0;
+            int total = 0;
+            for (int i = 0; i + k <= sample.length; i++, total++)
+                if (!covered.contains(YConvertNumberBytes.bytesToLong(sample, i))) fresh++;
+            if (fresh * 2 < total) continue;
+            for (int i = 0; i + k <= sample.length; i++) covered.add(YConvertNumberBytes.bytesToLong(sample, i));
+            picked.add(sample);
+            size += sample.length;
+        }
+        byte[] dictionary = new byte[size];
+        int position = size;
+        for (byte[] sample : picked) {
+            position -= sample.length;
+            System.arraycopy(sample, 0, dictionary, position, sample.length);
+        }
+        return dictionary;
+    }
+
+    /**
+     * 释放本地内存，释放后不能再使用
+     */
+    public void end() {
+        synchronized (deflateLock) {
+            deflater.end();
+        }
+        synchronized (inflateLock) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 统计信息
+     */
+    public Stats getStats() {
+        Stats stats = new Stats();
+        synchronized (deflateLock) {
+            stats.encodeCount = encodeCount;
+            stats.compressCount = compressCount;
+            stats.rawBytes = rawBytes;
+            stats.wireBytes = wireBytes;
+            stats.compressNanos = compressNanos;
+        }
+        synchronized (inflateLock) {
+            stats.decodeCount = decodeCount;
+            stats.decompressCount = decompressCount;
+            stats.receiveRawBytes = receiveRawBytes;
+            stats.receiveWireBytes = receiveWireBytes;
+            stats.decompressNanos = decompressNanos;
+        }
+        return stats;
+    }
+
+    /**
+     * 统计信息
+     */
+    public static class Stats {
+        public long encodeCount;// 发送消息数
+        public long compressCount;// 压缩发送的消息数
+        public long rawBytes;// 发送原始字节数
+        public long wireBytes;// 发送实际字节数，含帧头
+        public long compressNanos;// 压缩总耗时
+        public long decodeCount;// 接收消息数
+        public long decompressCount;// 解压的消息数
+        public long receiveRawBytes;// 接收解压后字节数
+        public long receiveWireBytes;// 接收实际字节数，含帧头
+        public long decompressNanos;// 解压总耗时
+
+        // 发送压缩率，实际字节/原始字节，越小越好
+        public double getRatio() {
+            return rawBytes == 0 ? 1 : (double) wireBytes / rawBytes;
+        }
+
+        // 接收压缩率
+        public double getReceiveRatio() {
+            return receiveRawBytes == 0 ? 1 : (double) receiveWireBytes / receiveRawBytes;
+        }
+
+        // 平均每帧压缩耗时，微秒
+        public double getCompressMicros() {
+            return compressCount == 0 ? 0 : compressNanos / 1000.0 / compressCount;
+        }
+
+        // 平均每帧解压耗时，微秒
+        public double getDecompressMicros() {
+            return decompressCount == 0 ? 0 : decompressNanos / 1000.0 / decompressCount;
+        }
+
+        @Override
+        public String toString() {
+            return "发送：" + encodeCount + "条，压缩" + compressCount + "条，" + rawBytes + "→" + wireBytes + "字节，压缩率：" + String.format("%.1f", getRatio() * 100) + "%，每帧压缩：" + String.format("%.1f", getCompressMicros()) + "μs"
+                    + "；接收：" + decodeCount + "条，解压" + decompressCount + "条，" + receiveWireBytes + "→" + receiveRawBytes + "字节，压缩率：" + String.format("%.1f", getReceiveRatio() * 100) + "%，每帧解压：" + String.format("%.1f", getDecompressMicros()) + "μs";
+        }
+    }
+}
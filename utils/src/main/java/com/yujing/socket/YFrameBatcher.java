@@ -0,0 +1,215 @@
+package com.yujing.socket;
+
+import android.view.Choreographer;
+
+import com.yujing.utils.YClass;
+import com.yujing.utils.YLog;
+import com.yujing.utils.YThread;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按帧合并回调，高频数据不再每条post一次主线程
+ * 1.两次刷新之间收到的数据合并成一个List，一次回调。
+ * 2.按标签只保留最新：同一个标签在一帧内只回调最后一条，如实时重量、实时坐标。
+ * 3.安卓使用Choreographer，每个vsync最多回调一次，在主线程中回调；非安卓按固定间隔（默认16毫秒）在共享定时线程中回调。
+ * 4.没有数据时不注册帧回调，不占用CPU。
+ *
+ * @author 余静 2026年10月18日13:58:40
+ */
+/*
+使用方法：
+//合并全部数据，一帧回调一次
+ySocket.setFrameBatcher(new YFrameBatcher<>(list -> {
+    for (byte[] bytes : list) { ... }
+}));
+//按标签只保留最新，如第1个字节是通道号
+ySocket.setFrameBatcher(new YFrameBatcher<>(bytes -> bytes[0], list -> { ... }));
+
+//YUdp
+yUdp.frameBatcher = YFrameBatcher<ByteArray>(YFrameBatcher.BatchListener { list -> ... })
+//统计
+YLog.i(ySocket.getFrameBatcher().getStats().toString());
+ */
+@SuppressWarnings("unused")
+public class YFrameBatcher<T> {
+    private static volatile ScheduledExecutorService timer;
+    protected final BatchListener<T> batchListener;// 批量回调
+    protected final TagExtractor<T> tagExtractor;// 标签提取，为空时合并全部数据
+    protected final Object lock = new Object();
+    protected List<T> pending = new ArrayList<>();// 合并全部时，待回调的数据
+    protected LinkedHashMap<Object, T> latest = new LinkedHashMap<>();// 按标签保留最新时，待回调的数据
+    protected boolean scheduled;// 是否已经安排刷新
+    protected long flushInterval = 16;// 非安卓刷新间隔，毫秒
+    protected boolean showLog = false;
+    // 统计
+    protected long received;// 收到数量
+    protected long delivered;// 回调数量
+    protected long batches;// 回调次数
+    protected int maxBatch;// 单次最多回调数量
+    private final Runnable flushTask = this::flush;
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> flush();
+    private final Runnable postFrameTask = () -> Choreographer.getInstance().postFrameCallback(frameCallback);
+
+    /**
+     * 构造函数，合并全部数据
+     *
+     * @param batchListener 批量回调
+     */
+    public YFrameBatcher(BatchListener<T> batchListener) {
+        this(null, batchListener);
+    }
+
+    /**
+     * 构造函数，按标签只保留最新
+     *
+     * @param tagExtractor  标签提取，为空时合并全部数据
+     * @param batchListener 批量回调
+     */
+    public YFrameBatcher(TagExtractor<T> tagExtractor, BatchListener<T> batchListener) {
+        if (batchListener == null) throw new IllegalArgumentException("batchListener不能为空");
+        this.tagExtractor = tagExtractor;
+        this.batchListener = batchListener;
+    }
+
+    /**
+     * 共享定时线程，非安卓环境刷新用
+     */
+    protected static ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            synchronized (YFrameBatcher.class) {
+                if (timer == null) {
+                    timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable);
+                        thread.setName("YFrameBatcher-刷新");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * 非安卓刷新间隔，毫秒，默认16
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = Math.max(1, flushInterval);
+    }
+
+    public void setShowLog(boolean showLog) {
+        this.showLog = showLog;
+    }
+
+    /**
+     * 添加一条数据，任意线程调用，下一帧回调
+     */
+    public void add(T item) {
+        synchronized (lock) {
+            received++;
+            if (tagExtractor != null) latest.put(tagExtractor.tag(item), item);
+            else pending.add(item);
+            if (scheduled) return;
+            scheduled = true;
+        }
+        schedule();
+    }
+
+    /**
+     * 立即回调已合并的数据，在调用线程中回调
+     */
+    public void flush() {
+        List<T> batch;
+        synchronized (lock) {
+            scheduled = false;
+            if (tagExtractor != null) {
+                if (latest.isEmpty()) return;
+                batch = new ArrayList<>(latest.values());
+                latest.clear();
+            } else {
+                if (pending.isEmpty()) return;
+                batch = pending;
+                pending = new ArrayList<>(batch.size());
+            }
+            batches++;
+            delivered += batch.size();
+            if (batch.size() > maxBatch) maxBatch = batch.size();
+        }
+        try {
+            batchListener.batch(batch);
+        } catch (Throwable e) {
+            if (showLog) YLog.e("回调异常：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 丢弃未回调的数据
+     */
+    public void clear() {
+        synchronized (lock) {
+            pending.clear();
+            latest.clear();
+        }
+    }
+
+    /**
+     * 统计信息
+     */
+    public Stats getStats() {
+        synchronized (lock) {
+            Stats stats = new Stats();
+            stats.received = received;
+            stats.delivered = delivered;
+            stats.batches = batches;
+            stats.maxBatch = maxBatch;
+            stats.pending = tagExtractor != null ? latest.size() : pending.size();
+            return stats;
+        }
+    }
+
+    protected void schedule() {
+        if (YClass.isAndroid()) {
+            // Choreographer只能在有Looper的线程中获取，这里只用主线程的
+            if (YThread.isMainThread()) postFrameTask.run();
+            else YThread.getMainHandler().post(postFrameTask);
+        } else {
+            getTimer().schedule(flushTask, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 批量回调
+     */
+    public interface BatchListener<T> {
+        void batch(List<T> items);
+    }
+
+    /**
+     * 标签提取，相同标签一帧内只保留最新
+     */
+    public interface TagExtractor<T> {
+        Object tag(T item);
+    }
+
+    /**
+     * 统计信息
+     */
+    public static class Stats {
+        public long received;// 收到数量
+        public long delivered;// 回调数量
+        public long batches;// 回调次数
+        public int maxBatch;// 单次最多回调数量
+        public int pending;// 待回调数量
+
+        @Override
+        public String toString() {
+            return "收到：" + received + "，回调：" + delivered + "，回调次数：" + batches + "，单次最多：" + maxBatch + "，待回调：" + pending;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.yujing.socket;
+
+import com.yujing.utils.YConvertNumberBytes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 帧解码器，从字节流中切分出一帧完整数据
+ * 解码器不保存状态，也不修改buffer的position和limit，只负责计算帧长度，数据的缓存和切片由YFramePipeline完成。
+ * 内置：长度字段、分隔符、固定长度、魔数帧头+长度字段。
+ *
+ * @author 余静 2026年10月18日11:40:52
+ */
+/*
+使用方法：
+//长度字段，长度在第6位，4个字节，大端，长度只表示正文长度，帧头10字节
+YFrameDecoder decoder = YFrameDecoder.lengthField(6, 4, true, 10);
+//分隔符，\r\n结尾，交付时去掉分隔符
+YFrameDecoder decoder = YFrameDecoder.delimiter(new byte[]{'\r', '\n'}, true);
+//固定长度，每帧16字节
+YFrameDecoder decoder = YFrameDecoder.fixedLength(16);
+//魔数帧头0x5A，长度在第6位，4个字节，大端，帧头10字节，找不到魔数时自动跳过垃圾数据
+YFrameDecoder decoder = YFrameDecoder.magicHeader(new byte[]{0x5A}, 6, 4, true, 10);
+
+//YSocket
+ySocket.setFrameDecoder(decoder);
+//YSocketSync
+ySocketSync.frameDecoder = decoder
+//YTcp
+val frame = YTcp.sendFrame(ip, port, data, decoder, 5000)
+//YBt
+yBt.setFrameDecoder(decoder);
+ */
+public interface YFrameDecoder {
+    /**
+     * 从buffer中解码一帧，buffer为读模式，从position开始到limit是可读数据，不要修改position和limit
+     *
+     * @param in 可读数据
+     * @return 大于0：一帧完整数据的长度（包含帧头、分隔符）；等于0：数据不够，继续读取；小于0：丢弃前-n个字节后重新解码
+     * @throws IOException 数据无法解析，如长度超过最大值，调用者将丢弃已缓存的数据
+     */
+    int decode(ByteBuffer in) throws IOException;
+
+    /**
+     * 交付帧时去掉的帧头字节数
+     */
+    int stripHead();
+
+    /**
+     * 交付帧时去掉的帧尾字节数
+     */
+    int stripTail();
+
+    /**
+     * 长度字段
+     *
+     * @param lengthOffset 长度字段位置
+     * @param lengthWidth  长度字段字节数，1、2、4、8
+     * @param bigEndian    是否大端
+     * @param headLength   帧头长度，帧总长度=headLength+长度字段值
+     */
+    static YFrameDecoder lengthField(int lengthOffset, int lengthWidth, boolean bigEndian, int headLength) {
+        return new LengthField(lengthOffset, lengthWidth, bigEndian, headLength, 0, YFramePipeline.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * 分隔符
+     *
+     * @param delimiter      分隔符
+     * @param stripDelimiter 交付时是否去掉分隔符
+     */
+    static YFrameDecoder delimiter(byte[] delimiter, boolean stripDelimiter) {
+        return new Delimiter(delimiter, stripDelimiter, YFramePipeline.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * 固定长度
+     *
+     * @param frameLength 每帧长度
+     */
+    static YFrameDecoder fixedLength(int frameLength) {
+        return new FixedLength(frameLength);
+    }
+
+    /**
+     * 魔数帧头+长度字段，不以魔数开头的数据会被跳过
+     *
+     * @param magic        魔数，帧的第一个字节开始
+     * @param lengthOffset 长度字段位置
+     * @param lengthWidth  长度字段字节数，1、2、4、8
+     * @param bigEndian    是否大端
+     * @param headLength   帧头长度，帧总长度=headLength+长度字段值
+     */
+    static YFrameDecoder magicHeader(byte[] magic, int lengthOffset, int lengthWidth, boolean bigEndian, int headLength) {
+        return new MagicHeader(magic, lengthOffset, lengthWidth, bigEndian, headLength, 0, YFramePipeline.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * 读取长度字段，用YConvertNumberBytes转换
+     */
+    static long readLength(ByteBuffer in, int offset, int width, boolean bigEndian) {
+        byte[] array;
+        int index;
+        if (in.hasArray()) {
+            array = in.array();
+            index = in.arrayOffset() + offset;
+        } else {
+            array = new byte[width];
+            for (int i = 0; i < width; i++) array[i] = in.get(offset + i);
+            index = 0;
+        }
+        switch (width) {
+            case 1:
+                return array[index] & 0xFF;
+            case 2:
+                return bigEndian ? YConvertNumberBytes.bytes2ToInt(array, index) : YConvertNumberBytes.bytes2ToIntMin(array, index);
+            case 4:
+                return (bigEndian ? YConvertNumberBytes.bytesToInt(array, index) : YConvertNumberBytes.bytesToIntMin(array, index)) & 0xFFFFFFFFL;
+            case 8:
+                return bigEndian ? YConvertNumberBytes.bytesToLong(array, index) : YConvertNumberBytes.bytesToLongMin(array, index);
+            default:
+                throw new IllegalArgumentException("长度字段字节数只能是1、2、4、8");
+        }
+    }
+
+    /**
+     * 长度字段解码器
+     */
+    class LengthField implements YFrameDecoder {
+        protected final int lengthOffset;// 长度字段位置
+        protected final int lengthWidth;// 长度字段字节数
+        protected final boolean bigEndian;// 是否大端
+        protected final int headLength;// 帧头长度
+        protected final int stripHead;// 交付时去掉的帧头字节数
+        protected final int maxFrameLength;// 最大帧长度
+
+        /**
+         * @param stripHead      交付时去掉的帧头字节数，如设置成headLength只交付正文
+         * @param maxFrameLength 最大帧长度，超过则认为数据错误
+         */
+        public LengthField(int lengthOffset, int lengthWidth, boolean bigEndian, int headLength, int stripHead, int maxFrameLength) {
+            if (lengthWidth != 1 && lengthWidth != 2 && lengthWidth != 4 && lengthWidth != 8)
+                throw new IllegalArgumentException("长度字段字节数只能是1、2、4、8");
+            if (lengthOffset + lengthWidth > headLength)
+                throw new IllegalArgumentException("长度字段必须在帧头内");
+            this.lengthOffset = lengthOffset;
+            this.lengthWidth = lengthWidth;
+            this.bigEndian = bigEndian;
+            this.headLength = headLength;
+            this.stripHead = stripHead;
+            this.maxFrameLength = maxFrameLength;
+        }
+
+        @Override
+        public int decode(ByteBuffer in) throws IOException {
+            if (in.remaining() < headLength) return 0;
+            long frameLength = headLength + readLength(in, in.position() + lengthOffset, lengthWidth, bigEndian);
+            if (frameLength < headLength || frameLength > maxFrameLength)
+                throw new IOException("帧长度错误：" + frameLength + "，最大：" + maxFrameLength);
+            return in.remaining() < frameLength ? 0 : (int) frameLength;
+        }
+
+        @Override
+        public int stripHead() {
+            return stripHead;
+        }
+
+        @Override
+        public int stripTail() {
+            return 0;
+        }
+    }
+
+    /**
+     * 魔数帧头+长度字段解码器，开头不是魔数时，跳过数据直到找到魔数
+     */
+    class MagicHeader extends LengthField {
+        protected final byte[] magic;// 魔数
+
+        public MagicHeader(byte[] magic, int lengthOffset, int lengthWidth, boolean bigEndian, int headLength, int stripHead, int maxFrameLength) {
+            super(lengthOffset, lengthWidth, bigEndian, headLength, stripHead, maxFrameLength);
+            if (magic == null || magic.length == 0 || magic.length > headLength)
+                throw new IllegalArgumentException("魔数长度错误");
+            this.magic = magic;
+        }
+
+        @Override
+        public int decode(ByteBuffer in) {
+            int start = in.position();
+            int limit = in.limit();
+            // 找魔数
+            int found = -1;
+            for (int i = start; i <= limit - magic.length; i++) {
+                if (matches(in, i)) {
+                    found = i;
+                    break;
+                }
+            }
+            if (found < 0) {
+                // 没找到，保留末尾可能是魔数前半部分的字节
+                int skip = Math.max(0, in.remaining() - (magic.length - 1));
+                return skip > 0 ? -skip : 0;
+            }
+            if (found > start) return -(found - start);
+            if (in.remaining() < headLength) return 0;
+            long frameLength = headLength + readLength(in, start + lengthOffset, lengthWidth, bigEndian);
+            // 长度错误，认为是假魔数，跳过1字节重新找
+            if (frameLength < headLength || frameLength > maxFrameLength) return -1;
+            return in.remaining() < frameLength ? 0 : (int) frameLength;
+        }
+
+        protected boolean matches(ByteBuffer in, int index) {
+            for (int i = 0; i < magic.length; i++) {
+                if (in.get(index + i) != magic[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 分隔符解码器
+     */
+    class Delimiter implements YFrameDecoder {
+        protected final byte[] delimiter;// 分隔符
+        protected final boolean stripDelimiter;// 交付时是否去掉分隔符
+        protected final int maxFrameLength;// 最大帧长度
+
+        public Delimiter(byte[] delimiter, boolean stripDelimiter, int maxFrameLength) {
+            if (delimiter == null || delimiter.length == 0)
+                throw new IllegalArgumentException("分隔符不能为空");
+            this.delimiter = delimiter;
+            this.stripDelimiter = stripDelimiter;
+            this.maxFrameLength = maxFrameLength;
+        }
+
+        @Override
+        public int decode(ByteBuffer in) throws IOException {
+            int start = in.position();
+            int limit = in.limit();
+            byte first = delimiter[0];
+            for (int i = start; i <= limit - delimiter.length; i++) {
+                if (in.get(i) != first) continue;
+                boolean match = true;
+                for (int j = 1; j < delimiter.length; j++) {
+                    if (in.get(i + j) != delimiter[j]) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match) return i - start + delimiter.length;
+            }
+            if (in.remaining() > maxFrameLength)
+                throw new IOException("超过最大帧长度没有找到分隔符：" + maxFrameLength);
+            return 0;
+        }
+
+        @Override
+        public int stripHead() {
+            return 0;
+        }
+
+        @Override
+        public int stripTail() {
+            return stripDelimiter ? delimiter.length : 0;
+        }
+    }
+
+    /**
+     * 固定长度解码器
+     */
+    class FixedLength implements YFrameDecoder {
+        protected final int frameLength;// 每帧长度
+
+        public FixedLength(int frameLength) {
+            if (frameLength <= 0) throw new IllegalArgumentException("帧长度必须大于0");
+            this.frameLength = frameLength;
+        }
+
+        @Override
+        public int decode(ByteBuffer in) {
+            return in.remaining() < frameLength ? 0 : frameLength;
+        }
+
+        @Override
+        public int stripHead() {
+            return 0;
+        }
+
+        @Override
+        public int stripTail() {
+            return 0;
+        }
+    }
+}
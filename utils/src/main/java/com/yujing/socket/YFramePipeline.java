@@ -0,0 +1,256 @@
+package com.yujing.socket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 帧解码管道，一个可重复使用的缓存 + 一个帧解码器
+ * 1.数据直接读入缓存（通道读取、InputStream读取都不经过中间数组），解码出的帧以切片（ByteBuffer）方式交付，不复制。
+ * 2.切片只在回调期间有效，回调返回后缓存会被复用，需要保存请自行复制。
+ * 3.每轮解码结束后，只把不完整的半帧移动到缓存开头，缓存不够时按2倍扩容，不超过最大帧长度。
+ * 非线程安全，一个连接一个管道。
+ *
+ * @author 余静 2026年10月18日11:40:52
+ */
+/*
+使用方法：
+YFramePipeline pipeline = new YFramePipeline(YFrameDecoder.lengthField(6, 4, true, 10));
+//NIO通道，零复制交付
+pipeline.readFrom(channel, frame -> {
+    //frame只在回调期间有效
+    int cmd = frame.get(frame.position() + 1);
+});
+//InputStream，阻塞读取一帧，返回复制后的数组
+byte[] frame = pipeline.readFrame(inputStream);
+//作为YSocket.InputStreamReadListener
+ySocket.setInputStreamReadListener(pipeline::readFrame);
+ */
+@SuppressWarnings("unused")
+public class YFramePipeline {
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;// 默认最大帧长度
+    protected final YFrameDecoder decoder;// 帧解码器
+    protected final int maxFrameLength;// 最大帧长度
+    protected ByteBuffer buffer;// 缓存，写模式，[0,position)为未解码数据
+    protected long decodeErrors;// 解码错误次数
+    protected long discardBytes;// 丢弃的字节数
+    private byte[] lastFrame;// readFrame用
+
+    public YFramePipeline(YFrameDecoder decoder) {
+        this(decoder, 1024 * 8, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * @param decoder        帧解码器
+     * @param initCapacity   初始缓存大小
+     * @param maxFrameLength 最大帧长度，缓存最多扩容到此大小
+     */
+    public YFramePipeline(YFrameDecoder decoder, int initCapacity, int maxFrameLength) {
+        if (decoder == null) throw new IllegalArgumentException("decoder不能为空");
+        this.decoder = decoder;
+        this.maxFrameLength = maxFrameLength;
+        this.buffer = ByteBuffer.allocate(Math.min(initCapacity, maxFrameLength));
+    }
+
+    public YFrameDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * 解码错误次数
+     */
+    public long getDecodeErrors() {
+        return decodeErrors;
+    }
+
+    /**
+     * 丢弃的字节数（解码器跳过、解码错误清空）
+     */
+    public long getDiscardBytes() {
+        return discardBytes;
+    }
+
+    /**
+     * 缓存中未解码的字节数
+     */
+    public int buffered() {
+        return buffer.position();
+    }
+
+    /**
+     * 清空缓存，重新连接后调用
+     */
+    public void reset() {
+        buffer.clear();
+    }
+
+    /**
+     * 写入数据并解码
+     *
+     * @return 解码出的帧数
+     */
+    public int feed(byte[] bytes, int offset, int length, FrameListener listener) {
+        while (length > 0) {
+            ensureWritable();
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+            if (length > 0) decode(listener, Integer.MAX_VALUE);
+        }
+        return decode(listener, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 写入数据并解码
+     *
+     * @return 解码出的帧数
+     */
+    public int feed(ByteBuffer src, FrameListener listener) {
+        int frames = 0;
+        while (src.hasRemaining()) {
+            ensureWritable();
+            int count = Math.min(src.remaining(), buffer.remaining());
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + count);
+            buffer.put(part);
+            src.position(src.position() + count);
+            frames += decode(listener, Integer.MAX_VALUE);
+        }
+        return frames;
+    }
+
+    /**
+     * 从通道读取一次数据直接写入缓存并解码，NIO可读时调用
+     *
+     * @return 读取的字节数，-1表示通道已关闭
+     */
+    public int readFrom(ReadableByteChannel channel, FrameListener listener) throws IOException {
+        ensureWritable();
+        int count = channel.read(buffer);
+        if (count > 0) decode(listener, Integer.MAX_VALUE);
+        return count;
+    }
+
+    /**
+     * 从InputStream阻塞读取一次数据直接写入缓存并解码
+     *
+     * @return 读取的字节数，-1表示流已关闭
+     */
+    public int readFrom(InputStream inputStream, FrameListener listener) throws IOException {
+        ensureWritable();
+        int count = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (count > 0) {
+            buffer.position(buffer.position() + count);
+            decode(listener, Integer.MAX_VALUE);
+        }
+        return count;
+    }
+
+    /**
+     * 从InputStream阻塞读取一帧，缓存中已经有完整帧则直接返回，多读的数据保留在缓存中给下一帧
+     *
+     * @return 一帧数据，复制后的数组
+     */
+    public byte[] readFrame(InputStream inputStream) throws IOException {
+        while (true) {
+            byte[] frame = poll();
+            if (frame != null) return frame;
+            ensureWritable();
+            int count = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (count < 0) throw new EOFException("流已关闭");
+            buffer.position(buffer.position() + count);
+        }
+    }
+
+    /**
+     * 从缓存中取出一帧，没有完整帧返回null
+     *
+     * @return 一帧数据，复制后的数组
+     */
+    public byte[] poll() {
+        lastFrame = null;
+        decode(frame -> {
+            lastFrame = new byte[frame.remaining()];
+            frame.get(lastFrame);
+        }, 1);
+        byte[] frame = lastFrame;
+        lastFrame = null;
+        return frame;
+    }
+
+    /**
+     * 解码缓存中的数据
+     *
+     * @param listener  帧回调
+     * @param maxFrames 最多解码帧数
+     * @return 解码出的帧数
+     */
+    protected int decode(FrameListener listener, int maxFrames) {
+        int frames = 0;
+        buffer.flip();
+        try {
+            while (frames < maxFrames && buffer.hasRemaining()) {
+                int result;
+                try {
+                    result = decoder.decode(buffer);
+                } catch (IOException e) {
+                    // 无法同步，丢弃全部缓存
+                    decodeErrors++;
+                    discardBytes += buffer.remaining();
+                    buffer.position(buffer.limit());
+                    break;
+                }
+                if (result == 0) break;
+                if (result < 0) {
+                    int skip = Math.min(-result, buffer.remaining());
+                    discardBytes += skip;
+                    buffer.position(buffer.position() + skip);
+                    continue;
+                }
+                int start = buffer.position();
+                int end = start + result;
+                ByteBuffer frame = buffer.duplicate();
+                frame.limit(end - decoder.stripTail());
+                frame.position(Math.min(start + decoder.stripHead(), frame.limit()));
+                buffer.position(end);
+                frames++;
+                if (listener != null) listener.frame(frame.slice());
+            }
+        } finally {
+            if (buffer.position() == 0) {
+                buffer.position(buffer.limit());
+                buffer.limit(buffer.capacity());
+            } else {
+                buffer.compact();
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * 保证缓存有可写空间，满了则扩容，已到最大帧长度还放不下一帧则清空
+     */
+    protected void ensureWritable() {
+        if (buffer.hasRemaining()) return;
+        if (buffer.capacity() >= maxFrameLength) {
+            decodeErrors++;
+            discardBytes += buffer.position();
+            buffer.clear();
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate((int) Math.min((long) buffer.capacity() * 2, maxFrameLength));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    /**
+     * 帧回调，frame只在回调期间有效
+     */
+    public interface FrameListener {
+        void frame(ByteBuffer frame);
+    }
+}
@@ -0,0 +1,179 @@
+package com.yujing.socket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 异步结果，可以阻塞等待，也可以添加完成监听
+ * 不依赖CompletableFuture，安卓低版本可用。只能完成一次，之后的complete、fail无效。
+ * 监听在完成的线程中回调，添加监听时已经完成则立即在当前线程回调。
+ *
+ * @author 余静 2026年10月18日14:20:12
+ */
+/*
+使用方法：
+YFuture<Boolean> future = ySocket.sendAsync(bytes);
+//监听
+future.addListener(f -> YLog.i("发送" + (f.isSuccess() ? "成功" : "失败：" + f.getCause())));
+//或者阻塞等待，最多1秒
+Boolean success = future.get(1000);
+ */
+@SuppressWarnings("unused")
+public class YFuture<T> {
+    protected final CountDownLatch latch = new CountDownLatch(1);
+    protected volatile boolean done;// 是否已完成
+    protected T value;// 结果
+    protected Throwable cause;// 失败原因
+    protected List<Listener<T>> listeners;// 完成监听
+
+    /**
+     * 已经成功的结果
+     */
+    public static <T> YFuture<T> succeeded(T value) {
+        YFuture<T> future = new YFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    /**
+     * 已经失败的结果
+     */
+    public static <T> YFuture<T> failed(Throwable cause) {
+        YFuture<T> future = new YFuture<>();
+        future.fail(cause);
+        return future;
+    }
+
+    /**
+     * 设置结果
+     *
+     * @return 是否设置成功，已经完成返回false
+     */
+    public boolean complete(T value) {
+        return finish(value, null);
+    }
+
+    /**
+     * 设置失败
+     *
+     * @return 是否设置成功，已经完成返回false
+     */
+    public boolean fail(Throwable cause) {
+        return finish(null, cause == null ? new Exception("未知错误") : cause);
+    }
+
+    protected boolean finish(T value, Throwable cause) {
+        List<Listener<T>> list;
+        synchronized (this) {
+            if (done) return false;
+            this.value = value;
+            this.cause = cause;
+            done = true;
+            list = listeners;
+            listeners = null;
+        }
+        latch.countDown();
+        if (list != null) {
+            for (int i = 0; i < list.size(); i++) notifyListener(list.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * 添加完成监听，已经完成则立即回调
+     */
+    public YFuture<T> addListener(Listener<T> listener) {
+        if (listener == null) return this;
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) listeners = new ArrayList<>(2);
+                listeners.add(listener);
+                return this;
+            }
+        }
+        notifyListener(listener);
+        return this;
+    }
+
+    protected void notifyListener(Listener<T> listener) {
+        try {
+            listener.complete(this);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 是否已完成
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * 是否成功完成
+     */
+    public boolean isSuccess() {
+        return done && cause == null;
+    }
+
+    /**
+     * 失败原因，没有完成或者成功返回null
+     */
+    public Throwable getCause() {
+        return done ? cause : null;
+    }
+
+    /**
+     * 立即获取结果，没有完成或者失败返回null
+     */
+    public T getNow() {
+        return done ? value : null;
+    }
+
+    /**
+     * 等待完成
+     *
+     * @return 是否在timeOut毫秒内完成
+     */
+    public boolean await(long timeOut) {
+        try {
+            return latch.await(timeOut, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return done;
+        }
+    }
+
+    /**
+     * 阻塞等待结果
+     */
+    public T get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return result();
+    }
+
+    /**
+     * 阻塞等待结果，最多timeOut毫秒
+     */
+    public T get(long timeOut) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeOut, TimeUnit.MILLISECONDS)) throw new TimeoutException("等待超时：" + timeOut + "ms");
+        return result();
+    }
+
+    protected T result() throws ExecutionException {
+        if (cause != null) throw new ExecutionException(cause.getMessage(), cause);
+        return value;
+    }
+
+    /**
+     * 完成监听
+     */
+    public interface Listener<T> {
+        void complete(YFuture<T> future);
+    }
+}
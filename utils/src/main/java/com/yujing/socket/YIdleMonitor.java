@@ -0,0 +1,179 @@
+package com.yujing.socket;
+
+/**
+ * 空闲检测，在共享时间轮上检查连接的读写时间
+ * 1.写空闲：超过writeIdleTime既没有读也没有写，回调onWriteIdle发送心跳；有业务数据时不发送心跳。
+ * 2.读空闲：超过readIdleTime没有收到数据，回调onReadIdle，认为连接已经断开。
+ * 读写时只记录时间，不操作定时器；定时器到期时再按最后读写时间计算下次检查时间。
+ *
+ * @author 余静 2026年10月18日15:58:21
+ */
+/*
+使用方法：
+YIdleMonitor monitor = new YIdleMonitor(YTimerWheel.getDefault(), 3000, 10000, new YIdleMonitor.Listener() {
+    @Override
+    public void onWriteIdle() {
+        //发送心跳
+    }
+
+    @Override
+    public void onReadIdle() {
+        //断开重连
+    }
+});
+monitor.start();
+//读到数据、写出数据时调用
+monitor.onRead();
+monitor.onWrite();
+ */
+@SuppressWarnings("unused")
+public class YIdleMonitor {
+    protected final YTimerWheel wheel;// 时间轮
+    protected final Listener listener;// 空闲回调，在时间轮线程中回调
+    protected volatile long writeIdleTime;// 写空闲时间，毫秒，0不检测
+    protected volatile long readIdleTime;// 读空闲时间，毫秒，0不检测
+    protected volatile long lastRead;// 最后读取时间，nanoTime
+    protected volatile long lastWrite;// 最后写入时间，nanoTime
+    protected volatile boolean running;// 是否正在检测
+    protected YTimerWheel.Timeout writeTimeout;// 写空闲定时
+    protected YTimerWheel.Timeout readTimeout;// 读空闲定时
+
+    /**
+     * @param wheel         时间轮
+     * @param writeIdleTime 写空闲时间，毫秒，0不检测
+     * @param readIdleTime  读空闲时间，毫秒，0不检测
+     * @param listener      空闲回调，在时间轮线程中回调，不要做耗时操作
+     */
+    public YIdleMonitor(YTimerWheel wheel, long writeIdleTime, long readIdleTime, Listener listener) {
+        this.wheel = wheel;
+        this.writeIdleTime = writeIdleTime;
+        this.readIdleTime = readIdleTime;
+        this.listener = listener;
+    }
+
+    /**
+     * 开始检测
+     */
+    public synchronized void start() {
+        stop();
+        running = true;
+        reset();
+        if (writeIdleTime > 0) scheduleWrite(writeIdleTime);
+        if (readIdleTime > 0) scheduleRead(readIdleTime);
+    }
+
+    /**
+     * 停止检测
+     */
+    public synchronized void stop() {
+        running = false;
+        if (writeTimeout != null) writeTimeout.cancel();
+        if (readTimeout != null) readTimeout.cancel();
+        writeTimeout = null;
+        readTimeout = null;
+    }
+
+    /**
+     * 重新计时，重新连接后调用
+     */
+    public void reset() {
+        long now = System.nanoTime();
+        lastRead = now;
+        lastWrite = now;
+    }
+
+    /**
+     * 读到数据
+     */
+    public void onRead() {
+        lastRead = System.nanoTime();
+    }
+
+    /**
+     * 写出数据
+     */
+    public void onWrite() {
+        lastWrite = System.nanoTime();
+    }
+
+    /**
+     * 修改写空闲时间，下次检查时生效
+     */
+    public synchronized void setWriteIdleTime(long writeIdleTime) {
+        boolean schedule = running && this.writeIdleTime <= 0 && writeIdleTime > 0;
+        this.writeIdleTime = writeIdleTime;
+        if (schedule) scheduleWrite(writeIdleTime);
+    }
+
+    /**
+     * 修改读空闲时间，下次检查时生效
+     */
+    public synchronized void setReadIdleTime(long readIdleTime) {
+        boolean schedule = running && this.readIdleTime <= 0 && readIdleTime > 0;
+        this.readIdleTime = readIdleTime;
+        if (schedule) scheduleRead(readIdleTime);
+    }
+
+    public long getWriteIdleTime() {
+        return writeIdleTime;
+    }
+
+    public long getReadIdleTime() {
+        return readIdleTime;
+    }
+
+    protected synchronized void scheduleWrite(long delay) {
+        if (running) writeTimeout = wheel.newTimeout(this::checkWrite, delay);
+    }
+
+    protected synchronized void scheduleRead(long delay) {
+        if (running) readTimeout = wheel.newTimeout(this::checkRead, delay);
+    }
+
+    protected void checkWrite() {
+        long time = writeIdleTime;
+        if (!running || time <= 0) return;
+        long idle = (System.nanoTime() - Math.max(lastRead, lastWrite)) / 1000_000L;
+        if (idle < time) {
+            scheduleWrite(time - idle);
+            return;
+        }
+        try {
+            listener.onWriteIdle();
+        } finally {
+            scheduleWrite(time);
+        }
+    }
+
+    protected void checkRead() {
+        long time = readIdleTime;
+        if (!running || time <= 0) return;
+        long idle = (System.nanoTime() - lastRead) / 1000_000L;
+        if (idle < time) {
+            scheduleRead(time - idle);
+            return;
+        }
+        // 回调后重新计时，避免断开期间重复回调
+        lastRead = System.nanoTime();
+        try {
+            listener.onReadIdle();
+        } finally {
+            scheduleRead(time);
+        }
+    }
+
+    /**
+     * 空闲回调
+     */
+    public interface Listener {
+        /**
+         * 写空闲，发送心跳
+         */
+        void onWriteIdle();
+
+        /**
+         * 读空闲，认为连接已经断开
+         */
+        void onReadIdle();
+    }
+}
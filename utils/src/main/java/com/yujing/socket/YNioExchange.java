@@ -0,0 +1,424 @@
+package com.yujing.socket;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.yujing.utils.YLog;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 一次性收发，在共享的YSocketLoop上完成，不占用线程
+ * 1.TCP：非阻塞连接、写入、读取，读到数据（或者一帧完整数据）立即返回，然后关闭连接。
+ * 2.UDP：DatagramChannel发送后等待一个数据报返回。
+ * 3.发现：向广播或组播地址发送一个数据报，在时间窗口内收集所有设备的应答，按来源地址放入Map，N个设备只等一个窗口。
+ * 4.超时由事件循环的定时任务负责，从发起开始计算到返回结果的总时间，不用soTimeout轮询。
+ * 几百个并发请求（如轮询整个网段的设备）只用一个事件循环线程。
+ * 结果在事件循环线程中回调，不要在监听中做耗时操作。
+ *
+ * @author 余静 2026年10月18日16:42:05
+ */
+/*
+使用方法：
+YNioExchange.tcp("192.168.1.10", 8080, data, 5000).addListener(f -> {
+    if (f.isSuccess()) YLog.i("收到：" + YConvert.bytesToHexString(f.getNow()));
+    else YLog.e("失败：" + f.getCause());
+});
+//读取一帧完整数据
+YFuture<byte[]> future = YNioExchange.tcp(YSocketLoop.getDefault(), "192.168.1.10", 8080, data, YFrameDecoder.lengthField(6, 4, true, 10), 5000);
+//UDP
+YFuture<byte[]> udp = YNioExchange.udp("192.168.1.10", 8080, data, 1024, 1000);
+//发现：广播查询，收集1秒内全部应答
+YNioExchange.discover(YSocketLoop.getDefault(), "255.255.255.255", 8080, data, 1024, 1000, 0, (address, bytes) -> YLog.i("发现：" + address))
+        .addListener(f -> YLog.i("共发现：" + f.getNow().size()));
+//安卓7.0以上可以转换成CompletableFuture
+CompletableFuture<byte[]> cf = YNioExchange.toCompletableFuture(udp);
+ */
+@SuppressWarnings("unused")
+public class YNioExchange {
+    protected static final int READ_BUFFER_SIZE = 1024 * 8;// TCP每次读取缓存大小
+
+    /**
+     * TCP发送并等待数据，读到数据立即返回
+     *
+     * @param ip      ip
+     * @param port    端口
+     * @param data    发送的数据
+     * @param timeOut 总超时时间，毫秒，包括连接、发送、读取
+     */
+    public static YFuture<byte[]> tcp(String ip, int port, byte[] data, long timeOut) {
+        return tcp(YSocketLoop.getDefault(), ip, port, data, null, timeOut);
+    }
+
+    /**
+     * TCP发送并等待数据
+     *
+     * @param loop         事件循环
+     * @param ip           ip
+     * @param port         端口
+     * @param data         发送的数据
+     * @param frameDecoder 帧解码器，为null时读到数据立即返回，否则读到一帧完整数据后返回
+     * @param timeOut      总超时时间，毫秒，包括连接、发送、读取
+     */
+    public static YFuture<byte[]> tcp(YSocketLoop loop, String ip, int port, byte[] data, YFrameDecoder frameDecoder, long timeOut) {
+        YFuture<byte[]> future = new YFuture<>();
+        InetSocketAddress address;
+        try {
+            // 域名在调用线程中解析，不阻塞事件循环
+            address = new InetSocketAddress(ip, port);
+            if (address.isUnresolved()) throw new IOException("无法解析地址：" + ip);
+        } catch (Exception e) {
+            future.fail(e);
+            return future;
+        }
+        new TcpExchange(loop, address, data, frameDecoder, future).start(timeOut);
+        return future;
+    }
+
+    /**
+     * UDP发送并等待一个数据报返回
+     *
+     * @param ip            ip
+     * @param port          端口
+     * @param data          发送的数据
+     * @param readMaxLength 接收数据最大长度，超过部分抛弃
+     * @param timeOut       超时时间，毫秒
+     */
+    public static YFuture<byte[]> udp(String ip, int port, byte[] data, int readMaxLength, long timeOut) {
+        return udp(YSocketLoop.getDefault(), ip, port, data, readMaxLength, timeOut);
+    }
+
+    /**
+     * UDP发送并等待一个数据报返回
+     *
+     * @param loop          事件循环
+     * @param ip            ip
+     * @param port          端口
+     * @param data          发送的数据
+     * @param readMaxLength 接收数据最大长度，超过部分抛弃
+     * @param timeOut       超时时间，毫秒
+     */
+    public static YFuture<byte[]> udp(YSocketLoop loop, String ip, int port, byte[] data, int readMaxLength, long timeOut) {
+        YFuture<byte[]> future = new YFuture<>();
+        InetSocketAddress address;
+        try {
+            address = new InetSocketAddress(ip, port);
+            if (address.isUnresolved()) throw new IOException("无法解析地址：" + ip);
+        } catch (Exception e) {
+            future.fail(e);
+            return future;
+        }
+        new UdpExchange(loop, address, data, readMaxLength, future).start(timeOut);
+        return future;
+    }
+
+    /**
+     * 发现：向广播或组播地址发送一个数据报，在时间窗口内收集所有应答
+     * 窗口结束（或者收到expected个不同地址的应答）后future成功，结果按来源地址，同一地址只保留第一个应答
+     *
+     * @param loop             事件循环
+     * @param ip               广播地址（如255.255.255.255、192.168.1.255）或者组播地址（如239.255.255.250），也可以是单播地址
+     * @param port             端口
+     * @param data             发送的数据
+     * @param readMaxLength    接收数据最大长度，超过部分抛弃
+     * @param window           收集时间窗口，毫秒
+     * @param expected         收到多少个不同地址的应答后提前结束，0不提前结束
+     * @param responseListener 每收到一个应答回调一次，在事件循环线程中回调，可以为null
+     */
+    public static YFuture<Map<InetSocketAddress, byte[]>> discover(YSocketLoop loop, String ip, int port, byte[] data, int readMaxLength, long window, int expected, ResponseListener responseListener) {
+        YFuture<Map<InetSocketAddress, byte[]>> future = new YFuture<>();
+        InetSocketAddress address;
+        try {
+            address = new InetSocketAddress(ip, port);
+            if (address.isUnresolved()) throw new IOException("无法解析地址：" + ip);
+        } catch (Exception e) {
+            future.fail(e);
+            return future;
+        }
+        new DiscoveryExchange(loop, address, data, readMaxLength, expected, responseListener, future).start(window);
+        return future;
+    }
+
+    /**
+     * 转换成CompletableFuture，安卓7.0以上
+     */
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    public static <T> CompletableFuture<T> toCompletableFuture(YFuture<T> future) {
+        CompletableFuture<T> completableFuture = new CompletableFuture<>();
+        future.addListener(f -> {
+            if (f.isSuccess()) completableFuture.complete(f.getNow());
+            else completableFuture.completeExceptionally(f.getCause());
+        });
+        return completableFuture;
+    }
+
+    /**
+     * 一次收发，只在事件循环线程中访问
+     */
+    protected abstract static class Exchange<T> implements YSocketLoop.Handler {
+        protected final YSocketLoop loop;
+        protected final InetSocketAddress address;
+        protected final YFuture<T> future;
+        protected SelectableChannel channel;
+        protected SelectionKey key;
+        protected YSocketLoop.Timer timer;// 超时定时
+
+        Exchange(YSocketLoop loop, InetSocketAddress address, YFuture<T> future) {
+            this.loop = loop;
+            this.address = address;
+            this.future = future;
+        }
+
+        void start(long timeOut) {
+            // 在外部取消（如协程取消）时关闭通道
+            future.addListener(f -> {
+                if (!loop.inLoop()) loop.execute(this::close);
+            });
+            loop.execute(() -> {
+                if (future.isDone()) return;
+                timer = loop.schedule(() -> onTimeout(timeOut), timeOut);
+                try {
+                    open();
+                } catch (Exception e) {
+                    fail(e);
+                }
+            });
+        }
+
+        protected abstract void open() throws IOException;
+
+        protected void onTimeout(long timeOut) {
+            fail(new TimeoutException("超时：" + timeOut + "ms (" + address + ")"));
+        }
+
+        @Override
+        public void onReady(SelectionKey key) {
+            try {
+                handle(key);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        protected abstract void handle(SelectionKey key) throws IOException;
+
+        protected void succeed(T result) {
+            close();
+            future.complete(result);
+        }
+
+        protected void fail(Throwable cause) {
+            close();
+            future.fail(cause);
+        }
+
+        protected void close() {
+            if (timer != null) timer.cancel();
+            timer = null;
+            if (key != null) key.cancel();
+            key = null;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * TCP收发：连接 → 写入 → 读取 → 关闭
+     */
+    protected static class TcpExchange extends Exchange<byte[]> {
+        protected final ByteBuffer writeBuffer;
+        protected final YFramePipeline pipeline;// 帧解码，为null时读到数据立即返回
+        protected SocketChannel socketChannel;
+
+        TcpExchange(YSocketLoop loop, InetSocketAddress address, byte[] data, YFrameDecoder frameDecoder, YFuture<byte[]> future) {
+            super(loop, address, future);
+            this.writeBuffer = ByteBuffer.wrap(data);
+            this.pipeline = frameDecoder == null ? null : new YFramePipeline(frameDecoder);
+        }
+
+        @Override
+        protected void open() throws IOException {
+            socketChannel = SocketChannel.open();
+            channel = socketChannel;
+            socketChannel.configureBlocking(false);
+            socketChannel.socket().setTcpNoDelay(true);
+            if (socketChannel.connect(address)) {
+                key = loop.register(socketChannel, SelectionKey.OP_WRITE, this);
+            } else {
+                key = loop.register(socketChannel, SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        @Override
+        protected void handle(SelectionKey key) throws IOException {
+            if (key.isConnectable()) {
+                if (socketChannel.finishConnect()) key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (key.isWritable()) {
+                socketChannel.write(writeBuffer);
+                if (!writeBuffer.hasRemaining()) key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            if (key.isReadable()) read();
+        }
+
+        protected void read() throws IOException {
+            if (pipeline != null) {
+                int count = pipeline.readFrom(socketChannel, frame -> {
+                    if (future.isDone()) return;
+                    byte[] bytes = new byte[frame.remaining()];
+                    frame.get(bytes);
+                    succeed(bytes);
+                });
+                if (count < 0 && !future.isDone()) fail(new EOFException("服务器关闭连接 (" + address + ")"));
+                return;
+            }
+            // 把当前可读的数据一次读完
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            int total = 0;
+            int count;
+            while ((count = socketChannel.read(buffer)) > 0) {
+                total += count;
+                if (!buffer.hasRemaining()) buffer = ByteBuffer.allocate(buffer.capacity() * 2).put((ByteBuffer) buffer.flip());
+            }
+            if (total > 0) {
+                buffer.flip();
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                succeed(bytes);
+            } else if (count < 0) {
+                fail(new EOFException("服务器关闭连接 (" + address + ")"));
+            }
+        }
+    }
+
+    /**
+     * UDP收发：发送 → 等待一个数据报 → 关闭
+     */
+    protected static class UdpExchange extends Exchange<byte[]> {
+        protected final byte[] data;
+        protected final int readMaxLength;
+        protected DatagramChannel datagramChannel;
+
+        UdpExchange(YSocketLoop loop, InetSocketAddress address, byte[] data, int readMaxLength, YFuture<byte[]> future) {
+            super(loop, address, future);
+            this.data = data;
+            this.readMaxLength = readMaxLength;
+        }
+
+        @Override
+        protected void open() throws IOException {
+            datagramChannel = DatagramChannel.open();
+            channel = datagramChannel;
+            datagramChannel.configureBlocking(false);
+            // connect后只接收该地址返回的数据报
+            datagramChannel.connect(address);
+            if (datagramChannel.write(ByteBuffer.wrap(data)) < data.length) throw new IOException("发送失败 (" + address + ")");
+            key = loop.register(datagramChannel, SelectionKey.OP_READ, this);
+        }
+
+        @Override
+        protected void handle(SelectionKey key) throws IOException {
+            if (!key.isReadable()) return;
+            ByteBuffer buffer = ByteBuffer.allocate(readMaxLength);
+            if (datagramChannel.read(buffer) <= 0 && buffer.position() == 0) return;
+            buffer.flip();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            succeed(bytes);
+        }
+    }
+
+    /**
+     * 发现：发送到广播或组播地址 → 在时间窗口内收集应答 → 关闭
+     */
+    protected static class DiscoveryExchange extends Exchange<Map<InetSocketAddress, byte[]>> {
+        protected final byte[] data;
+        protected final int expected;
+        protected final ResponseListener responseListener;
+        protected final ByteBuffer readBuffer;// 接收缓存，重复使用
+        protected final Map<InetSocketAddress, byte[]> results = new LinkedHashMap<>();
+        protected DatagramChannel datagramChannel;
+
+        DiscoveryExchange(YSocketLoop loop, InetSocketAddress address, byte[] data, int readMaxLength, int expected, ResponseListener responseListener, YFuture<Map<InetSocketAddress, byte[]>> future) {
+            super(loop, address, future);
+            this.data = data;
+            this.expected = expected;
+            this.responseListener = responseListener;
+            this.readBuffer = ByteBuffer.allocate(readMaxLength);
+        }
+
+        @Override
+        protected void open() throws IOException {
+            datagramChannel = DatagramChannel.open();
+            channel = datagramChannel;
+            datagramChannel.configureBlocking(false);
+            datagramChannel.socket().setBroadcast(true);
+            // 不connect，接收任意地址的应答
+            if (datagramChannel.send(ByteBuffer.wrap(data), address) < data.length) throw new IOException("发送失败 (" + address + ")");
+            key = loop.register(datagramChannel, SelectionKey.OP_READ, this);
+        }
+
+        @Override
+        protected void handle(SelectionKey key) throws IOException {
+            if (!key.isReadable()) return;
+            SocketAddress from;
+            readBuffer.clear();
+            while (!future.isDone() && (from = datagramChannel.receive(readBuffer)) != null) {
+                readBuffer.flip();
+                byte[] bytes = new byte[readBuffer.remaining()];
+                readBuffer.get(bytes);
+                readBuffer.clear();
+                InetSocketAddress source = (InetSocketAddress) from;
+                if (results.containsKey(source)) continue;
+                results.put(source, bytes);
+                if (responseListener != null) {
+                    try {
+                        responseListener.onResponse(source, bytes);
+                    } catch (Throwable e) {
+                        YLog.e("YNioExchange", "应答回调异常：" + e.getMessage(), e);
+                    }
+                }
+                if (expected > 0 && results.size() >= expected) succeed(results);
+            }
+        }
+
+        @Override
+        protected void onTimeout(long timeOut) {
+            // 窗口结束，返回已经收到的应答
+            succeed(results);
+        }
+    }
+
+    /**
+     * 发现应答监听
+     */
+    public interface ResponseListener {
+        /**
+         * 收到一个设备的应答，在事件循环线程中回调
+         *
+         * @param address 设备地址
+         * @param bytes   应答数据
+         */
+        void onResponse(InetSocketAddress address, byte[] bytes);
+    }
+}
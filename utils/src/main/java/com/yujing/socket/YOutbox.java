@@ -0,0 +1,457 @@
+package com.yujing.socket;
+
+import com.yujing.utils.YLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 发送日志（发件箱），断开期间的数据写入文件，重连后按顺序重发，进程退出也不丢失，一个连接一个目录
+ * 1.只追加写：记录为 长度(4) | 序号(8) | CRC32(4) | 数据，写满segmentSize换下一个分段文件，文件名为分段第一条的序号。
+ * 2.批量刷盘：写入只进系统缓存，累计syncBytes字节或者syncInterval毫秒后才fsync一次，稳定状态下每条数据只有一次顺序写。
+ * 3.确认：ack(序号)表示这条及之前的都已送达，可以在写入成功后自动确认（autoAck），也可以收到服务器回应后由使用方确认；
+ * 全部确认的分段直接删除，全部确认且当前分段超过compactSize时换新分段（压缩），文件不会无限增长。
+ * 4.重发：连接成功后从第一条未确认的开始按顺序读取，没有确认的可能重发，服务器可以按序号去重（Encoder把序号加进数据）。
+ * 5.打开时检查每条记录的长度和CRC，掉电造成的半条记录截掉。
+ *
+ * @author 余静 2026年10月18日23:05:19
+ */
+/*
+使用方法：
+//每个连接一个目录，断开时发送的数据先写入文件，重连后按顺序发送
+YOutbox outbox = new YOutbox(new File(context.getFilesDir(), "outbox/192.168.6.154_8892"));
+ySocket.setOutbox(outbox);
+ySocket.sendSync(data);//写入文件成功即返回true
+
+//服务器回应后再确认，把序号加进数据，服务器回应序号
+outbox.setAutoAck(false);
+outbox.setEncoder((seq, data) -> pack(seq, data));
+ySocket.addDataListener(bytes -> outbox.ack(parseSeq(bytes)));
+
+YLog.i(outbox.getStats().toString());
+
+//退出时
+outbox.close();
+ */
+@SuppressWarnings("unused")
+public class YOutbox {
+    protected static final String TAG = "YOutbox";
+    protected static final int HEAD_LENGTH = 16;// 长度(4) | 序号(8) | CRC32(4)
+    protected static final int MAX_RECORD_LENGTH = 1024 * 1024 * 64;// 最大记录长度，超过认为文件损坏
+    protected static final String SUFFIX = ".log";
+    protected final File dir;// 目录
+    protected final TreeMap<Long, Segment> segments = new TreeMap<>();// 分段，按第一条序号排序
+    protected final ByteBuffer head = ByteBuffer.allocate(HEAD_LENGTH);// 记录头，重复使用
+    protected final CRC32 crc = new CRC32();
+    protected Segment active;// 当前写入的分段
+    protected RandomAccessFile ackFile;// 已确认序号
+    protected long nextSeq = 1;// 下一条序号
+    protected long ackedSeq;// 已确认序号，这条及之前的都已送达
+    protected boolean ackDirty;// 已确认序号还没写入文件
+    protected Segment readSegment;// 读取位置所在分段
+    protected long readPosition;// 读取位置
+    protected int segmentSize = 1024 * 1024 * 4;// 分段大小，超过换下一个文件
+    protected int compactSize = 1024 * 256;// 全部确认且当前分段超过此大小时换新分段
+    protected int syncBytes = 1024 * 64;// 累计多少字节没有刷盘时立即刷盘
+    protected long syncInterval = 200;// 最多多久刷盘一次，毫秒
+    protected long unsyncedBytes;// 没有刷盘的字节数
+    protected YTimerWheel.Timeout syncTimeout;// 定时刷盘
+    protected boolean autoAck = true;// 写入成功后自动确认
+    protected Encoder encoder;// 发送前编码，可以把序号加进数据
+    protected boolean closed;
+    // 统计
+    protected long appendCount;// 写入条数
+    protected long syncCount;// 刷盘次数
+    protected long replayCount;// 读取重发条数
+    protected long truncatedBytes;// 打开时截掉的损坏字节数
+
+    /**
+     * 打开目录，检查已有记录，截掉损坏的部分
+     *
+     * @param dir 目录，一个连接一个
+     */
+    public YOutbox(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("创建目录失败：" + dir);
+        ackFile = new RandomAccessFile(new File(dir, "ack"), "rw");
+        if (ackFile.length() >= 8) ackedSeq = ackFile.readLong();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(SUFFIX)) continue;
+                try {
+                    long firstSeq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                    segments.put(firstSeq, new Segment(file, firstSeq));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        for (Segment segment : segments.values()) recover(segment);
+        // 删除全部确认的分段
+        while (segments.size() > 1 && segments.firstEntry().getValue().lastSeq <= ackedSeq) segments.pollFirstEntry().getValue().delete();
+        if (segments.isEmpty()) {
+            nextSeq = ackedSeq + 1;
+            roll();
+        } else {
+            active = segments.lastEntry().getValue();
+            nextSeq = Math.max(ackedSeq, Math.max(active.lastSeq, active.firstSeq - 1)) + 1;
+        }
+        rewind();
+    }
+
+    /**
+     * 检查分段中的记录，截掉第一条损坏的及之后的
+     */
+    protected void recover(Segment segment) throws IOException {
+        FileChannel channel = segment.channel();
+        long size = channel.size();
+        long position = 0;
+        long lastSeq = segment.firstSeq - 1;
+        while (position + HEAD_LENGTH <= size) {
+            head.clear();
+            readFully(channel, head, position);
+            head.flip();
+            int length = head.getInt();
+            long seq = head.getLong();
+            long checksum = head.getInt() & 0xFFFFFFFFL;
+            if (length < 0 || length > MAX_RECORD_LENGTH || position + HEAD_LENGTH + length > size || seq <= lastSeq) break;
+            ByteBuffer data = ByteBuffer.allocate(length);
+            readFully(channel, data, position + HEAD_LENGTH);
+            crc.reset();
+            crc.update(data.array(), 0, length);
+            if (crc.getValue() != checksum) break;
+            lastSeq = seq;
+            position += HEAD_LENGTH + length;
+        }
+        if (position < size) {
+            truncatedBytes += size - position;
+            channel.truncate(position);
+        }
+        segment.size = position;
+        segment.lastSeq = lastSeq;
+    }
+
+    /**
+     * 追加一条数据，只写入系统缓存，按批量刷盘
+     *
+     * @return 序号
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        if (closed) throw new IOException("发送日志已关闭");
+        if (active.size >= segmentSize && active.lastSeq >= active.firstSeq) {
+            sync();
+            roll();
+        }
+        long seq = nextSeq++;
+        crc.reset();
+        crc.update(data, 0, data.length);
+        head.clear();
+        head.putInt(data.length).putLong(seq).putInt((int) crc.getValue());
+        head.flip();
+        FileChannel channel = active.channel();
+        ByteBuffer[] buffers = {head, ByteBuffer.wrap(data)};
+        long position = active.size;
+        channel.position(position);
+        while (head.hasRemaining() || buffers[1].hasRemaining()) channel.write(buffers);
+        active.size = position + HEAD_LENGTH + data.length;
+        active.lastSeq = seq;
+        appendCount++;
+        unsyncedBytes += HEAD_LENGTH + data.length;
+        if (unsyncedBytes >= syncBytes) sync();
+        else scheduleSync();
+        return seq;
+    }
+
+    protected void scheduleSync() {
+        if (syncTimeout != null) return;
+        syncTimeout = YTimerWheel.getDefault().newTimeout(() -> YSocketDispatcher.getDefaultExecutor().execute(() -> {
+            synchronized (YOutbox.this) {
+                syncTimeout = null;
+                if (closed) return;
+                try {
+                    sync();
+                } catch (IOException e) {
+                    YLog.e(TAG, "刷盘失败：" + e.getMessage(), e);
+                }
+            }
+        }), syncInterval);
+    }
+
+    /**
+     * 立即刷盘，包括已确认序号
+     */
+    public synchronized void sync() throws IOException {
+        if (unsyncedBytes > 0) {
+            active.channel().force(false);
+            unsyncedBytes = 0;
+            syncCount++;
+        }
+        if (ackDirty) {
+            ackFile.seek(0);
+            ackFile.writeLong(ackedSeq);
+            ackFile.getChannel().force(false);
+            ackDirty = false;
+        }
+    }
+
+    /**
+     * 换新分段
+     */
+    protected void roll() throws IOException {
+        if (active != null) active.close();
+        Segment segment = new Segment(new File(dir, String.format(Locale.US, "%020d%s", nextSeq, SUFFIX)), nextSeq);
+        segment.channel().truncate(0);
+        segments.put(segment.firstSeq, segment);
+        active = segment;
+    }
+
+    /**
+     * 读取下一条要发送的数据，跳过已确认的
+     *
+     * @return 没有返回null
+     */
+    public synchronized Record next() throws IOException {
+        while (readSegment != null) {
+            if (readPosition + HEAD_LENGTH > readSegment.size) {
+                Map.Entry<Long, Segment> entry = segments.higherEntry(readSegment.firstSeq);
+                if (entry == null) return null;
+                readSegment = entry.getValue();
+                readPosition = 0;
+                continue;
+            }
+            FileChannel channel = readSegment.channel();
+            head.clear();
+            readFully(channel, head, readPosition);
+            head.flip();
+            int length = head.getInt();
+            long seq = head.getLong();
+            long position = readPosition + HEAD_LENGTH;
+            readPosition = position + length;
+            if (seq <= ackedSeq) continue;
+            byte[] data = new byte[length];
+            readFully(channel, ByteBuffer.wrap(data), position);
+            replayCount++;
+            return new Record(seq, data);
+        }
+        return null;
+    }
+
+    /**
+     * 回到第一条未确认的数据，重连后调用
+     */
+    public synchronized void rewind() {
+        Map.Entry<Long, Segment> entry = segments.firstEntry();
+        readSegment = entry == null ? null : entry.getValue();
+        readPosition = 0;
+    }
+
+    /**
+     * 确认这条及之前的数据已经送达，全部确认的分段删除
+     */
+    public synchronized void ack(long seq) {
+        if (seq <= ackedSeq || closed) return;
+        ackedSeq = Math.min(seq, nextSeq - 1);
+        ackDirty = true;
+        while (segments.size() > 1) {
+            Segment first = segments.firstEntry().getValue();
+            if (first == active || first.lastSeq > ackedSeq) break;
+            segments.pollFirstEntry();
+            first.delete();
+            if (readSegment == first) rewind();
+        }
+        // 全部确认，当前分段有记录且太大时换新分段，没有记录时换新分段会和当前分段同名
+        if (active.lastSeq >= active.firstSeq && ackedSeq >= active.lastSeq && active.size >= compactSize) {
+            try {
+                Segment old = active;
+                roll();
+                segments.remove(old.firstSeq);
+                old.delete();
+                unsyncedBytes = 0;
+                rewind();
+            } catch (IOException e) {
+                YLog.e(TAG, "换新分段失败：" + e.getMessage(), e);
+            }
+        }
+        scheduleSync();
+    }
+
+    /**
+     * 编码，发送前调用，没有设置Encoder时返回原数据
+     */
+    public byte[] encode(Record record) {
+        Encoder e = encoder;
+        return e == null ? record.data : e.encode(record.seq, record.data);
+    }
+
+    /**
+     * 未确认的条数
+     */
+    public synchronized long pending() {
+        return Math.max(0, nextSeq - 1 - ackedSeq);
+    }
+
+    /**
+     * 刷盘并关闭文件
+     */
+    public synchronized void close() {
+        if (closed) return;
+        try {
+            sync();
+        } catch (IOException e) {
+            YLog.e(TAG, "关闭时刷盘失败：" + e.getMessage(), e);
+        }
+        closed = true;
+        if (syncTimeout != null) syncTimeout.cancel();
+        syncTimeout = null;
+        for (Segment segment : segments.values()) segment.close();
+        try {
+            ackFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    protected static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) throw new IOException("记录不完整");
+            position += count;
+        }
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = Math.max(1024, segmentSize);
+    }
+
+    public void setCompactSize(int compactSize) {
+        this.compactSize = Math.max(1, compactSize);
+    }
+
+    /**
+     * 设置批量刷盘，累计syncBytes字节或者syncInterval毫秒刷盘一次，越大写入越快，掉电丢失越多
+     */
+    public void setSync(int syncBytes, long syncInterval) {
+        this.syncBytes = Math.max(0, syncBytes);
+        this.syncInterval = Math.max(1, syncInterval);
+    }
+
+    /**
+     * 写入成功后自动确认，为false时由使用方收到服务器回应后调用ack
+     */
+    public void setAutoAck(boolean autoAck) {
+        this.autoAck = autoAck;
+    }
+
+    public boolean isAutoAck() {
+        return autoAck;
+    }
+
+    /**
+     * 发送前编码，可以把序号加进数据，服务器按序号去重、回应
+     */
+    public void setEncoder(Encoder encoder) {
+        this.encoder = encoder;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.pending = pending();
+        stats.nextSeq = nextSeq;
+        stats.ackedSeq = ackedSeq;
+        stats.segments = segments.size();
+        for (Segment segment : segments.values()) stats.diskBytes += segment.size;
+        stats.appendCount = appendCount;
+        stats.syncCount = syncCount;
+        stats.replayCount = replayCount;
+        stats.truncatedBytes = truncatedBytes;
+        return stats;
+    }
+
+    /**
+     * 发送前编码
+     */
+    public interface Encoder {
+        byte[] encode(long seq, byte[] data);
+    }
+
+    /**
+     * 一条记录
+     */
+    public static class Record {
+        public final long seq;// 序号
+        public final byte[] data;// 数据
+
+        public Record(long seq, byte[] data) {
+            this.seq = seq;
+            this.data = data;
+        }
+    }
+
+    /**
+     * 分段文件
+     */
+    protected static class Segment {
+        final File file;
+        final long firstSeq;// 第一条序号，也是文件名
+        long lastSeq;// 最后一条序号，没有记录时为firstSeq-1
+        long size;// 有效长度
+        RandomAccessFile raf;
+
+        Segment(File file, long firstSeq) {
+            this.file = file;
+            this.firstSeq = firstSeq;
+            this.lastSeq = firstSeq - 1;
+        }
+
+        FileChannel channel() throws IOException {
+            if (raf == null) raf = new RandomAccessFile(file, "rw");
+            return raf.getChannel();
+        }
+
+        void close() {
+            if (raf == null) return;
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+            raf = null;
+        }
+
+        void delete() {
+            close();
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * 统计
+     */
+    public static class Stats {
+        public long pending;// 未确认条数
+        public long nextSeq;// 下一条序号
+        public long ackedSeq;// 已确认序号
+        public int segments;// 分段文件数
+        public long diskBytes;// 占用磁盘字节数
+        public long appendCount;// 写入条数
+        public long syncCount;// 刷盘次数
+        public long replayCount;// 读取发送条数，包括重发
+        public long truncatedBytes;// 打开时截掉的损坏字节数
+
+        @Override
+        public String toString() {
+            return "未确认：" + pending + "条，序号：" + ackedSeq + "/" + (nextSeq - 1) + "，分段：" + segments + "个/" + diskBytes + "字节，写入：" + appendCount + "，刷盘：" + syncCount + "，发送：" + replayCount + "，截掉损坏：" + truncatedBytes + "字节";
+        }
+    }
+}
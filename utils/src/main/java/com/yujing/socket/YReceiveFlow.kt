@@ -0,0 +1,193 @@
+package com.yujing.socket
+
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.ProducerScope
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.mapNotNull
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import java.util.ArrayDeque
+
+/**
+ * 接收数据转成Flow，收集方按自己的速度处理
+ * 1.在读取线程（NIO为事件循环线程）中直接放进缓冲，不经过主线程，可以在Dispatchers.Default中解析，主线程只收集要显示的结果。
+ * 2.缓冲满时按YBufferPolicy处理：SUSPEND让生产方停下，线程模式阻塞读取线程，NIO模式暂停读取，数据留在内核缓冲区（TCP对方发送变慢，UDP满了由内核丢弃）；
+ * DROP_OLDEST丢弃最旧的，DROP_LATEST丢弃最新的，CONFLATE只保留最新一条。
+ * 3.frames按YFrameDecoder分帧（粘包、半包），decode解码成对象，解码失败的丢弃。
+ * 开始收集时注册监听，取消收集时移除监听并恢复读取，可以同时有多个收集方，各自一个缓冲。
+ * 4.暂停读取按次数计算（YSocket.setReadPaused、YUdp），多个收集方都放完后才恢复读取，一个收集方处理慢其他收集方也会等它。
+ *
+ * @author 余静 2026年10月18日22:16:38
+ */
+/*
+使用方法：
+//YSocket，按长度分帧，在Dispatchers.Default中解析，主线程只显示结果
+lifecycleScope.launch {
+    ySocket.receiveFlow(64, YBufferPolicy.SUSPEND)
+        .frames(YFrameDecoder.lengthField(0, 4, true, 4))
+        .decode { Gson().fromJson(String(it), Status::class.java) }
+        .flowOn(Dispatchers.Default)
+        .collect { textView1.text = it.toString() }
+}
+
+//YUdp，界面只要最新的一条
+lifecycleScope.launch {
+    yUdp.receiveFlow(policy = YBufferPolicy.CONFLATE).collect { textView1.text = YConvert.bytesToHexString(it) }
+}
+*/
+
+/**
+ * 缓冲满时的策略
+ */
+enum class YBufferPolicy {
+    SUSPEND,// 让生产方停下，不丢数据
+    DROP_OLDEST,// 丢弃缓冲中最旧的
+    DROP_LATEST,// 丢弃新收到的
+    CONFLATE// 只保留最新一条
+}
+
+/**
+ * 放进Flow缓冲，在读取线程或事件循环中调用
+ * SUSPEND缓冲满时：能暂停读取的（NIO）暂停读取，已经读到的按顺序等缓冲有空位再放入，放完恢复读取；不能暂停的（线程模式）阻塞读取线程
+ */
+class YReceiveSink internal constructor(
+    private val scope: ProducerScope<ByteArray>,
+    private val policy: YBufferPolicy,
+    private val pause: (Boolean) -> Boolean// 暂停、恢复读取，不支持返回false
+) {
+    private val pending = ArrayDeque<ByteArray>()// 暂停读取后还没放进缓冲的数据
+    private var draining = false// 是否正在等待缓冲有空位
+
+    fun offer(bytes: ByteArray) {
+        if (policy != YBufferPolicy.SUSPEND) {
+            scope.trySend(bytes)
+            return
+        }
+        synchronized(this) {
+            if (draining) {
+                pending.add(bytes)
+                return
+            }
+            val result = scope.trySend(bytes)
+            if (result.isSuccess || result.isClosed) return
+            if (pause(true)) {
+                draining = true
+                pending.add(bytes)
+                scope.launch { drain() }
+                return
+            }
+        }
+        // 线程模式，阻塞读取线程直到缓冲有空位
+        try {
+            runBlocking { scope.send(bytes) }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        } catch (e: Exception) {
+            // 已经取消收集
+        }
+    }
+
+    private suspend fun drain() {
+        while (true) {
+            val bytes = synchronized(this) {
+                pending.poll() ?: run {
+                    draining = false
+                    pause(false)
+                    null
+                }
+            } ?: return
+            scope.send(bytes)
+        }
+    }
+
+    internal fun close() {
+        synchronized(this) {
+            pending.clear()
+            if (draining) {
+                draining = false
+                pause(false)
+            }
+        }
+    }
+}
+
+/**
+ * 创建接收Flow
+ *
+ * @param pause    暂停、恢复读取，不支持返回false
+ * @param register 注册监听，返回移除监听
+ */
+internal fun receiveFlowOf(
+    capacity: Int,
+    policy: YBufferPolicy,
+    pause: (Boolean) -> Boolean,
+    register: (YReceiveSink) -> () -> Unit
+): Flow<ByteArray> {
+    val flow = callbackFlow {
+        val sink = YReceiveSink(this, policy, pause)
+        val unregister = register(sink)
+        awaitClose {
+            unregister()
+            sink.close()
+        }
+    }
+    return when (policy) {
+        YBufferPolicy.SUSPEND -> flow.buffer(capacity)
+        YBufferPolicy.DROP_OLDEST -> flow.buffer(capacity, BufferOverflow.DROP_OLDEST)
+        YBufferPolicy.DROP_LATEST -> flow.buffer(capacity, BufferOverflow.DROP_LATEST)
+        YBufferPolicy.CONFLATE -> flow.conflate()
+    }
+}
+
+/**
+ * YSocket接收Flow，在读取线程（NIO为事件循环线程）中放进缓冲，不影响dataListener
+ * 线程模式SUSPEND时读取线程阻塞等待，设置了读空闲时间时处理太慢会被当成断开
+ *
+ * @param capacity 缓冲条数
+ * @param policy   缓冲满时的策略
+ */
+fun YSocket.receiveFlow(capacity: Int = 64, policy: YBufferPolicy = YBufferPolicy.SUSPEND): Flow<ByteArray> {
+    val socket = this
+    return receiveFlowOf(capacity, policy, { socket.setReadPaused(it) }) { sink ->
+        val listener = YSocket.DataListener { sink.offer(it) }
+        socket.addReceiveListener(listener)
+        return@receiveFlowOf { socket.removeReceiveListener(listener) }
+    }
+}
+
+/**
+ * 按YFrameDecoder分帧，处理粘包、半包，每个收集方一个解码缓存
+ *
+ * @param decoder        帧解码器
+ * @param maxFrameLength 最大帧长度，超过认为数据错误
+ */
+fun Flow<ByteArray>.frames(decoder: YFrameDecoder, maxFrameLength: Int = YFramePipeline.DEFAULT_MAX_FRAME_LENGTH): Flow<ByteArray> = flow {
+    val pipeline = YFramePipeline(decoder, 1024 * 4, maxFrameLength)
+    val frames = ArrayList<ByteArray>()
+    val listener = YFramePipeline.FrameListener { frame -> frames.add(ByteArray(frame.remaining()).also { frame.get(it) }) }
+    collect { bytes ->
+        pipeline.feed(bytes, 0, bytes.size, listener)
+        for (frame in frames) emit(frame)
+        frames.clear()
+    }
+}
+
+/**
+ * 解码，返回null或者抛异常的丢弃
+ *
+ * @param onError 解码失败回调，可以记录日志
+ * @param decoder 解码
+ */
+fun <T : Any> Flow<ByteArray>.decode(onError: ((ByteArray, Exception) -> Unit)? = null, decoder: (ByteArray) -> T?): Flow<T> = mapNotNull {
+    try {
+        decoder(it)
+    } catch (e: Exception) {
+        onError?.invoke(it, e)
+        null
+    }
+}
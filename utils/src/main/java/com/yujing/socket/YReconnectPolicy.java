@@ -0,0 +1,261 @@
+package com.yujing.socket;
+
+import java.util.Random;
+
+/**
+ * 重连策略，指数退避 + 全抖动 + 熔断
+ * 1.连续失败n次后，等待 random(0, min(maxDelay, initialDelay * multiplier^(n-1))) 再重连，服务器重启时大量终端不会同一时刻一起重连。
+ * 2.熔断：连续失败failureThreshold次后打开，openTime内不再尝试；之后半开，尝试一次，成功关闭，失败重新打开。
+ * 3.统计连接耗时分布、成功率、断开到重新连接成功的时间，用于按现场调整参数。
+ * 一个连接一个策略，线程安全。
+ *
+ * @author 余静 2026年10月18日15:31:08
+ */
+/*
+使用方法：
+YReconnectPolicy policy = new YReconnectPolicy();
+policy.setInitialDelay(1000);
+policy.setMaxDelay(60 * 1000);
+policy.setMultiplier(2);
+policy.setJitter(true);
+//连续失败20次熔断5分钟
+policy.setCircuitBreaker(20, 5 * 60 * 1000);
+ySocket.setReconnectPolicy(policy);
+
+//统计
+YLog.i(ySocket.getReconnectPolicy().getStats().toString());
+ */
+@SuppressWarnings("unused")
+public class YReconnectPolicy {
+    // 连接耗时分布的区间上限，毫秒，最后一个区间为大于5000
+    public static final int[] LATENCY_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+    protected long initialDelay = 1000;// 第一次失败后的最大等待时间
+    protected long maxDelay = 1000 * 30;// 最大等待时间
+    protected double multiplier = 2;// 每次失败等待时间倍数
+    protected boolean jitter = true;// 全抖动，等待时间在0到计算值之间随机
+    protected int failureThreshold = 0;// 连续失败多少次熔断，0不熔断
+    protected long openTime = 1000 * 60;// 熔断时间
+    protected final Random random = new Random();
+    protected State state = State.CLOSED;// 熔断状态
+    protected int failures;// 连续失败次数
+    protected long disconnectTime;// 断开时间，0表示没有断开
+    // 统计
+    protected long attemptCount;// 连接次数
+    protected long successCount;// 成功次数
+    protected long circuitOpenCount;// 熔断次数
+    protected final long[] latencyHistogram = new long[LATENCY_BUCKETS.length + 1];// 连接耗时分布
+    protected long latencyTotal;// 连接总耗时
+    protected long reconnectCount;// 断开后重新连接成功次数
+    protected long reconnectTotal;// 断开到重新连接成功的总时间
+    protected long reconnectMax;// 断开到重新连接成功的最长时间
+    protected long reconnectLast;// 最后一次断开到重新连接成功的时间
+
+    /**
+     * 熔断状态
+     */
+    public enum State {
+        CLOSED,// 正常
+        OPEN,// 熔断中，不尝试连接
+        HALF_OPEN// 熔断结束，尝试一次
+    }
+
+    /**
+     * 固定间隔，不退避不抖动，和原来每CheckConnectTime重连一次相同
+     */
+    public static YReconnectPolicy fixed(long delay) {
+        YReconnectPolicy policy = new YReconnectPolicy();
+        policy.initialDelay = delay;
+        policy.maxDelay = delay;
+        policy.multiplier = 1;
+        policy.jitter = false;
+        return policy;
+    }
+
+    public void setInitialDelay(long initialDelay) {
+        this.initialDelay = Math.max(1, initialDelay);
+    }
+
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = Math.max(1, maxDelay);
+    }
+
+    public void setMultiplier(double multiplier) {
+        this.multiplier = Math.max(1, multiplier);
+    }
+
+    public void setJitter(boolean jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * 设置熔断
+     *
+     * @param failureThreshold 连续失败多少次熔断，0不熔断
+     * @param openTime         熔断时间，毫秒
+     */
+    public void setCircuitBreaker(int failureThreshold, long openTime) {
+        this.failureThreshold = Math.max(0, failureThreshold);
+        this.openTime = Math.max(1, openTime);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 连续失败次数
+     */
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * 开始连接，返回开始时间，连接结束后传给onSuccess或onFailure
+     */
+    public synchronized long onAttemptStart() {
+        attemptCount++;
+        return System.nanoTime();
+    }
+
+    /**
+     * 连接成功
+     *
+     * @param start onAttemptStart的返回值
+     */
+    public synchronized void onSuccess(long start) {
+        recordLatency(start);
+        successCount++;
+        failures = 0;
+        state = State.CLOSED;
+        if (disconnectTime != 0) {
+            long time = System.currentTimeMillis() - disconnectTime;
+            reconnectCount++;
+            reconnectTotal += time;
+            reconnectLast = time;
+            if (time > reconnectMax) reconnectMax = time;
+            disconnectTime = 0;
+        }
+    }
+
+    /**
+     * 连接失败
+     *
+     * @param start onAttemptStart的返回值
+     */
+    public synchronized void onFailure(long start) {
+        recordLatency(start);
+        failures++;
+        if (disconnectTime == 0) disconnectTime = System.currentTimeMillis();
+        if (state == State.HALF_OPEN || (failureThreshold > 0 && failures >= failureThreshold && state == State.CLOSED)) {
+            state = State.OPEN;
+            circuitOpenCount++;
+        }
+    }
+
+    /**
+     * 连接成功后断开
+     */
+    public synchronized void onDisconnected() {
+        if (disconnectTime == 0) disconnectTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 下一次连接前等待多少毫秒
+     */
+    public synchronized long nextDelay() {
+        if (state == State.OPEN) {
+            // 熔断时间结束后半开，只尝试一次
+            state = State.HALF_OPEN;
+            return openTime;
+        }
+        double delay = initialDelay;
+        for (int i = 1; i < failures && delay < maxDelay; i++) delay *= multiplier;
+        long max = (long) Math.min(delay, maxDelay);
+        if (!jitter) return max;
+        return (long) (random.nextDouble() * max);
+    }
+
+    protected void recordLatency(long start) {
+        long millis = (System.nanoTime() - start) / 1000_000L;
+        latencyTotal += millis;
+        int i = 0;
+        while (i < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[i]) i++;
+        latencyHistogram[i]++;
+    }
+
+    /**
+     * 统计信息
+     */
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.state = state;
+        stats.failures = failures;
+        stats.attemptCount = attemptCount;
+        stats.successCount = successCount;
+        stats.circuitOpenCount = circuitOpenCount;
+        stats.latencyHistogram = latencyHistogram.clone();
+        stats.avgLatency = attemptCount == 0 ? 0 : latencyTotal / attemptCount;
+        stats.reconnectCount = reconnectCount;
+        stats.avgReconnect = reconnectCount == 0 ? 0 : reconnectTotal / reconnectCount;
+        stats.maxReconnect = reconnectMax;
+        stats.lastReconnect = reconnectLast;
+        return stats;
+    }
+
+    /**
+     * 统计信息
+     */
+    public static class Stats {
+        public State state;// 熔断状态
+        public int failures;// 连续失败次数
+        public long attemptCount;// 连接次数
+        public long successCount;// 成功次数
+        public long circuitOpenCount;// 熔断次数
+        public long[] latencyHistogram;// 连接耗时分布，区间见LATENCY_BUCKETS
+        public long avgLatency;// 平均连接耗时，毫秒
+        public long reconnectCount;// 断开后重新连接成功次数
+        public long avgReconnect;// 平均断开到重新连接成功时间，毫秒
+        public long maxReconnect;// 最长断开到重新连接成功时间，毫秒
+        public long lastReconnect;// 最后一次断开到重新连接成功时间，毫秒
+
+        /**
+         * 成功率
+         */
+        public double successRate() {
+            return attemptCount == 0 ? 0 : (double) successCount / attemptCount;
+        }
+
+        /**
+         * 连接耗时百分位，按区间上限估算
+         *
+         * @param percent 0到100，如99
+         * @return 毫秒，大于最后一个区间返回-1
+         */
+        public long latencyPercentile(double percent) {
+            long total = 0;
+            for (long count : latencyHistogram) total += count;
+            if (total == 0) return 0;
+            long target = (long) Math.ceil(total * percent / 100);
+            long sum = 0;
+            for (int i = 0; i < latencyHistogram.length; i++) {
+                sum += latencyHistogram[i];
+                if (sum >= target) return i < LATENCY_BUCKETS.length ? LATENCY_BUCKETS[i] : -1;
+            }
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("状态：").append(state).append("，连续失败：").append(failures).append("，连接：").append(attemptCount)
+                    .append("，成功率：").append(String.format("%.1f", successRate() * 100)).append("%，熔断：").append(circuitOpenCount)
+                    .append("，平均耗时：").append(avgLatency).append("ms，p50：").append(latencyPercentile(50)).append("ms，p99：").append(latencyPercentile(99))
+                    .append("ms，重连：").append(reconnectCount).append("次，平均：").append(avgReconnect).append("ms，最长：").append(maxReconnect)
+                    .append("ms，最后：").append(lastReconnect).append("ms，耗时分布：");
+            for (int i = 0; i < latencyHistogram.length; i++) {
+                sb.append(i == 0 ? "" : ",").append(i < LATENCY_BUCKETS.length ? "≤" + LATENCY_BUCKETS[i] : ">" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1]).append(":").append(latencyHistogram[i]);
+            }
+            return sb.toString();
+        }
+    }
+}
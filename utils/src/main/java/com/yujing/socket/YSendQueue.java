@@ -0,0 +1,365 @@
+package com.yujing.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 发送队列，多个线程发送，只有一个写入方
+ * 1.任意线程投递，按投递顺序写入，一条数据不会被其他数据（包括心跳）从中间打断。
+ * 2.写入方一次取出多条数据合并写入（NIO为GatheringByteChannel.write(ByteBuffer[])），减少系统调用。
+ * 3.高水位：队列中未写入的字节数超过highWaterMark时，投递方等待或者直接失败，防止内存无限增长。
+ * 4.每条数据有一个YFuture，写入成功或失败后完成。
+ * 5.优先级：CONTROL（心跳、控制命令）> NORMAL > BULK（大数据），每次取数据先取高优先级，BULK每次最多取一条，
+ * 大数据分块投递后，高优先级数据可以插在两块之间，不用等整个大数据写完。写了一半的数据下次先写完，不会被打断。
+ * CONTROL不受高水位限制。按优先级统计排队时间（投递到写入完成）。
+ *
+ * @author 余静 2026年10月18日14:20:12
+ */
+/*
+使用方法：
+//YSocket内部使用，可以设置高水位和查看统计
+ySocket.getSendQueue().setHighWaterMark(1024 * 256);
+YLog.i(ySocket.getSendQueue().getStats().toString());
+
+//按优先级发送
+ySocket.sendAsync(stop, YSendQueue.Priority.CONTROL);
+ySocket.sendBulk(log);
+ */
+@SuppressWarnings("unused")
+public class YSendQueue {
+    protected static final int PRIORITIES = Priority.values().length;
+    @SuppressWarnings("unchecked")
+    protected final ArrayDeque<Entry>[] lanes = new ArrayDeque[PRIORITIES];// 按优先级的队列
+    protected final Entry[] gathered = new Entry[64];// 上次取出的数据，只在写入方使用
+    protected int gatheredCount;
+    protected Entry partial;// 写了一半的数据，下次先写完
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition notEmpty = lock.newCondition();
+    protected final Condition notFull = lock.newCondition();
+    protected final List<Entry> written = new ArrayList<>();// 已写完的数据，只在写入方使用
+    protected int highWaterMark = 1024 * 1024;// 高水位，字节
+    protected long queuedBytes;// 队列中未写入的字节数
+    protected Runnable notifier;// 有新数据时通知写入方
+    // 统计
+    protected long maxQueuedBytes;// 最大排队字节数
+    protected long sentCount;// 写入成功数量
+    protected long sentBytes;// 写入成功字节数
+    protected long failedCount;// 失败数量
+    protected long writeCount;// 写入次数（合并后）
+    protected final long[] laneSent = new long[PRIORITIES];// 每种优先级写入成功数量
+    protected final long[] laneLatency = new long[PRIORITIES];// 每种优先级总排队时间，纳秒
+    protected final long[] laneLatencyMax = new long[PRIORITIES];// 每种优先级最长排队时间，纳秒
+
+    /**
+     * 优先级
+     */
+    public enum Priority {
+        CONTROL,// 心跳、控制命令，最先写入，不受高水位限制
+        NORMAL,// 普通数据
+        BULK// 大数据，每次最多写一条（一块）
+    }
+
+    public YSendQueue() {
+        for (int i = 0; i < PRIORITIES; i++) lanes[i] = new ArrayDeque<>();
+    }
+
+    /**
+     * 设置高水位，队列中未写入的字节数超过此值时投递方等待
+     */
+    public void setHighWaterMark(int highWaterMark) {
+        this.highWaterMark = Math.max(1, highWaterMark);
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * 设置有新数据时的通知，NIO模式用于唤醒事件循环写入
+     */
+    void setNotifier(Runnable notifier) {
+        this.notifier = notifier;
+    }
+
+    /**
+     * 投递数据，普通优先级
+     *
+     * @param buffer  数据
+     * @param timeOut 超过高水位时最多等待多少毫秒，0不等待
+     * @return 写入结果
+     */
+    public YFuture<Boolean> offer(ByteBuffer buffer, long timeOut) {
+        return offer(buffer, timeOut, Priority.NORMAL);
+    }
+
+    /**
+     * 投递数据
+     *
+     * @param buffer   数据
+     * @param timeOut  超过高水位时最多等待多少毫秒，0不等待，CONTROL不等待
+     * @param priority 优先级
+     * @return 写入结果
+     */
+    public YFuture<Boolean> offer(ByteBuffer buffer, long timeOut, Priority priority) {
+        YFuture<Boolean> future = new YFuture<>();
+        Entry entry = new Entry(buffer, future, priority.ordinal());
+        lock.lock();
+        try {
+            if (priority != Priority.CONTROL && queuedBytes >= highWaterMark && queuedBytes > 0) {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(timeOut);
+                try {
+                    while (queuedBytes >= highWaterMark && queuedBytes > 0 && nanos > 0)
+                        nanos = notFull.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (queuedBytes >= highWaterMark && queuedBytes > 0) {
+                    failedCount++;
+                    future.fail(new IOException("发送队列已满：" + queuedBytes + "字节"));
+                    return future;
+                }
+            }
+            lanes[entry.lane].offer(entry);
+            queuedBytes += entry.length;
+            if (queuedBytes > maxQueuedBytes) maxQueuedBytes = queuedBytes;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        Runnable n = notifier;
+        if (n != null) n.run();
+        return future;
+    }
+
+    /**
+     * 等待队列中有数据，写入线程调用
+     *
+     * @return 是否有数据
+     */
+    boolean awaitNotEmpty(long timeOut) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeOut);
+            while (isEmpty() && nanos > 0) nanos = notEmpty.awaitNanos(nanos);
+            return !isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected boolean isEmpty() {
+        for (ArrayDeque<Entry> lane : lanes) if (!lane.isEmpty()) return false;
+        return true;
+    }
+
+    /**
+     * 取出数据用于合并写入，不移出队列
+     * 顺序：写了一半的数据、CONTROL、NORMAL、最多一条BULK
+     *
+     * @param out 存放数据的数组
+     * @return 取出的数量
+     */
+    int gather(ByteBuffer[] out) {
+        lock.lock();
+        try {
+            int max = Math.min(out.length, gathered.length);
+            int n = 0;
+            if (partial != null) gathered[n++] = partial;
+            for (int lane = 0; lane < PRIORITIES && n < max; lane++) {
+                int count = 0;
+                for (Entry entry : lanes[lane]) {
+                    if (n >= max || (lane == Priority.BULK.ordinal() && count >= 1)) break;
+                    if (entry == partial) continue;
+                    gathered[n++] = entry;
+                    count++;
+                }
+            }
+            for (int i = 0; i < n; i++) out[i] = gathered[i].buffer;
+            gatheredCount = n;
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移出已经写完的数据并完成其结果，写入方在一次写入后调用
+     *
+     * @return 移出的数量
+     */
+    int removeWritten() {
+        lock.lock();
+        try {
+            writeCount++;
+            long now = System.nanoTime();
+            partial = null;
+            for (int i = 0; i < gatheredCount; i++) {
+                Entry entry = gathered[i];
+                gathered[i] = null;
+                // 按顺序写入，第一条没写完的后面都没写
+                if (entry.buffer.hasRemaining()) {
+                    if (entry.buffer.remaining() < entry.length) partial = entry;
+                    for (int j = i + 1; j < gatheredCount; j++) gathered[j] = null;
+                    break;
+                }
+                // 失败后已经清空的不再处理
+                if (!lanes[entry.lane].remove(entry)) continue;
+                queuedBytes -= entry.length;
+                sentCount++;
+                sentBytes += entry.length;
+                long latency = now - entry.time;
+                laneSent[entry.lane]++;
+                laneLatency[entry.lane] += latency;
+                if (latency > laneLatencyMax[entry.lane]) laneLatencyMax[entry.lane] = latency;
+                written.add(entry);
+            }
+            gatheredCount = 0;
+            if (!written.isEmpty()) notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        int count = written.size();
+        for (int i = 0; i < count; i++) written.get(i).future.complete(true);
+        written.clear();
+        return count;
+    }
+
+    /**
+     * 全部数据写入失败，断开连接时调用
+     */
+    void failAll(Throwable cause) {
+        List<Entry> list;
+        lock.lock();
+        try {
+            partial = null;
+            if (isEmpty()) return;
+            list = new ArrayList<>();
+            for (ArrayDeque<Entry> lane : lanes) {
+                list.addAll(lane);
+                lane.clear();
+            }
+            queuedBytes = 0;
+            failedCount += list.size();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < list.size(); i++) list.get(i).future.fail(cause);
+    }
+
+    /**
+     * 是否可以继续投递，没有超过高水位
+     */
+    public boolean isWritable() {
+        lock.lock();
+        try {
+            return queuedBytes < highWaterMark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 队列中未写入的字节数
+     */
+    public long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 队列中未写入的数量
+     */
+    public int size() {
+        lock.lock();
+        try {
+            int size = 0;
+            for (ArrayDeque<Entry> lane : lanes) size += lane.size();
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 统计信息
+     */
+    public Stats getStats() {
+        lock.lock();
+        try {
+            Stats stats = new Stats();
+            for (int i = 0; i < PRIORITIES; i++) {
+                stats.laneQueued[i] = lanes[i].size();
+                stats.queued += lanes[i].size();
+                stats.laneSent[i] = laneSent[i];
+                stats.laneLatencyAvg[i] = laneSent[i] == 0 ? 0 : laneLatency[i] / laneSent[i] / 1000;
+                stats.laneLatencyMax[i] = laneLatencyMax[i] / 1000;
+            }
+            stats.queuedBytes = queuedBytes;
+            stats.maxQueuedBytes = maxQueuedBytes;
+            stats.highWaterMark = highWaterMark;
+            stats.sentCount = sentCount;
+            stats.sentBytes = sentBytes;
+            stats.failedCount = failedCount;
+            stats.writeCount = writeCount;
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected static class Entry {
+        final ByteBuffer buffer;
+        final int length;
+        final YFuture<Boolean> future;
+        final int lane;// 优先级
+        final long time;// 投递时间，nanoTime
+
+        Entry(ByteBuffer buffer, YFuture<Boolean> future, int lane) {
+            this.buffer = buffer;
+            this.length = buffer.remaining();
+            this.future = future;
+            this.lane = lane;
+            this.time = System.nanoTime();
+        }
+    }
+
+    /**
+     * 统计信息
+     */
+    public static class Stats {
+        public int queued;// 排队数量
+        public long queuedBytes;// 排队字节数
+        public long maxQueuedBytes;// 最大排队字节数
+        public int highWaterMark;// 高水位
+        public long sentCount;// 写入成功数量
+        public long sentBytes;// 写入成功字节数
+        public long failedCount;// 失败数量
+        public long writeCount;// 写入次数，小于写入成功数量说明有合并
+        public int[] laneQueued = new int[PRIORITIES];// 每种优先级排队数量，下标为Priority.ordinal()
+        public long[] laneSent = new long[PRIORITIES];// 每种优先级写入成功数量
+        public long[] laneLatencyAvg = new long[PRIORITIES];// 每种优先级平均排队时间，微秒
+        public long[] laneLatencyMax = new long[PRIORITIES];// 每种优先级最长排队时间，微秒
+
+        @Override
+        public String toString() {
+            StringBuilder lanes = new StringBuilder();
+            for (Priority priority : Priority.values()) {
+                int i = priority.ordinal();
+                lanes.append("；").append(priority).append("：排队").append(laneQueued[i]).append("，成功").append(laneSent[i])
+                        .append("，排队时间平均").append(laneLatencyAvg[i] / 1000.0).append("ms，最长").append(laneLatencyMax[i] / 1000.0).append("ms");
+            }
+            return "排队：" + queued + "条/" + queuedBytes + "字节，最大排队：" + maxQueuedBytes + "/" + highWaterMark + "字节，成功：" + sentCount + "条/" + sentBytes + "字节，失败：" + failedCount + "，写入次数：" + writeCount + lanes;
+        }
+    }
+}
@@ -2,9 +2,8 @@ package com.yujing.socket;
 
 import static java.lang.System.currentTimeMillis;
 
-import com.yujing.utils.YClass;
 import com.yujing.utils.YLog;
-import com.yujing.utils.YThread;
+import com.yujing.utils.YReadInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -12,22 +11,33 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSocket;
 
 /**
  * YSocket，套接字连接
- * 1.启动时候，如果服务器没有启动或者检测不到服务器已经启动，就每3秒（默认）重新连接一次，连接成功后回调成功，没有连接成功回调失败。
- * 2.如果使用中途与服务器断开（如断网，服务器重启）立即回到等待连接状态，并且回调连接失败。每隔3秒（默认）重新连接一次服务器，如果此时再次连接上服务器立即回调连接成功。
+ * 1.启动时候，如果服务器没有启动或者检测不到服务器已经启动，就按重连策略（默认1秒起指数退避、随机抖动，最长30秒）重新连接，连接成功后回调成功，没有连接成功回调失败。
+ * 2.如果使用中途与服务器断开（如断网，服务器重启）立即回到等待连接状态，并且回调连接失败。按重连策略重新连接服务器，如果此时再次连接上服务器立即回调连接成功。
  * 使用用于保持socket连接，和自动重新连接功能。 首先我们有3主要线程。
  * 读取消息线程：用于读取次socket消息，当socket断开后此线程应该及时关闭，当socket重新连接后，此线程应该重新创建以便于读取新的线程中的数据。
- * 心跳线程：当启动后每一定时间发送一条心跳信息，当心跳发送失败时把连接状态（connect）标记为失败，反之成功。
+ * 发送线程：从发送队列中合并写入，写入失败时把连接状态（connect）标记为失败，反之成功。
  * 连接线程：连接线程每一定时间根据（connect）检查一连接，如果连接断开就重新连接，更新socket，并通知连接状态。
+ * 心跳：全部YSocket共用一个时间轮（YTimerWheel），超过心跳时间没有读写才发送心跳；设置了读空闲时间后，超过这个时间没收到数据认为连接已断开。
+ * NIO模式（setNio(true)）：不创建上面3个线程，连接、读取、发送都在YSocketLoop的一个线程中完成，读取由通道就绪驱动，空闲时不占用CPU，多个YSocket可以共用一个YSocketLoop。
+ * TLS（setTlsConfig）：连接后握手，重连时恢复会话，只支持线程模式。
+ * 优先级：心跳、控制命令（CONTROL）先于普通数据写入，大数据（sendBulk）分块后控制命令可以插在两块之间。
  *
  * @author 余静
- * @version 1.5 2021年8月6日10:17:35
+ * @version 1.6 2026年10月18日10:21:36
  */
 
 /*
@@ -127,6 +137,42 @@ override fun onDestroy() {
     super.onDestroy()
     YSocket.getInstance().exit()
 }
+
+//用帧解码器代替上面的组包，帧头10字节，0x5A开头，第6位4字节大端长度，不用自己读流、分配和复制
+ySocket.setFrameDecoder(YFrameDecoder.magicHeader(new byte[]{0x5A}, 6, 4, true, 10));
+//可选，零复制帧回调，在读取线程中回调，frame只在回调期间有效
+ySocket.setFrameListener(frame -> { ... });
+
+//NIO模式，不用3个线程，连接、读取、心跳都在事件循环中完成
+val ySocket = YSocket("192.168.6.154", 8892)
+ySocket.setNio(true)
+//可选，指定事件循环，不指定则使用YSocketLoop.getDefault()
+ySocket.setLoop(YSocketLoop.getDefault())
+ySocket.addDataListener(dataListener)
+ySocket.start()
+
+//高频数据，按帧合并回调，一帧（安卓vsync）回调一次List，代替逐条回调dataListener
+ySocket.setFrameBatcher(new YFrameBatcher<>(list -> { ... }));
+
+//按消息压缩，两端都要使用YCompressor，可以用典型数据训练字典
+YCompressor compressor = new YCompressor();
+compressor.setDictionary(YCompressor.trainDictionary(samples, 4096));
+ySocket.setCompressor(compressor);
+
+//优先级，大数据分块（每块加上序号、总数），停止命令不用等上传完成
+ySocket.setChunkEncoder((data, offset, length, index, count) -> pack(data, offset, length, index, count), 16 * 1024);
+ySocket.sendBulk(logBytes).addListener(f -> YLog.i("上传" + (f.isSuccess() ? "成功" : "失败")));
+ySocket.sendAsync(stopCommand, YSendQueue.Priority.CONTROL);
+YLog.i(ySocket.getSendQueue().getStats().toString());
+
+//kotlin Flow，在Dispatchers.Default中分帧、解析，处理不过来时暂停读取，主线程只收集要显示的结果，见YReceiveFlow
+lifecycleScope.launch {
+    ySocket.receiveFlow(64, YBufferPolicy.SUSPEND)
+        .frames(YFrameDecoder.lengthField(0, 4, true, 4))
+        .decode { parse(it) }
+        .flowOn(Dispatchers.Default)
+        .collect { textView1.text = it.toString() }
+}
 */
 
 @SuppressWarnings("WeakerAccess")
@@ -136,7 +182,7 @@ public class YSocket {
     protected int port;// 服务器端口
     protected ReadThread readThread;// 读取线程
     protected ConnectThread connectThread;// 连接线程
-    protected HeartbeatThread heartbeat;// 心跳线程
+    protected YIdleMonitor idleMonitor;// 空闲检测，写空闲发送心跳，读空闲断开重连
     protected byte[] hearBytes = new byte[0];// 心跳包内容，如果设置了heartbeatContent，则使用heartbeatContent，否则使用默认的心跳包内容
     //发送1个字节的紧急数据，默认情况下，服务器端没有开启紧急数据处理，不影响正常通信
     protected int UrgentData = 0xFF;
@@ -144,8 +190,10 @@ public class YSocket {
     protected boolean noHeartbeatSendUrgentData = true;
     protected List<StateListener> connectListeners = new ArrayList<>();// 连接监听
     protected List<DataListener> dataListeners = new ArrayList<>();// 数据收到数据监听
+    protected final List<DataListener> receiveListeners = new CopyOnWriteArrayList<>();// 接收监听，在读取线程或事件循环中直接回调，不切换线程
     protected boolean connect;// 连接状态
-    protected int heartTime = 1000 * 3;// 心跳间隔时间
+    protected int heartTime = 1000 * 3;// 心跳间隔时间，超过这个时间没有读写才发送心跳
+    protected int readIdleTime = 0;// 读空闲时间，超过这个时间没收到数据认为连接已断开，0不检测
     protected int CheckConnectTime = 1000 * 3;// 检查连接时间
     protected int timeOut = 1000 * 30; // 每次读取最长时间，防止inputStream.available()卡死
     protected boolean showLog = false;// 显示日志
@@ -154,6 +202,31 @@ public class YSocket {
     protected InputStreamReadListener inputStreamReadListener;//读取InputStream接口
     protected CreateSocketInterceptor createSocketInterceptor;//创建Socket
     protected HeartbeatContent heartbeatContent;//心跳包发送内容监听
+    protected int connectTimeOut = 1000 * 5;// 连接超时时间
+    protected boolean nio = false;// 是否使用NIO模式
+    protected YSocketLoop loop;// NIO模式的事件循环，为空时使用YSocketLoop.getDefault()
+    protected YSocketNio nioTransport;// NIO传输层
+    protected volatile boolean started;// 是否已经开始，closeConnect后清除
+    protected int readPauseCount;// 暂停读取的次数，多个收集方都恢复后才继续读取
+    protected YFramePipeline framePipeline;// 帧解码管道
+    protected YFramePipeline.FrameListener frameListener;// 零复制帧回调，在读取线程中回调
+    protected YSocketDispatcher dispatcher = new YSocketDispatcher();// 串行回调分发器，保证回调顺序
+    protected YFrameBatcher<byte[]> frameBatcher;// 按帧合并回调，设置后数据不再逐条回调dataListener
+    protected final YSendQueue sendQueue = new YSendQueue();// 发送队列，全部发送（包括心跳）只有一个写入方
+    protected WriteThread writeThread;// 发送线程，线程模式从发送队列合并写入
+    protected final Object writeLock = new Object();// 写入锁，紧急数据和发送线程互斥
+    protected YReconnectPolicy reconnectPolicy = new YReconnectPolicy();// 重连策略，指数退避+抖动
+    protected YTlsConfig tlsConfig;// TLS加密，设置后连接成功再握手，只支持线程模式
+    protected YCompressor compressor;// 按消息压缩，设置后按压缩帧头分帧，两端都要使用YCompressor
+    protected final YSocketMetrics metrics = new YSocketMetrics();// 连接统计
+    protected ChunkEncoder chunkEncoder;// 大数据分块编码，设置后sendBulk分块发送，高优先级数据可以插在两块之间
+    protected int bulkChunkSize = 16 * 1024;// 大数据每块大小
+    protected int bulkWindow = 2;// 大数据同时在发送队列中的块数，写完一块再投递下一块，不占满高水位
+    protected YOutbox outbox;// 发送日志，设置后普通数据先写入文件，连接后按顺序发送，断开、进程退出不丢失
+    protected int outboxWindow = 32;// 发送日志同时在发送队列中的条数
+    protected final AtomicInteger outboxPump = new AtomicInteger();// 发送日志读取任务计数，保证只有一个线程读取
+    protected final AtomicInteger outboxInFlight = new AtomicInteger();// 发送日志在发送队列中的条数
+    protected final AtomicBoolean outboxRewind = new AtomicBoolean();// 重连或者发送失败，回到第一条未确认的重发
 
     /**
      * 构造函数
@@ -164,6 +237,7 @@ public class YSocket {
     public YSocket(String ip, int port) {
         this.ip = ip;
         this.port = port;
+        metrics.setProbe(this::fillMetrics);
     }
 
     private static volatile YSocket instance;
@@ -232,6 +306,39 @@ public class YSocket {
         dataListeners.remove(dataListener);
     }
 
+    /**
+     * 添加接收监听，在读取线程（NIO模式为事件循环线程）中直接回调，不经过分发器，receiveFlow使用
+     * 线程模式在回调中阻塞会让读取线程停下，数据留在内核缓冲区；NIO模式不能阻塞，用setReadPaused暂停读取
+     */
+    public void addReceiveListener(DataListener receiveListener) {
+        if (!receiveListeners.contains(receiveListener))
+            receiveListeners.add(receiveListener);
+    }
+
+    /**
+     * 删除接收监听
+     */
+    public void removeReceiveListener(DataListener receiveListener) {
+        receiveListeners.remove(receiveListener);
+    }
+
+    /**
+     * 暂停或恢复读取，只有NIO模式支持，暂停后数据留在内核缓冲区，TCP流量控制让对方发送变慢
+     * 按次数计算，每次暂停对应一次恢复，多个收集方都恢复后才继续读取
+     *
+     * @return 是否支持，线程模式返回false
+     */
+    public synchronized boolean setReadPaused(boolean paused) {
+        YSocketNio transport = nioTransport;
+        if (transport == null) return false;
+        if (paused) {
+            if (readPauseCount++ == 0) transport.setReadPaused(true);
+        } else if (readPauseCount > 0 && --readPauseCount == 0) {
+            transport.setReadPaused(false);
+        }
+        return true;
+    }
+
     /**
      * 清空读取到数据监听回调
      */
@@ -320,6 +427,15 @@ public class YSocket {
      */
     public void setHeartTime(int heartTime) {
         this.heartTime = heartTime;
+        if (idleMonitor != null) idleMonitor.setWriteIdleTime(heartTime);
+    }
+
+    /**
+     * 设置读空闲时间，超过这个时间没收到数据认为连接已断开并重连，0不检测，需要服务器回复心跳或者定时推送
+     */
+    public void setReadIdleTime(int readIdleTime) {
+        this.readIdleTime = readIdleTime;
+        if (idleMonitor != null) idleMonitor.setReadIdleTime(readIdleTime);
     }
 
     /**
@@ -391,17 +507,191 @@ public class YSocket {
     }
 
 
+    /**
+     * 设置连接超时时间
+     *
+     * @param connectTimeOut 毫秒
+     */
+    public void setConnectTimeOut(int connectTimeOut) {
+        this.connectTimeOut = connectTimeOut;
+    }
+
+    /**
+     * 设置帧解码器，设置后按帧回调数据，start之前调用
+     * 如果设置了InputStreamReadListener，则以InputStreamReadListener为准
+     *
+     * @param frameDecoder 帧解码器，null则不分帧
+     */
+    public void setFrameDecoder(YFrameDecoder frameDecoder) {
+        this.framePipeline = frameDecoder == null ? null : new YFramePipeline(frameDecoder);
+    }
+
+    /**
+     * 连接统计，可以取快照或设置定时推送
+     */
+    public YSocketMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 取统计快照时补充发送队列和帧解码的统计
+     */
+    protected void fillMetrics(YSocketMetrics.Snapshot snapshot) {
+        YSendQueue.Stats stats = sendQueue.getStats();
+        snapshot.framesOut = stats.sentCount;
+        snapshot.bytesOut = stats.sentBytes;
+        snapshot.queueDepth = stats.queued;
+        snapshot.queuedBytes = stats.queuedBytes;
+        YFramePipeline pipeline = framePipeline;
+        if (pipeline != null) snapshot.decodeErrors += pipeline.getDecodeErrors();
+    }
+
+    /**
+     * 设置按消息压缩，start之前调用，两端都要使用YCompressor
+     * 设置后按压缩帧头分帧，会替换setFrameDecoder设置的帧解码器，每次send的数据作为一条消息压缩，对方收到的也是完整一条
+     *
+     * @param compressor 压缩，为null不压缩
+     */
+    public void setCompressor(YCompressor compressor) {
+        this.compressor = compressor;
+        this.framePipeline = compressor == null ? null : new YFramePipeline(compressor.getFrameDecoder());
+    }
+
+    public YCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * 获取帧解码管道
+     */
+    public YFramePipeline getFramePipeline() {
+        return framePipeline;
+    }
+
+    /**
+     * 设置零复制帧回调，需要先设置帧解码器。在读取线程（NIO模式为事件循环线程）中回调，frame只在回调期间有效，不要做耗时操作
+     */
+    public void setFrameListener(YFramePipeline.FrameListener frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    /**
+     * 获取回调分发器，可查看队列深度等统计信息
+     */
+    public YSocketDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * 设置回调分发器，可设置队列容量和溢出策略，start之前调用
+     */
+    public void setDispatcher(YSocketDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * 获取按帧合并回调
+     */
+    public YFrameBatcher<byte[]> getFrameBatcher() {
+        return frameBatcher;
+    }
+
+    /**
+     * 设置按帧合并回调，高频数据时使用，两帧之间收到的数据合并成一个List回调一次，设置后数据不再逐条回调dataListener
+     */
+    public void setFrameBatcher(YFrameBatcher<byte[]> frameBatcher) {
+        this.frameBatcher = frameBatcher;
+    }
+
+    /**
+     * 获取重连策略，可查看连接耗时、成功率、重连时间等统计信息
+     */
+    public YReconnectPolicy getReconnectPolicy() {
+        return reconnectPolicy;
+    }
+
+    /**
+     * 设置重连策略，start之前调用，YReconnectPolicy.fixed(3000)为原来的每3秒重连一次
+     */
+    public void setReconnectPolicy(YReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * 获取发送队列，可查看排队字节数等统计信息
+     */
+    public YSendQueue getSendQueue() {
+        return sendQueue;
+    }
+
+    /**
+     * 设置发送队列高水位，排队未发送的字节数超过此值时，sendAsync直接失败，sendSync最多等待timeOut毫秒
+     */
+    public void setHighWaterMark(int highWaterMark) {
+        sendQueue.setHighWaterMark(highWaterMark);
+    }
+
+    /**
+     * 是否使用NIO模式
+     */
+    public boolean isNio() {
+        return nio;
+    }
+
+    /**
+     * 设置是否使用NIO模式，start之前调用
+     * NIO模式下不支持InputStreamReadListener和CreateSocketInterceptor，设置了这两个接口时自动使用线程模式。
+     *
+     * @param nio true使用SocketChannel + Selector，false使用读取、心跳、连接3个线程
+     */
+    public void setNio(boolean nio) {
+        this.nio = nio;
+    }
+
+    /**
+     * 获取NIO模式的事件循环
+     */
+    public YSocketLoop getLoop() {
+        return loop != null ? loop : YSocketLoop.getDefault();
+    }
+
+    /**
+     * 设置NIO模式的事件循环，start之前调用，多个YSocket可以共用一个事件循环
+     */
+    public void setLoop(YSocketLoop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * 是否已经开始，NIO模式和线程模式都会置位，closeConnect后清除
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
     /**
      * 开始，此方法只能调一次，用于启动心跳发送线程和连接线程，当连接线程连接成功后启动读取数据线程，当收到连接断开消息后，关闭读取消息线程。
      */
     public void start() {
-        heartbeat = new HeartbeatThread();
-        heartbeat.setName("YSocket-心跳线程");
-        heartbeat.start();
+        started = true;
+        if (nio) {
+            if (inputStreamReadListener == null && createSocketInterceptor == null && tlsConfig == null) {
+                startNio();
+                return;
+            }
+            printLog("设置了InputStreamReadListener、CreateSocketInterceptor或TlsConfig，使用线程模式");
+        }
+        startIdleMonitor();
+        writeThread = new WriteThread();
+        writeThread.setName("YSocket-发送线程");
+        writeThread.start();
         connectThread = new ConnectThread();
         connectThread.setConnectListener(success -> {
+            if (success) metrics.onConnected();
+            else metrics.onDisconnected();
             if (success) startReadThread();
             else closeReadThread();
+            if (success) replayOutbox();
             for (int i = 0; i < connectListeners.size(); i++) {
                 backNotice(connectListeners.get(i), success);
             }
@@ -411,43 +701,180 @@ public class YSocket {
     }
 
     /**
-     * 心跳类，用于发送心跳包
+     * NIO模式开始，连接、读取、心跳都在事件循环中完成
+     */
+    protected void startNio() {
+        startIdleMonitor();
+        // 事件循环中投递数据回调不能阻塞，分发器满了暂停这个连接的读取
+        dispatcher.setPauseListener(this::setReadPaused);
+        YSocketNio transport = new YSocketNio(this, getLoop(), success -> {
+            if (success) metrics.onConnected();
+            else metrics.onDisconnected();
+            if (success) replayOutbox();
+            for (int i = 0; i < connectListeners.size(); i++) {
+                backNotice(connectListeners.get(i), success);
+            }
+        });
+        synchronized (this) {
+            // 还有收集方暂停着，新连接也先不读取
+            if (readPauseCount > 0) transport.setReadPaused(true);
+            nioTransport = transport;
+        }
+        transport.start();
+    }
+
+    /**
+     * 开始空闲检测，代替原来的心跳线程，全部YSocket共用一个时间轮
+     */
+    protected void startIdleMonitor() {
+        if (idleMonitor != null) idleMonitor.stop();
+        idleMonitor = new YIdleMonitor(YTimerWheel.getDefault(), heartTime, readIdleTime, new YIdleMonitor.Listener() {
+            @Override
+            public void onWriteIdle() {
+                sendHeartbeat();
+            }
+
+            @Override
+            public void onReadIdle() {
+                YSocket.this.onReadIdle();
+            }
+        });
+        idleMonitor.start();
+    }
+
+    /**
+     * 发送心跳包，超过heartTime没有读写时在时间轮线程中调用
+     */
+    protected void sendHeartbeat() {
+        byte[] bytes = heartbeatContent == null ? null : heartbeatContent.get();
+        if (bytes == null) bytes = hearBytes;
+        if (bytes == null || bytes.length == 0) {
+            // NIO模式不发送紧急数据，断开由读取-1或写入异常检测
+            final Socket socket = this.socket;
+            if (nioTransport != null || socket == null || !noHeartbeatSendUrgentData) return;
+            // SSLSocket不支持紧急数据
+            if (socket instanceof SSLSocket) return;
+            //没有设置心跳包时发送紧急数据，和发送线程互斥，不会插入到一条数据中间，可能等待发送线程，所以不在时间轮线程中执行
+            YSocketDispatcher.getDefaultExecutor().execute(() -> {
+                try {
+                    synchronized (writeLock) {
+                        socket.sendUrgentData(UrgentData);
+                    }
+                    connect = true;
+                } catch (Exception e) {
+                    connect = false;
+                }
+            });
+            return;
+        }
+        // 心跳走发送队列，不会插入到其他数据中间，写入失败时标记断开，队列满时跳过本次心跳
+        boolean ready = nioTransport != null ? nioTransport.isConnected() : socket != null;
+        if (!ready) return;
+        sendQueue.offer(ByteBuffer.wrap(compressor != null ? compressor.encode(bytes) : bytes), 0, YSendQueue.Priority.CONTROL);
+        metrics.onHeartbeat();
+    }
+
+    /**
+     * 读空闲，超过readIdleTime没收到数据，断开重连
+     */
+    protected void onReadIdle() {
+        if (nioTransport != null) {
+            nioTransport.fail("读取超时，" + readIdleTime + "ms没有收到数据");
+            return;
+        }
+        Socket socket = this.socket;
+        if (socket == null || !connect) return;
+        printLog("读取超时，" + readIdleTime + "ms没有收到数据，断开重连");
+        connect = false;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            printLog("onReadIdle：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 收到数据，记录读取时间
+     */
+    protected void markRead() {
+        YIdleMonitor monitor = idleMonitor;
+        if (monitor != null) monitor.onRead();
+    }
+
+    /**
+     * 写出数据，记录写入时间
+     */
+    protected void markWrite() {
+        YIdleMonitor monitor = idleMonitor;
+        if (monitor != null) monitor.onWrite();
+    }
+
+    /**
+     * 发送类，从发送队列中一次取出多条数据，小包合并到一个缓存中一次写入，大包直接写入
      */
-    protected class HeartbeatThread extends Thread {
+    protected class WriteThread extends Thread {
+        final byte[] merge = new byte[1024 * 64];// 合并缓存
+        final ByteBuffer[] gather = new ByteBuffer[64];
+
         @Override
         public void run() {
             while (!isInterrupted()) {
                 try {
-                    Thread.sleep(heartTime);
+                    if (!sendQueue.awaitNotEmpty(1000)) continue;
                 } catch (InterruptedException e) {
-                    interrupt();
+                    break;
                 }
-                if (heartbeatContent == null) {
-                    send(hearBytes);
-                } else {
-                    byte[] bytes = heartbeatContent.get();
-                    send((bytes == null) ? hearBytes : bytes);
+                Socket socket = YSocket.this.socket;
+                if (socket == null || !connect) {
+                    sendQueue.failAll(new IOException("未连接"));
+                    continue;
+                }
+                int n = sendQueue.gather(gather);
+                try {
+                    OutputStream os = socket.getOutputStream();// 获得输出流
+                    synchronized (writeLock) {
+                        write(os, n);
+                        os.flush();
+                    }
+                    connect = true;
+                    markWrite();
+                    sendQueue.removeWritten();
+                } catch (Exception e) {
+                    connect = false;
+                    printLog("send：" + e.getMessage());
+                    sendQueue.failAll(e);
+                } finally {
+                    Arrays.fill(gather, 0, n, null);
                 }
             }
-            printLog("退出心跳线程");
+            sendQueue.failAll(new IOException("发送线程退出"));
+            printLog("退出发送线程");
         }
 
-        void send(final byte[] bytes) {
-            if (socket == null) return;
-            try {
-                if (bytes == null || bytes.length == 0) {
-                    //如果开启了,没有设置心跳包时发送紧急数据
-                    if (noHeartbeatSendUrgentData) socket.sendUrgentData(UrgentData);
-                    connect = true;
-                    return;
+        void write(OutputStream os, int n) throws IOException {
+            int length = 0;
+            for (int i = 0; i < n; i++) {
+                ByteBuffer buffer = gather[i];
+                int remaining = buffer.remaining();
+                if (remaining > merge.length - length) {
+                    if (length > 0) os.write(merge, 0, length);
+                    length = 0;
                 }
-                OutputStream os = socket.getOutputStream();// 获得输出流
-                os.write(bytes);
-                os.flush();
-                connect = true;
-            } catch (Exception e) {
-                connect = false;
+                if (remaining > merge.length) {
+                    if (buffer.hasArray()) {
+                        os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), remaining);
+                        buffer.position(buffer.limit());
+                    } else {
+                        byte[] bytes = new byte[remaining];
+                        buffer.get(bytes);
+                        os.write(bytes);
+                    }
+                    continue;
+                }
+                buffer.get(merge, length, remaining);
+                length += remaining;
             }
+            if (length > 0) os.write(merge, 0, length);
         }
     }
 
@@ -463,25 +890,40 @@ public class YSocket {
 
         @Override
         public void run() {
+            boolean online = false;// 上次检查时是否已连接
             // 保持连接
             while (!isInterrupted()) {
+                long sleep = CheckConnectTime;
                 if (socket == null || !connect) {
+                    if (online) {
+                        reconnectPolicy.onDisconnected();
+                        metrics.onDisconnected();
+                    }
+                    online = false;
+                    long start = reconnectPolicy.onAttemptStart();
                     try {
                         socket = (createSocketInterceptor != null) ? createSocketInterceptor.create() : new Socket();
                         SocketAddress socAddress = new InetSocketAddress(ip, port);// 连接
-                        socket.connect(socAddress, 1000 * 5);
+                        socket.connect(socAddress, connectTimeOut);
                         socket.setKeepAlive(true);
+                        // 握手失败时socket已经关闭，同一个tlsConfig的会话缓存按ip:port恢复会话
+                        if (tlsConfig != null) socket = tlsConfig.wrap(socket, ip, port);
+                        reconnectPolicy.onSuccess(start);
+                        if (idleMonitor != null) idleMonitor.reset();
                         connect = true;
+                        online = true;
                         printLog("连接成功... (" + ip + ":" + port + ")");
                         connectListener.isSuccess(true);
                     } catch (Exception e) {
+                        reconnectPolicy.onFailure(start);
                         connectListener.isSuccess(false);
                         closeSocket();
-                        printLog("连接失败... (" + ip + ":" + port + ")");
+                        sleep = reconnectPolicy.nextDelay();
+                        printLog("连接失败... (" + ip + ":" + port + ")，" + sleep + "ms后重连");
                     }
                 }
                 try {
-                    Thread.sleep(CheckConnectTime);
+                    Thread.sleep(sleep);
                 } catch (Exception es) {
                     interrupt();
                 }
@@ -499,18 +941,13 @@ public class YSocket {
             while (!isInterrupted()) {
                 try {
                     InputStream is = socket.getInputStream();
-                    byte[] resultBytes = inputStreamToBytes(is);
-                    if (resultBytes == null) {
-                        if (showReceiveLog) printLog("resultByte==null");
-                        continue;
-                    }
-                    if (resultBytes.length == 0) {
-                        if (showReceiveLog) printLog("resultBytes.length==0");
+                    if (inputStreamReadListener == null && framePipeline != null) {
+                        int count = framePipeline.readFrom(is, YSocket.this::onFrame);
+                        if (count < 0) throw new IOException("服务器关闭连接");
+                        if (count > 0) markRead();
                         continue;
                     }
-                    if (showReceiveLog) printLog("收到:" + Arrays.toString(resultBytes));
-                    connect = true;
-                    backData(dataListeners, resultBytes);
+                    onReceive(inputStreamToBytes(is));
                 } catch (TimeoutException ignored) {
                 } catch (Exception e) {
                     printLog("ReadThread：" + e.getMessage());
@@ -528,12 +965,83 @@ public class YSocket {
         }
     }
 
+    /**
+     * 收到数据，读取线程或者NIO事件循环中调用
+     */
+    protected void onReceive(byte[] resultBytes) {
+        if (resultBytes == null) {
+            if (showReceiveLog) printLog("resultByte==null");
+            return;
+        }
+        if (resultBytes.length == 0) {
+            if (showReceiveLog) printLog("resultBytes.length==0");
+            return;
+        }
+        metrics.onRead(resultBytes.length);
+        deliver(resultBytes);
+    }
+
+    /**
+     * 回调收到的一条数据
+     */
+    protected void deliver(byte[] resultBytes) {
+        if (showReceiveLog) printLog("收到:" + YSocketMetrics.toLogString(resultBytes));
+        connect = true;
+        markRead();
+        for (DataListener receiveListener : receiveListeners) {
+            try {
+                receiveListener.data(resultBytes);
+            } catch (Exception e) {
+                printLog("错误：" + e.getMessage());
+            }
+        }
+        YFrameBatcher<byte[]> batcher = frameBatcher;
+        if (batcher != null) batcher.add(resultBytes);
+        else backData(dataListeners, resultBytes);
+    }
+
+    /**
+     * 收到一帧数据，先回调零复制帧回调，再复制一份回调数据监听
+     */
+    protected void onFrame(ByteBuffer frame) {
+        metrics.onRead(frame.remaining());
+        if (compressor != null) {
+            try {
+                frame = ByteBuffer.wrap(compressor.decode(frame));
+            } catch (IOException e) {
+                metrics.onDecodeError();
+                printLog("解压失败：" + e.getMessage());
+                return;
+            }
+        }
+        if (frameListener != null) {
+            try {
+                frameListener.frame(frame.duplicate());
+            } catch (Exception e) {
+                printLog("错误：" + e.getMessage());
+            }
+        }
+        if (dataListeners.isEmpty() && frameBatcher == null && receiveListeners.isEmpty()) {
+            connect = true;
+            return;
+        }
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        deliver(bytes);
+    }
+
     /**
      * 关闭全部连接,关闭读取线程,关闭连接线程,关闭心跳线程,关闭socket
      */
     public void closeConnect() {
-        if (heartbeat != null)
-            heartbeat.interrupt();
+        started = false;
+        if (nioTransport != null)
+            nioTransport.close();
+        if (idleMonitor != null)
+            idleMonitor.stop();
+        if (writeThread != null)
+            writeThread.interrupt();
+        sendQueue.failAll(new IOException("连接关闭"));
         if (connectThread != null)
             connectThread.interrupt();
         closeReadThread();
@@ -547,6 +1055,7 @@ public class YSocket {
      * 退出
      */
     public void exit() {
+        metrics.setListener(null, 0);
         closeConnect();
         clearConnectListener();
         clearDataListener();
@@ -574,6 +1083,7 @@ public class YSocket {
      */
     protected void startReadThread() {
         closeReadThread();
+        if (framePipeline != null) framePipeline.reset();
         readThread = new ReadThread();
         readThread.setName("YSocket-读取线程");
         readThread.start();
@@ -608,9 +1118,43 @@ public class YSocket {
      * @param stateListener 成功与否监听
      */
     public void send(final byte[] bytes, final StateListener stateListener) {
-        Thread thread = new Thread(() -> backNotice(stateListener, sendSync(bytes)));
-        thread.setName("YSocket-发送线程");
-        thread.start();
+        sendAsync(bytes).addListener(future -> backNotice(stateListener, future.isSuccess()));
+    }
+
+    /**
+     * 发送消息byte[]，异步，进入发送队列按顺序写入，不阻塞，超过高水位直接失败
+     *
+     * @param bytes 消息byte[]，写入完成前不要修改
+     * @return 写入结果
+     */
+    public YFuture<Boolean> sendAsync(final byte[] bytes) {
+        return enqueue(bytes, 0, YSendQueue.Priority.NORMAL);
+    }
+
+    /**
+     * 发送消息byte[]，异步，按优先级写入，CONTROL（停止、控制命令）排在已投递的普通数据和大数据前面
+     *
+     * @param bytes    消息byte[]，写入完成前不要修改
+     * @param priority 优先级
+     * @return 写入结果
+     */
+    public YFuture<Boolean> sendAsync(final byte[] bytes, YSendQueue.Priority priority) {
+        return enqueue(bytes, 0, priority);
+    }
+
+    /**
+     * 发送大数据（如日志上传），异步，最低优先级
+     * 设置了ChunkEncoder时按bulkChunkSize分块，每块由ChunkEncoder加上分块头，写完一块再投递下一块，
+     * 控制命令、心跳、普通数据可以插在两块之间，接收方按分块头重新组装。
+     * 没有设置ChunkEncoder时整条作为一条BULK数据，只能排在其他数据后面，不会被打断（否则接收方无法区分）。
+     *
+     * @param bytes 数据，写入完成前不要修改
+     * @return 全部写入完成的结果
+     */
+    public YFuture<Boolean> sendBulk(final byte[] bytes) {
+        if (chunkEncoder == null || bytes == null || bytes.length == 0) return enqueue(bytes, 0, YSendQueue.Priority.BULK);
+        if (bytes.length <= bulkChunkSize) return enqueue(chunkEncoder.encode(bytes, 0, bytes.length, 0, 1), 0, YSendQueue.Priority.BULK);
+        return new BulkSender(bytes).start();
     }
 
     /**
@@ -620,80 +1164,136 @@ public class YSocket {
      * @return 是否发送成功
      */
     public boolean sendSync(final byte[] bytes) {
-        // socket==null直接返回失败
-        if (socket == null) return false;
+        // NIO模式在事件循环线程中调用时不能等待，写不完的部分留在队列中
+        if (nioTransport != null && getLoop().inLoop()) {
+            YFuture<Boolean> future = enqueue(bytes, 0, YSendQueue.Priority.NORMAL);
+            return !future.isDone() || future.isSuccess();
+        }
+        YFuture<Boolean> future = enqueue(bytes, timeOut, YSendQueue.Priority.NORMAL);
+        return future.await(timeOut) && future.isSuccess();
+    }
+
+    /**
+     * 放入发送队列
+     *
+     * @param wait     超过高水位时最多等待多少毫秒
+     * @param priority 优先级
+     */
+    protected YFuture<Boolean> enqueue(final byte[] bytes, long wait, YSendQueue.Priority priority) {
         // 判断消息为空直接丢弃
-        if (bytes == null || bytes.length == 0) return false;
-        // 发送消息
+        if (bytes == null || bytes.length == 0) return YFuture.failed(new IOException("发送内容为空"));
+        // 设置了发送日志，普通数据先写入文件，没有连接也不丢失
+        if (outbox != null && priority == YSendQueue.Priority.NORMAL) return appendOutbox(bytes);
+        // 没有连接直接返回失败
+        if (!isReady()) return YFuture.failed(new IOException("未连接"));
+        YFuture<Boolean> future = sendQueue.offer(ByteBuffer.wrap(compressor != null ? compressor.encode(bytes) : bytes), wait, priority);
+        if (showSendLog) {
+            future.addListener(f -> {
+                if (f.isSuccess()) printLog("发送:" + YSocketMetrics.toLogString(bytes));
+            });
+        }
+        return future;
+    }
+
+    protected boolean isReady() {
+        return nioTransport != null ? nioTransport.isConnected() : socket != null && writeThread != null;
+    }
+
+    /**
+     * 写入发送日志，写入成功即返回成功，连接后按顺序发送
+     */
+    protected YFuture<Boolean> appendOutbox(byte[] bytes) {
         try {
-            OutputStream os = socket.getOutputStream();// 获得输出流
-            os.write(bytes);
-            os.flush();
-            if (showSendLog) printLog("发送:" + Arrays.toString(bytes));
-            connect = true;
-            return true;
-        } catch (Exception e) {
-            connect = false;
-            printLog("send：" + e.getMessage());
-            return false;
+            outbox.append(bytes);
+        } catch (IOException e) {
+            printLog("写入发送日志失败：" + e.getMessage());
+            return YFuture.failed(e);
         }
+        pumpOutbox();
+        return YFuture.succeeded(true);
     }
 
     /**
-     * 回调数据，考虑到服务器可能在短时间内多条消息推送，本地消息处理有一定时间，为了不漏读服务器每一条消息，因此这里单独开线程。又因为回调数据处理时可能引发异常，为了引起读取线程崩溃，因此进行异常捕获。
+     * 连接成功，从第一条未确认的开始重发
      */
-    protected void backData(final List<DataListener> dataListeners, final byte[] bytes) {
-        if (dataListeners != null) {
+    protected void replayOutbox() {
+        if (outbox == null) return;
+        outboxRewind.set(true);
+        YSocketDispatcher.getDefaultExecutor().execute(this::pumpOutbox);
+    }
+
+    /**
+     * 从发送日志读取数据放进发送队列，最多outboxWindow条，写完一条再读取下一条，读取文件不在事件循环中进行
+     * 发送失败（断开）时等发送队列中的都有结果后再回到第一条未确认的，自动确认时不会重复发送
+     */
+    protected void pumpOutbox() {
+        YOutbox box = outbox;
+        if (box == null || outboxPump.getAndIncrement() != 0) return;
+        int missed = 1;
+        while (true) {
             try {
-                Thread thread = new Thread(() -> {
-                    try {
-                        for (DataListener dataListener : dataListeners) {
-                            if (dataListener != null) {
-                                if (YClass.isAndroid()) {
-                                    YThread.runOnUiThread(() -> {
-                                        dataListener.data(bytes);
-                                    });
-                                } else {
-                                    dataListener.data(bytes);
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        printLog("错误：" + e.getMessage());
-                        e.printStackTrace();
+                if (outboxInFlight.get() == 0 && outboxRewind.compareAndSet(true, false)) box.rewind();
+                // 有失败时先不发，等发送队列中的都有结果后回到失败的那条，确认是累计的，不能跳过失败的
+                while (isReady() && !outboxRewind.get() && outboxInFlight.get() < outboxWindow) {
+                    if (!sendQueue.isWritable()) {
+                        // 发送队列被其他数据占满，稍后再试
+                        if (outboxInFlight.get() == 0) YTimerWheel.getDefault().newTimeout(() -> YSocketDispatcher.getDefaultExecutor().execute(this::pumpOutbox), 100);
+                        break;
                     }
-                });
-                thread.setName("YSocket-回调数据");
-                thread.start();
-            } catch (Exception e) {
-                printLog("错误：" + e.getMessage());
+                    YOutbox.Record record = box.next();
+                    if (record == null) break;
+                    outboxInFlight.incrementAndGet();
+                    byte[] bytes = box.encode(record);
+                    sendQueue.offer(ByteBuffer.wrap(compressor != null ? compressor.encode(bytes) : bytes), 0, YSendQueue.Priority.NORMAL).addListener(f -> {
+                        if (f.isSuccess()) {
+                            if (showSendLog) printLog("发送:" + YSocketMetrics.toLogString(bytes));
+                            if (box.isAutoAck()) box.ack(record.seq);
+                        } else outboxRewind.set(true);
+                        if (outboxInFlight.decrementAndGet() < outboxWindow / 2 || outboxRewind.get())
+                            YSocketDispatcher.getDefaultExecutor().execute(this::pumpOutbox);
+                    });
+                }
+            } catch (IOException e) {
+                printLog("读取发送日志失败：" + e.getMessage());
             }
+            missed = outboxPump.addAndGet(-missed);
+            if (missed == 0) return;
         }
     }
 
     /**
-     * 回调状态通知，
-     * 回调数据，考虑到状态可能在短时间内多次变化回调，本地消息处理有一定时间，为了不卡住读取连接线程，因此这里单独开线程。又因为回调数据处理时可能引发异常，为了引起读取线程崩溃，因此进行异常捕获。
+     * 回调数据，考虑到服务器可能在短时间内多条消息推送，本地消息处理有一定时间，为了不卡住读取线程，交给串行分发器回调（安卓在主线程），保证顺序。又因为回调数据处理时可能引发异常，为了引起读取线程崩溃，因此进行异常捕获。
      */
-    protected void backNotice(final StateListener stateListener, final boolean status) {
-        if (stateListener != null) {
-            Thread thread = new Thread(() -> {
+    protected void backData(final List<DataListener> dataListeners, final byte[] bytes) {
+        if (dataListeners == null || dataListeners.isEmpty()) return;
+        dispatcher.post(() -> {
+            for (int i = 0; i < dataListeners.size(); i++) {
+                DataListener dataListener = dataListeners.get(i);
+                if (dataListener == null) continue;
                 try {
-                    if (YClass.isAndroid()) {
-                        YThread.runOnUiThread(() -> {
-                            stateListener.isSuccess(status);
-                        });
-                    } else {
-                        stateListener.isSuccess(status);
-                    }
+                    dataListener.data(bytes);
                 } catch (Exception e) {
                     printLog("错误：" + e.getMessage());
                     e.printStackTrace();
                 }
-            });
-            thread.setName("YSocket-回调状态");
-            thread.start();
-        }
+            }
+        }, true);
+    }
+
+    /**
+     * 回调状态通知，
+     * 考虑到状态可能在短时间内多次变化回调，本地消息处理有一定时间，为了不卡住读取连接线程，交给串行分发器回调（安卓在主线程），和数据回调保持先后顺序，状态通知不会被丢弃。又因为回调数据处理时可能引发异常，为了引起读取线程崩溃，因此进行异常捕获。
+     */
+    protected void backNotice(final StateListener stateListener, final boolean status) {
+        if (stateListener == null) return;
+        dispatcher.post(() -> {
+            try {
+                stateListener.isSuccess(status);
+            } catch (Exception e) {
+                printLog("错误：" + e.getMessage());
+                e.printStackTrace();
+            }
+        }, false);
     }
 
     /**
@@ -703,6 +1303,9 @@ public class YSocket {
     public byte[] inputStreamToBytes(InputStream inputStream) throws Exception {
         if (inputStreamReadListener != null)
             return inputStreamReadListener.inputStreamToBytes(inputStream);
+        // TLS的available()只返回已经解密的数据，不读取时一直是0，所以用soTimeout阻塞读取
+        Socket socket = this.socket;
+        if (socket instanceof SSLSocket) return YReadInputStream.readOnce(socket, timeOut);
         long startTime = currentTimeMillis();
         int count = 0;
         while (count == 0 && currentTimeMillis() - startTime < timeOut)
@@ -718,9 +1321,13 @@ public class YSocket {
     }
 
     /**
-     * 获取当前socket
+     * 获取当前socket，NIO模式下返回SocketChannel对应的socket，不能直接读写其输入输出流
      */
     public Socket getSocket() {
+        if (nioTransport != null) {
+            SocketChannel channel = nioTransport.getChannel();
+            return channel == null ? null : channel.socket();
+        }
         return socket;
     }
 
@@ -733,6 +1340,108 @@ public class YSocket {
         this.createSocketInterceptor = createSocketInterceptor;
     }
 
+    public YTlsConfig getTlsConfig() {
+        return tlsConfig;
+    }
+
+    /**
+     * 设置TLS加密，start之前调用，多个连接共用一个YTlsConfig时共用会话缓存
+     * NIO模式不支持TLS，设置后自动使用线程模式；没有设置心跳包时不发送紧急数据
+     *
+     * @param tlsConfig TLS配置，为null不加密
+     */
+    public void setTlsConfig(YTlsConfig tlsConfig) {
+        this.tlsConfig = tlsConfig;
+    }
+
+    /**
+     * 设置发送日志，普通优先级的数据（send、sendAsync、sendSync）先写入文件，写入成功即返回成功，连接后按顺序发送，
+     * 断开期间、进程退出后重新打开也不丢失，重连后从第一条未确认的重发。心跳、CONTROL、sendBulk不经过发送日志。
+     *
+     * @param outbox 发送日志，一个连接一个目录，为null不使用
+     */
+    public void setOutbox(YOutbox outbox) {
+        this.outbox = outbox;
+        if (outbox != null) replayOutbox();
+    }
+
+    public YOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * 设置大数据分块编码，sendBulk时每块加上分块头（如序号、总数），接收方据此组装
+     *
+     * @param chunkEncoder 分块编码，为null时sendBulk不分块
+     * @param chunkSize    每块大小，字节
+     */
+    public void setChunkEncoder(ChunkEncoder chunkEncoder, int chunkSize) {
+        this.chunkEncoder = chunkEncoder;
+        this.bulkChunkSize = Math.max(1, chunkSize);
+    }
+
+    public ChunkEncoder getChunkEncoder() {
+        return chunkEncoder;
+    }
+
+    /**
+     * 设置大数据同时在发送队列中的块数，越大吞吐越高，插队的高优先级数据等待越久
+     */
+    public void setBulkWindow(int bulkWindow) {
+        this.bulkWindow = Math.max(1, bulkWindow);
+    }
+
+    /**
+     * 大数据分块发送，写完一块再投递下一块，任意一块失败则全部失败
+     */
+    protected class BulkSender {
+        protected final byte[] bytes;
+        protected final ChunkEncoder encoder = chunkEncoder;
+        protected final int chunkSize = bulkChunkSize;
+        protected final int count;// 总块数
+        protected final YFuture<Boolean> future = new YFuture<>();
+        protected int next;// 下一块序号
+        protected int inFlight;// 在发送队列中的块数
+
+        protected BulkSender(byte[] bytes) {
+            this.bytes = bytes;
+            this.count = (bytes.length + chunkSize - 1) / chunkSize;
+        }
+
+        protected YFuture<Boolean> start() {
+            fill();
+            return future;
+        }
+
+        protected void fill() {
+            while (true) {
+                int index;
+                synchronized (this) {
+                    if (future.isDone() || next >= count || inFlight >= bulkWindow) return;
+                    index = next++;
+                    inFlight++;
+                }
+                int offset = index * chunkSize;
+                byte[] chunk = encoder.encode(bytes, offset, Math.min(chunkSize, bytes.length - offset), index, count);
+                enqueue(chunk, 0, YSendQueue.Priority.BULK).addListener(f -> onChunk(f.isSuccess() ? null : f.getCause()));
+            }
+        }
+
+        protected void onChunk(Throwable cause) {
+            if (cause != null) {
+                future.fail(cause);
+                return;
+            }
+            boolean finished;
+            synchronized (this) {
+                inFlight--;
+                finished = next >= count && inFlight == 0;
+            }
+            if (finished) future.complete(true);
+            else fill();
+        }
+    }
+
     /**
      * 心跳内容，发送此接口的返回内容
      */
@@ -767,4 +1476,19 @@ public class YSocket {
     public interface CreateSocketInterceptor {
         Socket create() throws IOException;
     }
+
+    /**
+     * 大数据分块编码，给每块加上分块头
+     */
+    public interface ChunkEncoder {
+        /**
+         * @param data   全部数据
+         * @param offset 本块起始位置
+         * @param length 本块长度
+         * @param index  本块序号，从0开始
+         * @param count  总块数
+         * @return 发送的内容
+         */
+        byte[] encode(byte[] data, int offset, int length, int index, int count);
+    }
 }
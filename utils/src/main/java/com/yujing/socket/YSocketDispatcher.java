@@ -0,0 +1,391 @@
+package com.yujing.socket;
+
+import com.yujing.utils.YClass;
+import com.yujing.utils.YLog;
+import com.yujing.utils.YThread;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 串行回调分发器，一个连接一个
+ * 1.回调按投递顺序执行，同一时间只有一个回调在执行，保证收到数据的顺序。
+ * 2.有界队列，队列满时按溢出策略处理：阻塞、丢弃最旧、丢弃最新、只保留最新。
+ * 阻塞策略在事件循环线程中投递时不阻塞（否则同一循环的全部连接都停下）：设置了PauseListener时暂停读取，队列降到一半时恢复；没有设置时丢弃最旧的。
+ * 3.不为每条消息创建线程，安卓在主线程中执行（一次post执行一批），非安卓在共享线程池中执行。
+ * 4.可以获取队列深度等统计信息。
+ *
+ * @author 余静 2026年10月18日13:25:10
+ */
+/*
+使用方法：
+//YSocket默认使用容量1024、阻塞策略的分发器，可以替换
+ySocket.setDispatcher(new YSocketDispatcher(256, YSocketDispatcher.Policy.DROP_OLDEST));
+//只关心最新数据，如实时重量
+ySocket.setDispatcher(new YSocketDispatcher(1, YSocketDispatcher.Policy.CONFLATE));
+//统计
+YLog.i(ySocket.getDispatcher().getStats().toString());
+
+//事件循环中投递时队列满暂停读取（YSocket、YSocketServer已经设置）
+dispatcher.setPauseListener(paused -> ySocket.setReadPaused(paused));
+
+//单独使用
+YSocketDispatcher dispatcher = new YSocketDispatcher(100, YSocketDispatcher.Policy.BLOCK);
+dispatcher.post(() -> YLog.i("按顺序执行"), true);
+ */
+@SuppressWarnings("unused")
+public class YSocketDispatcher {
+    private static volatile Executor defaultExecutor;
+    protected final int capacity;// 队列容量
+    protected final Policy policy;// 溢出策略
+    protected final ArrayDeque<Item> queue = new ArrayDeque<>();
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition notFull = lock.newCondition();
+    protected Executor executor;// 执行回调的线程，为空时安卓使用主线程，非安卓使用共享线程池
+    protected int batchSize = 64;// 安卓主线程一次最多执行多少个回调，剩下的重新post，防止卡住主线程
+    protected boolean scheduled;// 是否已经安排执行
+    protected int droppableSize;// 队列中可丢弃回调的数量
+    private volatile Thread dispatchThread;// 正在执行回调的线程
+    protected PauseListener pauseListener;// 事件循环线程中投递时队列满，暂停读取
+    protected boolean readPaused;// 已经通知暂停读取
+    protected boolean showLog = false;
+    // 统计
+    protected int maxDepth;// 最大队列深度
+    protected long posted;// 投递数量
+    protected long dispatched;// 执行数量
+    protected long dropped;// 丢弃数量
+    protected long blockedNanos;// 阻塞等待总时间
+    protected long pauseCount;// 事件循环中队列满暂停读取次数
+    private final Runnable drainTask = this::drain;
+
+    /**
+     * 溢出策略
+     */
+    public enum Policy {
+        BLOCK,// 阻塞投递线程，直到有空位；事件循环线程中暂停读取或丢弃最旧的
+        DROP_OLDEST,// 丢弃队列中最旧的
+        DROP_NEWEST,// 丢弃新投递的
+        CONFLATE// 只保留最新的，新投递的替换队列中全部可丢弃回调
+    }
+
+    /**
+     * 构造函数，容量1024，阻塞策略
+     */
+    public YSocketDispatcher() {
+        this(1024, Policy.BLOCK);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param capacity 队列容量
+     * @param policy   溢出策略
+     */
+    public YSocketDispatcher(int capacity, Policy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity必须大于0");
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * 共享线程池，非安卓环境执行回调，空闲60秒回收
+     */
+    public static Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            synchronized (YSocketDispatcher.class) {
+                if (defaultExecutor == null) {
+                    defaultExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable);
+                        thread.setName("YSocket-回调");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * 设置执行回调的线程，如Runnable::run直接在IO线程中执行
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 安卓主线程一次最多执行多少个回调
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public void setShowLog(boolean showLog) {
+        this.showLog = showLog;
+    }
+
+    /**
+     * 设置暂停读取监听，阻塞策略在事件循环线程中投递时队列满回调true，队列降到一半时回调false
+     * 持有队列锁时回调，保证顺序，回调中不要阻塞
+     */
+    public void setPauseListener(PauseListener pauseListener) {
+        this.pauseListener = pauseListener;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 投递回调
+     *
+     * @param task      回调
+     * @param droppable 是否可以按溢出策略丢弃，状态通知等不能丢的传false，不能丢的回调不受容量限制
+     * @return 是否投递成功，被丢弃返回false
+     */
+    public boolean post(Runnable task, boolean droppable) {
+        boolean schedule;
+        lock.lock();
+        try {
+            posted++;
+            if (droppable && droppableSize >= capacity) {
+                switch (policy) {
+                    case BLOCK:
+                        if (isDispatchThread() || (executor == null && YClass.isAndroid() && YThread.isMainThread()))
+                            break;// 回调线程中投递不能阻塞，否则死锁
+                        if (YSocketLoop.isLoopThread()) {
+                            // 事件循环线程不能阻塞，暂停读取，已经读到的这几条超出容量也放进去
+                            if (pauseListener == null) {
+                                removeOldestDroppable();
+                            } else if (!readPaused) {
+                                readPaused = true;
+                                pauseCount++;
+                                notifyPause(pauseListener, true);
+                            }
+                            break;
+                        }
+                        long start = System.nanoTime();
+                        while (droppableSize >= capacity) {
+                            try {
+                                notFull.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                dropped++;
+                                return false;
+                            }
+                        }
+                        blockedNanos += System.nanoTime() - start;
+                        break;
+                    case DROP_OLDEST:
+                        removeOldestDroppable();
+                        break;
+                    case DROP_NEWEST:
+                        dropped++;
+                        return false;
+                    case CONFLATE:
+                        removeAllDroppable();
+                        break;
+                }
+            } else if (droppable && policy == Policy.CONFLATE) {
+                removeAllDroppable();
+            }
+            queue.offer(new Item(task, droppable));
+            if (droppable) droppableSize++;
+            if (queue.size() > maxDepth) maxDepth = queue.size();
+            schedule = !scheduled;
+            scheduled = true;
+        } finally {
+            lock.unlock();
+        }
+        if (schedule) schedule();
+        return true;
+    }
+
+    /**
+     * 当前队列深度
+     */
+    public int getDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空队列
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            dropped += queue.size();
+            queue.clear();
+            droppableSize = 0;
+            notFull.signalAll();
+            resume();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 统计信息
+     */
+    public Stats getStats() {
+        lock.lock();
+        try {
+            Stats stats = new Stats();
+            stats.depth = queue.size();
+            stats.maxDepth = maxDepth;
+            stats.capacity = capacity;
+            stats.posted = posted;
+            stats.dispatched = dispatched;
+            stats.dropped = dropped;
+            stats.blockedMillis = blockedNanos / 1000_000L;
+            stats.pauseCount = pauseCount;
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void schedule() {
+        Executor e = executor;
+        if (e != null) e.execute(drainTask);
+        else if (YClass.isAndroid()) YThread.getMainHandler().post(drainTask);
+        else getDefaultExecutor().execute(drainTask);
+    }
+
+    /**
+     * 按顺序执行队列中的回调
+     */
+    protected void drain() {
+        boolean limit = executor == null && YClass.isAndroid();
+        int count = 0;
+        dispatchThread = Thread.currentThread();
+        try {
+            while (true) {
+                Item item;
+                lock.lock();
+                try {
+                    if (limit && count >= batchSize) {
+                        // 还有没执行完的，让出主线程，重新post
+                        break;
+                    }
+                    item = queue.poll();
+                    if (item == null) {
+                        scheduled = false;
+                        return;
+                    }
+                    if (item.droppable) droppableSize--;
+                    dispatched++;
+                    notFull.signalAll();
+                    if (droppableSize <= capacity / 2) resume();
+                } finally {
+                    lock.unlock();
+                }
+                count++;
+                try {
+                    item.task.run();
+                } catch (Throwable e) {
+                    if (showLog) YLog.e("回调异常：" + e.getMessage(), e);
+                }
+            }
+        } finally {
+            dispatchThread = null;
+        }
+        schedule();
+    }
+
+    protected boolean isDispatchThread() {
+        return Thread.currentThread() == dispatchThread;
+    }
+
+    /**
+     * 已经暂停读取时通知恢复，持有锁时调用，保证暂停、恢复的通知顺序
+     */
+    protected void resume() {
+        if (!readPaused) return;
+        readPaused = false;
+        notifyPause(pauseListener, false);
+    }
+
+    protected void notifyPause(PauseListener listener, boolean paused) {
+        if (listener == null) return;
+        try {
+            listener.onPause(paused);
+        } catch (Throwable e) {
+            if (showLog) YLog.e("暂停读取回调异常：" + e.getMessage(), e);
+        }
+    }
+
+    protected void removeOldestDroppable() {
+        Iterator<Item> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().droppable) {
+                iterator.remove();
+                droppableSize--;
+                dropped++;
+                return;
+            }
+        }
+    }
+
+    protected void removeAllDroppable() {
+        Iterator<Item> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().droppable) {
+                iterator.remove();
+                droppableSize--;
+                dropped++;
+            }
+        }
+    }
+
+    protected static class Item {
+        final Runnable task;
+        final boolean droppable;
+
+        Item(Runnable task, boolean droppable) {
+            this.task = task;
+            this.droppable = droppable;
+        }
+    }
+
+    /**
+     * 暂停、恢复读取
+     */
+    public interface PauseListener {
+        void onPause(boolean paused);
+    }
+
+    /**
+     * 统计信息
+     */
+    public static class Stats {
+        public int depth;// 当前队列深度
+        public int maxDepth;// 最大队列深度
+        public int capacity;// 队列容量
+        public long posted;// 投递数量
+        public long dispatched;// 执行数量
+        public long dropped;// 丢弃数量
+        public long blockedMillis;// 投递线程阻塞总时间
+        public long pauseCount;// 事件循环中队列满暂停读取次数
+
+        @Override
+        public String toString() {
+            return "队列深度：" + depth + "/" + capacity + "，最大深度：" + maxDepth + "，投递：" + posted + "，执行：" + dispatched + "，丢弃：" + dropped + "，阻塞：" + blockedMillis + "ms，暂停读取：" + pauseCount;
+        }
+    }
+}
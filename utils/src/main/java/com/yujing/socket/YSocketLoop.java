@@ -0,0 +1,323 @@
+package com.yujing.socket;
+
+import com.yujing.utils.YLog;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * YSocketLoop，基于Selector的事件循环
+ * 1.一个YSocketLoop只有一个线程，该线程负责：通道就绪事件（连接、读、写）、定时任务（重连、心跳、超时）、投递过来的任务。
+ * 2.没有就绪事件也没有到期定时任务时，线程阻塞在select上，不占用CPU。
+ * 3.所有注册到该循环的通道回调、定时任务都在该线程中执行，回调中不要做耗时操作。
+ *
+ * @author 余静 2026年10月18日10:21:36
+ */
+/*
+使用方法：
+//默认共享事件循环
+YSocketLoop loop = YSocketLoop.getDefault();
+//投递任务
+loop.execute(() -> System.out.println("在事件循环线程中运行"));
+//定时任务
+YSocketLoop.Timer timer = loop.schedule(() -> System.out.println("3秒后运行"), 3000);
+//取消定时任务
+timer.cancel();
+//注册通道
+loop.execute(() -> loop.register(channel, SelectionKey.OP_READ, key -> { ... }));
+//关闭
+loop.shutdown();
+ */
+@SuppressWarnings("unused")
+public class YSocketLoop {
+    private static volatile YSocketLoop defaultLoop;
+    private static final ThreadLocal<YSocketLoop> currentLoop = new ThreadLocal<>();// 当前线程所在的事件循环
+    protected final String name;// 线程名称
+    protected final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();// 待执行任务
+    protected final PriorityQueue<Timer> timers = new PriorityQueue<>();// 定时任务，只在事件循环线程中访问
+    protected Selector selector;
+    protected Thread thread;
+    protected volatile boolean running;
+    protected volatile boolean terminated;// 已经关闭，关闭后不能再次开始
+    protected boolean showLog = false;// 显示日志
+    private long timerSequence;// 定时任务序号，保证同一时间的定时任务按添加顺序执行
+
+    /**
+     * 构造函数
+     *
+     * @param name 线程名称
+     */
+    public YSocketLoop(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 默认共享事件循环
+     */
+    public static YSocketLoop getDefault() {
+        if (defaultLoop == null) {
+            synchronized (YSocketLoop.class) {
+                if (defaultLoop == null)
+                    defaultLoop = new YSocketLoop("YSocketLoop-默认");
+            }
+        }
+        return defaultLoop;
+    }
+
+    /**
+     * 设置是否显示日志
+     */
+    public void setShowLog(boolean showLog) {
+        this.showLog = showLog;
+    }
+
+    /**
+     * 获取线程名称
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 是否正在运行
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 开始，可以重复调用，已经开始则直接返回
+     */
+    public synchronized void start() {
+        if (running || terminated) return;
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Selector打开失败：" + e.getMessage(), e);
+        }
+        running = true;
+        thread = new Thread(this::run);
+        thread.setName(name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 当前线程是否是事件循环线程
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 当前线程是否是任意一个事件循环的线程，事件循环线程中不能阻塞
+     */
+    public static boolean isLoopThread() {
+        return currentLoop.get() != null;
+    }
+
+    /**
+     * 在事件循环线程中执行任务，如果当前就是事件循环线程则直接执行
+     */
+    public void execute(Runnable runnable) {
+        if (inLoop()) {
+            runnable.run();
+            return;
+        }
+        start();
+        if (terminated) {
+            printLog("事件循环已关闭，丢弃任务");
+            return;
+        }
+        tasks.offer(runnable);
+        wakeup();
+    }
+
+    /**
+     * 延时在事件循环线程中执行任务
+     *
+     * @param runnable    任务
+     * @param delayMillis 延时毫秒
+     * @return 定时任务，可取消
+     */
+    public Timer schedule(Runnable runnable, long delayMillis) {
+        final Timer timer = new Timer(runnable, System.nanoTime() + Math.max(0, delayMillis) * 1000_000L);
+        execute(() -> {
+            timer.sequence = timerSequence++;
+            timers.offer(timer);
+        });
+        return timer;
+    }
+
+    /**
+     * 注册通道，只能在事件循环线程中调用
+     *
+     * @param channel 通道，必须是非阻塞模式
+     * @param ops     关注的事件
+     * @param handler 就绪回调
+     * @return SelectionKey
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        if (!inLoop()) throw new IllegalStateException("只能在事件循环线程中注册通道");
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * 当前注册的通道数量
+     */
+    public int getChannelCount() {
+        Selector s = selector;
+        return s == null ? 0 : s.keys().size();
+    }
+
+    /**
+     * 唤醒select
+     */
+    public void wakeup() {
+        Selector s = selector;
+        if (s != null) s.wakeup();
+    }
+
+    /**
+     * 关闭事件循环，关闭全部注册的通道，关闭后不能再次开始
+     */
+    public synchronized void shutdown() {
+        terminated = true;
+        if (!running) return;
+        running = false;
+        wakeup();
+        if (this == defaultLoop) defaultLoop = null;
+    }
+
+    protected void run() {
+        currentLoop.set(this);
+        printLog("开启事件循环");
+        while (running) {
+            try {
+                long timeout = runTimers();
+                if (!tasks.isEmpty()) timeout = -1;
+                int count = timeout < 0 ? selector.selectNow() : selector.select(timeout);
+                if (count > 0) processSelectedKeys();
+                runTasks();
+            } catch (Throwable e) {
+                printLog("事件循环异常：" + e.getMessage());
+            }
+        }
+        closeAll();
+        printLog("退出事件循环");
+    }
+
+    /**
+     * 执行到期的定时任务
+     *
+     * @return 距离下一个定时任务的毫秒数，0表示没有定时任务（select一直阻塞）
+     */
+    protected long runTimers() {
+        while (true) {
+            Timer timer = timers.peek();
+            if (timer == null) return 0;
+            if (timer.cancelled) {
+                timers.poll();
+                continue;
+            }
+            long delay = timer.deadline - System.nanoTime();
+            if (delay > 0) return Math.max(1, delay / 1000_000L);
+            timers.poll();
+            try {
+                timer.runnable.run();
+            } catch (Throwable e) {
+                printLog("定时任务异常：" + e.getMessage());
+            }
+        }
+    }
+
+    protected void runTasks() {
+        Runnable runnable;
+        while ((runnable = tasks.poll()) != null) {
+            try {
+                runnable.run();
+            } catch (Throwable e) {
+                printLog("任务异常：" + e.getMessage());
+            }
+        }
+    }
+
+    protected void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (!key.isValid()) continue;
+            try {
+                ((Handler) key.attachment()).onReady(key);
+            } catch (Throwable e) {
+                printLog("通道处理异常：" + e.getMessage());
+            }
+        }
+    }
+
+    protected void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+            selector.close();
+        } catch (Exception e) {
+            printLog("关闭事件循环异常：" + e.getMessage());
+        }
+        timers.clear();
+        tasks.clear();
+    }
+
+    protected void printLog(String str) {
+        if (showLog) YLog.d(str, 1);
+    }
+
+    /**
+     * 通道就绪回调，在事件循环线程中执行
+     */
+    public interface Handler {
+        void onReady(SelectionKey key);
+    }
+
+    /**
+     * 定时任务
+     */
+    public static class Timer implements Comparable<Timer> {
+        final Runnable runnable;
+        final long deadline;
+        long sequence;
+        volatile boolean cancelled;
+
+        Timer(Runnable runnable, long deadline) {
+            this.runnable = runnable;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消定时任务
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            if (deadline != o.deadline) return deadline < o.deadline ? -1 : 1;
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
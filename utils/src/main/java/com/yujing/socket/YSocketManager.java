@@ -0,0 +1,289 @@
+package com.yujing.socket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * YSocketManager，多个YSocket连接共用少量事件循环线程
+ * 1.按ip:port管理连接，每个连接都是NIO模式的YSocket，有自己的数据监听、连接监听、心跳和重连设置。
+ * 2.全部连接平均分配到固定数量的YSocketLoop上，连接再多，IO线程数量也不变。
+ * 3.可以获取汇总统计信息，每个连接的统计（YSocketMetrics）可以汇总成一个快照。
+ *
+ * @author 余静 2026年10月18日11:02:15
+ */
+/*
+使用方法：
+//2个IO线程
+YSocketManager manager = new YSocketManager(2);
+manager.setShowLog(true);
+//添加连接，返回的YSocket可以单独设置
+YSocket scale = manager.add("192.168.1.10", 8000);
+scale.setHearBytes(new byte[]{0x00});
+scale.setHeartTime(5000);
+scale.addDataListener(bytes -> YLog.i("秤：" + YConvert.bytesToHexString(bytes)));
+scale.addConnectListener(success -> YLog.i("秤连接" + (success ? "成功" : "失败")));
+//开始
+manager.start("192.168.1.10", 8000);
+
+//或者添加并直接开始
+manager.start("192.168.1.11", 502);
+
+//发送
+manager.send("192.168.1.11", 502, data, success -> YLog.i("发送" + success));
+
+//统计
+YSocketManager.Stats stats = manager.getStats();
+YLog.i("连接数：" + stats.connections + "，已连接：" + stats.connected);
+//全部连接收发汇总
+YLog.i(manager.getMetrics().toString());
+
+//删除一个连接
+manager.remove("192.168.1.11", 502);
+
+//全部关闭
+manager.exit();
+ */
+@SuppressWarnings("unused")
+public class YSocketManager {
+    protected final YSocketLoop[] loops;// IO线程
+    protected final ConcurrentHashMap<String, YSocket> sockets = new ConcurrentHashMap<>();// 全部连接，key为ip:port
+    protected final ConcurrentHashMap<String, YSocketLoop> socketLoops = new ConcurrentHashMap<>();// 连接所在事件循环
+    protected final AtomicLong connectCount = new AtomicLong();// 连接成功次数
+    protected final AtomicLong disconnectCount = new AtomicLong();// 连接失败、断开次数
+    protected boolean showLog = false;// 显示日志
+
+    /**
+     * 构造函数，IO线程数为2
+     */
+    public YSocketManager() {
+        this(2);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param ioThreads IO线程数量
+     */
+    public YSocketManager(int ioThreads) {
+        if (ioThreads < 1) throw new IllegalArgumentException("ioThreads必须大于0");
+        loops = new YSocketLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) loops[i] = new YSocketLoop("YSocketManager-IO线程" + i);
+    }
+
+    /**
+     * 设置是否显示日志，对之后添加的连接生效
+     */
+    public void setShowLog(boolean showLog) {
+        this.showLog = showLog;
+        for (YSocketLoop loop : loops) loop.setShowLog(showLog);
+    }
+
+    /**
+     * 生成key
+     */
+    public static String key(String ip, int port) {
+        return ip + ":" + port;
+    }
+
+    /**
+     * 添加一个连接，不开始，已经存在则返回已有连接
+     *
+     * @param ip   服务器IP地址
+     * @param port 服务器端口
+     * @return YSocket，可单独设置监听、心跳、重连时间
+     */
+    public YSocket add(String ip, int port) {
+        String key = key(ip, port);
+        YSocket ySocket = sockets.get(key);
+        if (ySocket != null) return ySocket;
+        synchronized (this) {
+            ySocket = sockets.get(key);
+            if (ySocket != null) return ySocket;
+            YSocketLoop loop = leastLoadedLoop();
+            ySocket = new YSocket(ip, port);
+            ySocket.setNio(true);
+            ySocket.setLoop(loop);
+            ySocket.setShowLog(showLog);
+            ySocket.addConnectListener(success -> {
+                if (success) connectCount.incrementAndGet();
+                else disconnectCount.incrementAndGet();
+            });
+            socketLoops.put(key, loop);
+            sockets.put(key, ySocket);
+        }
+        return ySocket;
+    }
+
+    /**
+     * 添加一个连接并开始，已经存在则返回已有连接
+     */
+    public YSocket start(String ip, int port) {
+        YSocket ySocket = add(ip, port);
+        if (!ySocket.isStarted()) ySocket.start();
+        return ySocket;
+    }
+
+    /**
+     * 开始全部还没有开始的连接
+     */
+    public void startAll() {
+        for (YSocket ySocket : sockets.values()) {
+            if (!ySocket.isStarted()) ySocket.start();
+        }
+    }
+
+    /**
+     * 获取连接
+     */
+    public YSocket get(String ip, int port) {
+        return sockets.get(key(ip, port));
+    }
+
+    /**
+     * 全部连接
+     */
+    public List<YSocket> getSockets() {
+        return new ArrayList<>(sockets.values());
+    }
+
+    /**
+     * 连接数量
+     */
+    public int size() {
+        return sockets.size();
+    }
+
+    /**
+     * 删除并关闭一个连接
+     */
+    public void remove(String ip, int port) {
+        String key = key(ip, port);
+        YSocket ySocket;
+        synchronized (this) {
+            ySocket = sockets.remove(key);
+            socketLoops.remove(key);
+        }
+        if (ySocket != null) close(ySocket);
+    }
+
+    /**
+     * 发送消息byte[]，异步
+     *
+     * @return 连接不存在返回false
+     */
+    public boolean send(String ip, int port, byte[] bytes, YSocket.StateListener stateListener) {
+        YSocket ySocket = get(ip, port);
+        if (ySocket == null) return false;
+        ySocket.send(bytes, stateListener);
+        return true;
+    }
+
+    /**
+     * 发送消息byte[]，同步
+     *
+     * @return 是否发送成功，连接不存在返回false
+     */
+    public boolean sendSync(String ip, int port, byte[] bytes) {
+        YSocket ySocket = get(ip, port);
+        return ySocket != null && ySocket.sendSync(bytes);
+    }
+
+    /**
+     * 发送给全部已连接的连接
+     *
+     * @return 发送成功数量
+     */
+    public int sendAll(byte[] bytes) {
+        int count = 0;
+        for (YSocket ySocket : sockets.values()) {
+            if (ySocket.isConnect() && ySocket.sendSync(bytes)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * 汇总统计
+     */
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.ioThreads = loops.length;
+        stats.channelsPerThread = new int[loops.length];
+        for (int i = 0; i < loops.length; i++) stats.channelsPerThread[i] = loops[i].getChannelCount();
+        for (YSocket ySocket : sockets.values()) {
+            stats.connections++;
+            if (ySocket.isConnect()) stats.connected++;
+        }
+        stats.connectCount = connectCount.get();
+        stats.disconnectCount = disconnectCount.get();
+        return stats;
+    }
+
+    /**
+     * 全部连接的统计汇总
+     */
+    public YSocketMetrics.Snapshot getMetrics() {
+        YSocketMetrics.Snapshot total = new YSocketMetrics.Snapshot();
+        for (YSocket ySocket : sockets.values()) total.add(ySocket.getMetrics().snapshot());
+        return total;
+    }
+
+    /**
+     * 关闭全部连接，关闭IO线程
+     */
+    public void exit() {
+        List<YSocket> list;
+        synchronized (this) {
+            list = new ArrayList<>(sockets.values());
+            sockets.clear();
+            socketLoops.clear();
+        }
+        for (YSocket ySocket : list) close(ySocket);
+        for (YSocketLoop loop : loops) loop.shutdown();
+    }
+
+    protected void close(YSocket ySocket) {
+        ySocket.closeConnect();
+        ySocket.clearConnectListener();
+        ySocket.clearDataListener();
+    }
+
+    /**
+     * 分配连接最少的事件循环
+     */
+    protected YSocketLoop leastLoadedLoop() {
+        int[] counts = new int[loops.length];
+        for (YSocketLoop loop : socketLoops.values()) {
+            for (int i = 0; i < loops.length; i++) {
+                if (loops[i] == loop) counts[i]++;
+            }
+        }
+        int index = 0;
+        for (int i = 1; i < loops.length; i++) {
+            if (counts[i] < counts[index]) index = i;
+        }
+        return loops[index];
+    }
+
+    /**
+     * 汇总统计
+     */
+    public static class Stats {
+        public int ioThreads;// IO线程数量
+        public int[] channelsPerThread;// 每个IO线程上注册的通道数量
+        public int connections;// 连接数量
+        public int connected;// 已连接数量
+        public long connectCount;// 累计连接成功次数
+        public long disconnectCount;// 累计连接失败、断开次数
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("IO线程：").append(ioThreads).append("，连接数：").append(connections).append("，已连接：").append(connected)
+                    .append("，累计连接成功：").append(connectCount).append("，累计失败断开：").append(disconnectCount).append("，每个IO线程通道数：");
+            for (int i = 0; i < channelsPerThread.length; i++) sb.append(i == 0 ? "" : ",").append(channelsPerThread[i]);
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.yujing.socket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接统计，一个连接一个
+ * 1.收发字节数、帧数，发送队列深度，解码错误，心跳往返时间，连接、重连、断开次数，连接时长。
+ * 2.收发路径上只有AtomicLong累加，不分配内存；发送队列、帧解码这些已有统计的在取快照时读取，不重复统计。
+ * 3.可以随时取快照（snapshot），也可以设置监听按间隔推送，推送时计算收发速度。
+ * 心跳往返时间：发送心跳到之后第一次收到数据的时间，服务器回应心跳时准确。
+ *
+ * @author 余静 2026年10月18日20:47:13
+ */
+/*
+使用方法：
+//快照
+YLog.i(ySocket.getMetrics().snapshot().toString());
+
+//每5秒推送一次，在YSocketDispatcher默认线程池中回调
+ySocket.getMetrics().setListener(snapshot -> YLog.i(snapshot.toString()), 5000);
+
+//多个连接汇总
+YLog.i(manager.getMetrics().toString());
+ */
+@SuppressWarnings("unused")
+public class YSocketMetrics {
+    protected final AtomicLong bytesIn = new AtomicLong();// 收到字节数
+    protected final AtomicLong framesIn = new AtomicLong();// 收到帧数，没有分帧时为读取次数
+    protected final AtomicLong bytesOut = new AtomicLong();// 发送字节数
+    protected final AtomicLong framesOut = new AtomicLong();// 发送条数
+    protected final AtomicLong decodeErrors = new AtomicLong();// 解码错误
+    protected final AtomicLong heartbeats = new AtomicLong();// 心跳次数
+    protected volatile long heartbeatTime;// 等待回应的心跳发送时间，nanoTime，0表示没有
+    // 心跳往返时间，微秒，心跳间隔才更新一次，加锁
+    protected long rttCount;
+    protected long rttTotal;
+    protected long rttMin;
+    protected long rttMax;
+    protected long rttLast;
+    // 连接状态，连接、断开时才更新，加锁
+    protected long connectedSince;// 本次连接成功时间，0表示未连接
+    protected long connectedTotal;// 之前各次连接的总时长
+    protected long connectCount;// 连接成功次数
+    protected long disconnectCount;// 连接后断开次数
+    protected long failCount;// 连接失败次数
+    protected Probe probe;// 取快照时补充已有统计，如发送队列
+    // 定时推送
+    protected Listener listener;
+    protected long interval;
+    protected YTimerWheel.Timeout timeout;
+    protected Snapshot last;// 上次推送的快照，用于计算速度
+
+    /**
+     * 收到数据，读取线程或事件循环中调用
+     */
+    public void onRead(int length) {
+        framesIn.incrementAndGet();
+        bytesIn.addAndGet(length);
+        long sent = heartbeatTime;
+        if (sent != 0) onHeartbeatReply(sent);
+    }
+
+    /**
+     * 发送数据，有发送队列统计的连接不用调用
+     */
+    public void onWrite(int length) {
+        framesOut.incrementAndGet();
+        bytesOut.addAndGet(length);
+    }
+
+    /**
+     * 解码错误
+     */
+    public void onDecodeError() {
+        decodeErrors.incrementAndGet();
+    }
+
+    /**
+     * 发送心跳，之后第一次收到数据时计算往返时间
+     */
+    public void onHeartbeat() {
+        heartbeats.incrementAndGet();
+        heartbeatTime = System.nanoTime();
+    }
+
+    protected synchronized void onHeartbeatReply(long sent) {
+        if (heartbeatTime != sent) return;
+        heartbeatTime = 0;
+        long rtt = (System.nanoTime() - sent) / 1000;
+        rttLast = rtt;
+        rttTotal += rtt;
+        if (rttCount == 0 || rtt < rttMin) rttMin = rtt;
+        if (rtt > rttMax) rttMax = rtt;
+        rttCount++;
+    }
+
+    /**
+     * 连接成功
+     */
+    public synchronized void onConnected() {
+        if (connectedSince != 0) return;
+        connectedSince = System.currentTimeMillis();
+        connectCount++;
+        heartbeatTime = 0;
+    }
+
+    /**
+     * 连接失败或者断开
+     */
+    public synchronized void onDisconnected() {
+        if (connectedSince == 0) {
+            failCount++;
+            return;
+        }
+        connectedTotal += System.currentTimeMillis() - connectedSince;
+        connectedSince = 0;
+        disconnectCount++;
+        heartbeatTime = 0;
+    }
+
+    /**
+     * 取快照时补充已有统计，如发送队列深度、帧解码错误
+     */
+    public void setProbe(Probe probe) {
+        this.probe = probe;
+    }
+
+    /**
+     * 当前统计快照
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot.time = System.currentTimeMillis();
+        snapshot.bytesIn = bytesIn.get();
+        snapshot.framesIn = framesIn.get();
+        snapshot.bytesOut = bytesOut.get();
+        snapshot.framesOut = framesOut.get();
+        snapshot.decodeErrors = decodeErrors.get();
+        snapshot.heartbeats = heartbeats.get();
+        synchronized (this) {
+            snapshot.connected = connectedSince != 0;
+            snapshot.connectedTime = connectedSince == 0 ? 0 : snapshot.time - connectedSince;
+            snapshot.totalConnectedTime = connectedTotal + snapshot.connectedTime;
+            snapshot.connectCount = connectCount;
+            snapshot.reconnectCount = Math.max(0, connectCount - 1);
+            snapshot.disconnectCount = disconnectCount;
+            snapshot.failCount = failCount;
+            snapshot.rttCount = rttCount;
+            snapshot.rttLast = rttLast;
+            snapshot.rttMin = rttMin;
+            snapshot.rttMax = rttMax;
+            snapshot.rttAvg = rttCount == 0 ? 0 : rttTotal / rttCount;
+        }
+        Probe p = probe;
+        if (p != null) p.fill(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 设置推送监听，在YSocketDispatcher默认线程池中回调
+     *
+     * @param listener 监听，为null停止推送
+     * @param interval 推送间隔，毫秒
+     */
+    public synchronized void setListener(Listener listener, long interval) {
+        if (timeout != null) timeout.cancel();
+        timeout = null;
+        this.listener = listener;
+        this.interval = Math.max(100, interval);
+        last = null;
+        if (listener != null) schedule();
+    }
+
+    protected synchronized void schedule() {
+        timeout = YTimerWheel.getDefault().newTimeout(() -> YSocketDispatcher.getDefaultExecutor().execute(this::push), interval);
+    }
+
+    protected void push() {
+        Listener l;
+        Snapshot previous;
+        synchronized (this) {
+            l = listener;
+            if (l == null) return;
+            previous = last;
+        }
+        Snapshot snapshot = snapshot();
+        snapshot.rate(previous);
+        synchronized (this) {
+            if (listener != l) return;
+            last = snapshot;
+            schedule();
+        }
+        try {
+            l.onMetrics(snapshot);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 日志用的数据预览，最多显示前64字节的16进制，不像Arrays.toString把全部数据拼成字符串
+     */
+    public static String toLogString(byte[] bytes) {
+        if (bytes == null) return "null";
+        final char[] hex = "0123456789ABCDEF".toCharArray();
+        int count = Math.min(bytes.length, 64);
+        StringBuilder builder = new StringBuilder(count * 3 + 20);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) builder.append(' ');
+            builder.append(hex[(bytes[i] >> 4) & 0x0F]).append(hex[bytes[i] & 0x0F]);
+        }
+        if (bytes.length > count) builder.append(" ...");
+        return builder.append(" (").append(bytes.length).append("字节)").toString();
+    }
+
+    /**
+     * 取快照时补充已有统计
+     */
+    public interface Probe {
+        void fill(Snapshot snapshot);
+    }
+
+    /**
+     * 推送监听
+     */
+    public interface Listener {
+        void onMetrics(Snapshot snapshot);
+    }
+
+    /**
+     * 统计快照
+     */
+    public static class Snapshot {
+        public long time;// 快照时间
+        public boolean connected;// 是否已连接
+        public long connectedTime;// 本次连接时长，毫秒
+        public long totalConnectedTime;// 总连接时长，毫秒
+        public long connectCount;// 连接成功次数
+        public long reconnectCount;// 重连成功次数
+        public long disconnectCount;// 断开次数
+        public long failCount;// 连接失败次数
+        public long bytesIn;// 收到字节数
+        public long framesIn;// 收到帧数
+        public long bytesOut;// 发送字节数
+        public long framesOut;// 发送条数
+        public int queueDepth;// 发送队列排队数量
+        public long queuedBytes;// 发送队列排队字节数
+        public long decodeErrors;// 解码错误
+        public long heartbeats;// 心跳次数
+        public long rttCount;// 心跳往返次数
+        public long rttLast;// 最近一次心跳往返时间，微秒
+        public long rttMin;// 最短心跳往返时间，微秒
+        public long rttMax;// 最长心跳往返时间，微秒
+        public long rttAvg;// 平均心跳往返时间，微秒
+        public double bytesInPerSecond;// 收到速度，推送时计算
+        public double bytesOutPerSecond;// 发送速度，推送时计算
+
+        /**
+         * 根据上一次快照计算收发速度
+         */
+        public void rate(Snapshot previous) {
+            if (previous == null || time <= previous.time) return;
+            double seconds = (time - previous.time) / 1000.0;
+            bytesInPerSecond = (bytesIn - previous.bytesIn) / seconds;
+            bytesOutPerSecond = (bytesOut - previous.bytesOut) / seconds;
+        }
+
+        /**
+         * 累加另一个连接的快照，用于汇总，往返时间取全部连接的最小、最大，平均按次数加权
+         */
+        public void add(Snapshot other) {
+            if (other.connected) connected = true;
+            connectedTime += other.connectedTime;
+            totalConnectedTime += other.totalConnectedTime;
+            connectCount += other.connectCount;
+            reconnectCount += other.reconnectCount;
+            disconnectCount += other.disconnectCount;
+            failCount += other.failCount;
+            bytesIn += other.bytesIn;
+            framesIn += other.framesIn;
+            bytesOut += other.bytesOut;
+            framesOut += other.framesOut;
+            queueDepth += other.queueDepth;
+            queuedBytes += other.queuedBytes;
+            decodeErrors += other.decodeErrors;
+            heartbeats += other.heartbeats;
+            if (other.rttCount > 0) {
+                rttMin = rttCount == 0 ? other.rttMin : Math.min(rttMin, other.rttMin);
+                rttMax = Math.max(rttMax, other.rttMax);
+                rttAvg = (rttAvg * rttCount + other.rttAvg * other.rttCount) / (rttCount + other.rttCount);
+                rttLast = other.rttLast;
+                rttCount += other.rttCount;
+            }
+            bytesInPerSecond += other.bytesInPerSecond;
+            bytesOutPerSecond += other.bytesOutPerSecond;
+            time = Math.max(time, other.time);
+        }
+
+        @Override
+        public String toString() {
+            return (connected ? "已连接" : "未连接") + "，连接时长：" + connectedTime + "ms，总时长：" + totalConnectedTime + "ms"
+                    + "，连接：" + connectCount + "，重连：" + reconnectCount + "，断开：" + disconnectCount + "，失败：" + failCount
+                    + "，收：" + framesIn + "帧/" + bytesIn + "字节，发：" + framesOut + "条/" + bytesOut + "字节"
+                    + "，排队：" + queueDepth + "条/" + queuedBytes + "字节，解码错误：" + decodeErrors
+                    + "，心跳：" + heartbeats + "，往返：" + rttLast / 1000.0 + "ms（最短" + rttMin / 1000.0 + "，平均" + rttAvg / 1000.0 + "，最长" + rttMax / 1000.0 + "）"
+                    + (bytesInPerSecond > 0 || bytesOutPerSecond > 0 ? "，收速：" + String.format("%.0f", bytesInPerSecond) + "字节/秒，发速：" + String.format("%.0f", bytesOutPerSecond) + "字节/秒" : "");
+        }
+    }
+}
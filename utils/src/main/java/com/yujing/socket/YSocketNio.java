@@ -0,0 +1,242 @@
+package com.yujing.socket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * YSocket的NIO传输层，SocketChannel + Selector
+ * 1.连接、重连都是YSocketLoop上的定时任务，心跳、读空闲检测在共享时间轮上，不单独开线程。
+ * 2.读取由通道就绪驱动，没有数据时不占用CPU。
+ * 3.多个YSocket可以共用一个YSocketLoop。
+ * 4.发送数据进入YSocket的发送队列，事件循环一次取出多条用GatheringByteChannel合并写入，心跳也走发送队列。
+ * 所有状态只在事件循环线程中修改。
+ *
+ * @author 余静 2026年10月18日10:21:36
+ */
+class YSocketNio implements YSocketLoop.Handler {
+    protected final YSocket ySocket;
+    protected final YSocketLoop loop;
+    protected final YSocket.StateListener connectListener;// 连接状态监听，只在状态变化或连接失败时回调
+    protected final ByteBuffer readBuffer = ByteBuffer.allocate(1024 * 8);// 读取缓存，重复使用
+    protected final YSendQueue sendQueue;// 发送队列
+    protected final ByteBuffer[] gather = new ByteBuffer[64];// 合并写入数组，重复使用
+    protected final AtomicBoolean flushPending = new AtomicBoolean();// 是否已经安排写入
+    protected final Runnable flushTask = () -> {
+        flushPending.set(false);
+        flush();
+    };
+    protected SocketChannel channel;
+    protected SelectionKey key;
+    protected YSocketLoop.Timer connectTimer;// 连接超时、重连定时
+    protected long attemptStart;// 本次连接开始时间
+    protected volatile boolean connected;// 是否已经连接成功
+    protected volatile boolean closed;// 已经关闭，不再重连
+    protected volatile boolean readPaused;// 接收方处理不过来，暂停读取
+
+    YSocketNio(YSocket ySocket, YSocketLoop loop, YSocket.StateListener connectListener) {
+        this.ySocket = ySocket;
+        this.loop = loop;
+        this.connectListener = connectListener;
+        this.sendQueue = ySocket.sendQueue;
+        sendQueue.setNotifier(() -> {
+            if (flushPending.compareAndSet(false, true)) loop.execute(flushTask);
+        });
+    }
+
+    /**
+     * 开始连接
+     */
+    void start() {
+        loop.execute(this::connect);
+    }
+
+    /**
+     * 关闭，不再重连
+     */
+    void close() {
+        closed = true;
+        loop.execute(() -> {
+            cancelTimers();
+            closeChannel();
+        });
+    }
+
+    /**
+     * 获取当前通道
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 连接异常，如读空闲超时，断开重连，任意线程调用
+     */
+    void fail(String message) {
+        loop.execute(() -> {
+            if (connected) onFail(message);
+        });
+    }
+
+    /**
+     * 是否已经连接
+     */
+    boolean isConnected() {
+        return connected && !closed;
+    }
+
+    protected void connect() {
+        if (closed) return;
+        closeChannel();
+        attemptStart = ySocket.reconnectPolicy.onAttemptStart();
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setKeepAlive(true);
+            channel.socket().setTcpNoDelay(true);
+            if (channel.connect(new InetSocketAddress(ySocket.ip, ySocket.port))) {
+                key = loop.register(channel, readOps(), this);
+                onConnected();
+            } else {
+                key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+                connectTimer = loop.schedule(() -> onFail("连接超时"), ySocket.connectTimeOut);
+            }
+        } catch (Exception e) {
+            onFail(e.getMessage());
+        }
+    }
+
+    @Override
+    public void onReady(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                if (channel.finishConnect()) {
+                    if (connectTimer != null) connectTimer.cancel();
+                    key.interestOps(readOps());
+                    onConnected();
+                }
+                return;
+            }
+            if (key.isReadable()) read();
+            if (key.isValid() && key.isWritable()) flush();
+        } catch (Exception e) {
+            onFail(e.getMessage());
+        }
+    }
+
+    protected void onConnected() {
+        ySocket.reconnectPolicy.onSuccess(attemptStart);
+        if (ySocket.framePipeline != null) ySocket.framePipeline.reset();
+        connected = true;
+        ySocket.connect = true;
+        ySocket.printLog("连接成功... (" + ySocket.ip + ":" + ySocket.port + ")");
+        if (ySocket.idleMonitor != null) ySocket.idleMonitor.reset();
+        connectListener.isSuccess(true);
+    }
+
+    /**
+     * 连接失败或者断开，关闭通道，按重连策略等待后重连
+     */
+    protected void onFail(String message) {
+        boolean wasConnected = connected;
+        cancelTimers();
+        closeChannel();
+        ySocket.connect = false;
+        if (closed) return;
+        YReconnectPolicy policy = ySocket.reconnectPolicy;
+        if (wasConnected) policy.onDisconnected();
+        else policy.onFailure(attemptStart);
+        long delay = policy.nextDelay();
+        ySocket.printLog((wasConnected ? "连接断开... (" : "连接失败... (") + ySocket.ip + ":" + ySocket.port + ")" + message + "，" + delay + "ms后重连");
+        connectListener.isSuccess(false);
+        connectTimer = loop.schedule(this::connect, delay);
+    }
+
+    protected int readOps() {
+        return readPaused ? 0 : SelectionKey.OP_READ;
+    }
+
+    /**
+     * 暂停、恢复读取，暂停后数据留在内核缓冲区，TCP流量控制让对方发送变慢
+     */
+    void setReadPaused(boolean paused) {
+        // 多次调用以最后一次为准
+        readPaused = paused;
+        loop.execute(() -> {
+            SelectionKey k = key;
+            if (k == null || !k.isValid() || !connected) return;
+            k.interestOps(readPaused ? k.interestOps() & ~SelectionKey.OP_READ : k.interestOps() | SelectionKey.OP_READ);
+        });
+    }
+
+    protected void read() throws IOException {
+        if (ySocket.framePipeline != null) {
+            int count = ySocket.framePipeline.readFrom(channel, ySocket::onFrame);
+            if (count < 0) onFail("服务器关闭连接");
+            else if (count > 0) ySocket.markRead();
+            return;
+        }
+        readBuffer.clear();
+        int count = channel.read(readBuffer);
+        if (count < 0) {
+            onFail("服务器关闭连接");
+            return;
+        }
+        if (count == 0) return;
+        readBuffer.flip();
+        byte[] bytes = new byte[readBuffer.remaining()];
+        readBuffer.get(bytes);
+        ySocket.onReceive(bytes);
+    }
+
+    /**
+     * 合并写入发送队列中的数据，写不完则等待可写
+     */
+    protected void flush() {
+        if (!connected) {
+            sendQueue.failAll(new IOException("未连接"));
+            return;
+        }
+        int n = 0;
+        try {
+            while ((n = sendQueue.gather(gather)) > 0) {
+                if (channel.write(gather, 0, n) > 0) ySocket.markWrite();
+                if (sendQueue.removeWritten() < n) {
+                    // 内核发送缓冲区满了，等待可写
+                    key.interestOps(readOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                Arrays.fill(gather, 0, n, null);
+            }
+            if (key != null && key.isValid()) key.interestOps(readOps());
+        } catch (Exception e) {
+            onFail(e.getMessage());
+        } finally {
+            Arrays.fill(gather, 0, n, null);
+        }
+    }
+
+    protected void cancelTimers() {
+        if (connectTimer != null) connectTimer.cancel();
+        connectTimer = null;
+    }
+
+    protected void closeChannel() {
+        connected = false;
+        sendQueue.failAll(new IOException("连接关闭"));
+        if (key != null) key.cancel();
+        key = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ySocket.printLog("closeChannel:" + e.getMessage());
+            }
+        }
+        channel = null;
+    }
+}
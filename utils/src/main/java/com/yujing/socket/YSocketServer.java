@@ -0,0 +1,620 @@
+package com.yujing.socket;
+
+import com.yujing.utils.YLog;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NIO服务端，ServerSocketChannel + YSocketLoop，一个线程处理全部连接
+ * 1.接受、读取、写入都在YSocketLoop的一个线程中完成，数百个连接不需要数百个线程，可以和YSocket共用一个YSocketLoop。
+ * 2.每个连接一个会话（Session）：帧解码管道（YFramePipeline，和YSocket用同一套YFrameDecoder）、发送队列（YSendQueue，合并写入、高水位、优先级）、
+ * 空闲检测（YIdleMonitor，写空闲发送心跳，读空闲断开）、统计（YSocketMetrics）。
+ * 3.收到数据和会话状态由YSocketDispatcher串行回调（安卓在主线程），frameListener在事件循环线程中零复制回调。
+ * 4.broadcast发送给全部会话，数据不复制。
+ * 收到数据回调不要做耗时操作，阻塞策略的分发器满了不阻塞事件循环，暂停全部会话的读取（分发器是共用的），队列降到一半时恢复；也可以设置丢弃策略的分发器。
+ *
+ * @author 余静 2026年10月18日23:41:52
+ */
+/*
+使用方法：
+YSocketServer server = new YSocketServer(8892);
+//按长度分帧，不设置时每次读到的数据回调一次
+server.setFrameDecoder(YFrameDecoder.lengthField(0, 4, true, 4));
+//30秒没收到数据断开，10秒没有读写发送心跳
+server.setReadIdleTime(30000);
+server.setHeartTime(10000);
+server.setHearBytes(new byte[]{0, 0, 0, 0});
+server.setSessionListener((session, connected) -> YLog.i(session + (connected ? "连接" : "断开")));
+server.setDataListener((session, bytes) -> session.send(handle(bytes)));
+server.start().addListener(f -> YLog.i("监听" + (f.isSuccess() ? "成功，端口：" + server.getPort() : "失败")));
+
+//发送给全部
+server.broadcast(bytes);
+
+//统计
+YLog.i(server.getMetrics().toString());
+
+//退出
+server.stop();
+ */
+@SuppressWarnings("unused")
+public class YSocketServer {
+    protected final int port;// 监听端口，0随机
+    protected String host;// 监听地址，为空时监听全部
+    protected YSocketLoop loop;// 事件循环，为空时使用YSocketLoop.getDefault()
+    protected ServerSocketChannel serverChannel;
+    protected SelectionKey serverKey;
+    protected final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();// 全部会话
+    protected final AtomicLong sessionId = new AtomicLong();// 会话编号
+    protected final ByteBuffer readBuffer = ByteBuffer.allocateDirect(1024 * 64);// 没有分帧时的读取缓存，只在事件循环线程中使用
+    protected final ByteBuffer[] gather = new ByteBuffer[64];// 合并写入数组，只在事件循环线程中使用
+    protected YFrameDecoder frameDecoder;// 帧解码器，为空不分帧
+    protected int maxFrameLength = YFramePipeline.DEFAULT_MAX_FRAME_LENGTH;// 最大帧长度
+    protected int maxSessions = 1024;// 最大连接数，超过直接关闭新连接
+    protected int backlog = 128;// 等待接受的连接数
+    protected int heartTime = 0;// 心跳间隔，超过这个时间没有读写发送心跳，0不发送
+    protected int readIdleTime = 0;// 读空闲时间，超过这个时间没收到数据断开，0不检测
+    protected byte[] hearBytes;// 心跳内容
+    protected int highWaterMark = 1024 * 256;// 每个会话发送队列高水位
+    protected YSocketDispatcher dispatcher = new YSocketDispatcher();// 串行回调分发器
+    protected SessionListener sessionListener;// 会话连接、断开
+    protected DataListener dataListener;// 收到数据，分发器中回调
+    protected FrameListener frameListener;// 收到数据，事件循环线程中零复制回调
+    protected final YSocketMetrics.Snapshot closedMetrics = new YSocketMetrics.Snapshot();// 已断开会话的统计
+    protected volatile boolean running;
+    protected volatile boolean readPaused;// 分发器满了，全部会话暂停读取
+    protected boolean showLog = false;
+
+    /**
+     * @param port 监听端口，0随机
+     */
+    public YSocketServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * 开始监听
+     *
+     * @return 监听结果，成功后getPort可以获取实际端口
+     */
+    public YFuture<Boolean> start() {
+        YFuture<Boolean> future = new YFuture<>();
+        if (running) return YFuture.succeeded(true);
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port), backlog);
+        } catch (IOException e) {
+            closeServerChannel();
+            return YFuture.failed(e);
+        }
+        running = true;
+        dispatcher.setPauseListener(this::setReadPaused);
+        getLoop().execute(() -> {
+            try {
+                serverKey = getLoop().register(serverChannel, SelectionKey.OP_ACCEPT, key -> accept());
+                printLog("开始监听，端口：" + getPort());
+                future.complete(true);
+            } catch (IOException e) {
+                running = false;
+                closeServerChannel();
+                future.fail(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 停止监听，关闭全部会话
+     */
+    public void stop() {
+        running = false;
+        getLoop().execute(() -> {
+            if (serverKey != null) serverKey.cancel();
+            serverKey = null;
+            closeServerChannel();
+            for (Session session : new ArrayList<>(sessions.values())) session.close("服务端停止");
+            printLog("停止监听");
+        });
+    }
+
+    /**
+     * 暂停或恢复全部会话的读取，数据留在内核缓冲区，TCP流量控制让客户端发送变慢
+     */
+    protected void setReadPaused(boolean paused) {
+        readPaused = paused;
+        getLoop().execute(() -> {
+            for (Session session : sessions.values()) {
+                SelectionKey k = session.key;
+                if (k == null || !k.isValid()) continue;
+                k.interestOps(readPaused ? k.interestOps() & ~SelectionKey.OP_READ : k.interestOps() | SelectionKey.OP_READ);
+            }
+        });
+    }
+
+    protected int readOps() {
+        return readPaused ? 0 : SelectionKey.OP_READ;
+    }
+
+    protected void closeServerChannel() {
+        if (serverChannel == null) return;
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    protected void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                printLog("接受连接失败：" + e.getMessage());
+                return;
+            }
+            if (channel == null) return;
+            // 一个连接失败（如对方已经重置）只关闭这个连接，继续接受其他连接
+            Session session = null;
+            try {
+                if (sessions.size() >= maxSessions) {
+                    printLog("连接数超过" + maxSessions + "，拒绝：" + channel.socket().getRemoteSocketAddress());
+                    channel.close();
+                    continue;
+                }
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                session = new Session(channel);
+                session.open();
+            } catch (Exception e) {
+                printLog("打开连接失败：" + e.getMessage());
+                if (session != null && session.open) {
+                    session.close(e.getMessage());
+                } else {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 发送给全部会话，数据不复制，写入完成前不要修改
+     *
+     * @return 发送的会话数
+     */
+    public int broadcast(byte[] bytes) {
+        return broadcast(bytes, null);
+    }
+
+    /**
+     * 发送给符合条件的会话
+     *
+     * @param filter 条件，为null发送给全部
+     * @return 发送的会话数
+     */
+    public int broadcast(byte[] bytes, Filter filter) {
+        if (bytes == null || bytes.length == 0) return 0;
+        int count = 0;
+        for (Session session : sessions.values()) {
+            if (filter != null && !filter.accept(session)) continue;
+            session.send(bytes);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 全部会话统计汇总，包括已经断开的会话
+     */
+    public YSocketMetrics.Snapshot getMetrics() {
+        YSocketMetrics.Snapshot total = new YSocketMetrics.Snapshot();
+        synchronized (closedMetrics) {
+            total.add(closedMetrics);
+        }
+        for (Session session : sessions.values()) total.add(session.metrics.snapshot());
+        return total;
+    }
+
+    /**
+     * 当前全部会话
+     */
+    public List<Session> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    public Session getSession(long id) {
+        return sessions.get(id);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * 实际监听端口
+     */
+    public int getPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel == null ? port : channel.socket().getLocalPort();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public YSocketLoop getLoop() {
+        YSocketLoop l = loop;
+        return l != null ? l : YSocketLoop.getDefault();
+    }
+
+    /**
+     * 设置事件循环，start之前调用，不设置使用YSocketLoop.getDefault()
+     */
+    public void setLoop(YSocketLoop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * 设置监听地址，start之前调用，不设置监听全部
+     */
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    /**
+     * 设置帧解码器，start之前调用，和YSocket.setFrameDecoder用同一套解码器
+     */
+    public void setFrameDecoder(YFrameDecoder frameDecoder) {
+        this.frameDecoder = frameDecoder;
+    }
+
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public void setMaxSessions(int maxSessions) {
+        this.maxSessions = Math.max(1, maxSessions);
+    }
+
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * 心跳间隔，超过这个时间没有读写发送心跳，0不发送，对新会话生效
+     */
+    public void setHeartTime(int heartTime) {
+        this.heartTime = heartTime;
+    }
+
+    /**
+     * 读空闲时间，超过这个时间没收到数据断开，0不检测，对新会话生效
+     */
+    public void setReadIdleTime(int readIdleTime) {
+        this.readIdleTime = readIdleTime;
+    }
+
+    public void setHearBytes(byte[] hearBytes) {
+        this.hearBytes = hearBytes;
+    }
+
+    /**
+     * 每个会话发送队列高水位，对新会话生效
+     */
+    public void setHighWaterMark(int highWaterMark) {
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * 设置回调分发器，可以设置线程池、溢出策略
+     */
+    public void setDispatcher(YSocketDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public void setSessionListener(SessionListener sessionListener) {
+        this.sessionListener = sessionListener;
+    }
+
+    public void setDataListener(DataListener dataListener) {
+        this.dataListener = dataListener;
+    }
+
+    /**
+     * 零复制回调，在事件循环线程中回调，frame只在回调期间有效，不要做耗时操作
+     */
+    public void setFrameListener(FrameListener frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    public void setShowLog(boolean showLog) {
+        this.showLog = showLog;
+    }
+
+    protected void printLog(String str) {
+        if (showLog) YLog.i("YSocketServer", str);
+    }
+
+    /**
+     * 一个连接
+     */
+    public class Session implements YSocketLoop.Handler {
+        protected final long id;// 会话编号
+        protected final SocketChannel channel;
+        protected final SocketAddress remoteAddress;// 对方地址
+        protected final YFramePipeline pipeline;// 帧解码管道，为空不分帧
+        protected final YSendQueue sendQueue = new YSendQueue();// 发送队列
+        protected final YSocketMetrics metrics = new YSocketMetrics();// 统计
+        protected final AtomicBoolean flushPending = new AtomicBoolean();// 是否已经安排写入
+        protected final Runnable flushTask = () -> {
+            flushPending.set(false);
+            flush();
+        };
+        protected YIdleMonitor idleMonitor;// 空闲检测
+        protected SelectionKey key;
+        protected volatile boolean open;
+        protected volatile Object attachment;// 使用方附加的数据，如设备编号
+
+        protected Session(SocketChannel channel) {
+            this.id = sessionId.incrementAndGet();
+            this.channel = channel;
+            this.remoteAddress = channel.socket().getRemoteSocketAddress();
+            this.pipeline = frameDecoder == null ? null : new YFramePipeline(frameDecoder, 1024 * 4, maxFrameLength);
+            sendQueue.setHighWaterMark(highWaterMark);
+            sendQueue.setNotifier(() -> {
+                if (flushPending.compareAndSet(false, true)) getLoop().execute(flushTask);
+            });
+            metrics.setProbe(snapshot -> {
+                YSendQueue.Stats stats = sendQueue.getStats();
+                snapshot.framesOut = stats.sentCount;
+                snapshot.bytesOut = stats.sentBytes;
+                snapshot.queueDepth = stats.queued;
+                snapshot.queuedBytes = stats.queuedBytes;
+                if (pipeline != null) snapshot.decodeErrors += pipeline.getDecodeErrors();
+            });
+        }
+
+        protected void open() throws IOException {
+            key = getLoop().register(channel, readOps(), this);
+            open = true;
+            sessions.put(id, this);
+            metrics.onConnected();
+            if (heartTime > 0 || readIdleTime > 0) {
+                idleMonitor = new YIdleMonitor(YTimerWheel.getDefault(), heartTime, readIdleTime, new YIdleMonitor.Listener() {
+                    @Override
+                    public void onWriteIdle() {
+                        byte[] bytes = hearBytes;
+                        if (bytes == null || bytes.length == 0 || !open) return;
+                        sendQueue.offer(ByteBuffer.wrap(bytes), 0, YSendQueue.Priority.CONTROL);
+                        metrics.onHeartbeat();
+                    }
+
+                    @Override
+                    public void onReadIdle() {
+                        getLoop().execute(() -> close("读空闲超时"));
+                    }
+                });
+                idleMonitor.start();
+            }
+            printLog("连接：" + this + "，当前连接数：" + sessions.size());
+            notifySession(true);
+        }
+
+        @Override
+        public void onReady(SelectionKey key) {
+            try {
+                if (key.isReadable()) read();
+                if (open && key.isValid() && key.isWritable()) flush();
+            } catch (Exception e) {
+                close(e.getMessage());
+            }
+        }
+
+        protected void read() throws IOException {
+            if (pipeline != null) {
+                int count = pipeline.readFrom(channel, this::onFrame);
+                if (count < 0) close("对方关闭连接");
+                else if (count > 0 && idleMonitor != null) idleMonitor.onRead();
+                return;
+            }
+            readBuffer.clear();
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                close("对方关闭连接");
+                return;
+            }
+            if (count == 0) return;
+            if (idleMonitor != null) idleMonitor.onRead();
+            readBuffer.flip();
+            onFrame(readBuffer);
+        }
+
+        protected void onFrame(ByteBuffer frame) {
+            metrics.onRead(frame.remaining());
+            FrameListener fl = frameListener;
+            if (fl != null) {
+                try {
+                    fl.frame(this, frame.duplicate());
+                } catch (Exception e) {
+                    printLog("错误：" + e.getMessage());
+                }
+            }
+            DataListener dl = dataListener;
+            if (dl == null) return;
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            dispatcher.post(() -> {
+                try {
+                    dl.data(this, bytes);
+                } catch (Exception e) {
+                    if (showLog) YLog.e("YSocketServer", "收到数据回调异常：" + e.getMessage(), e);
+                }
+            }, true);
+        }
+
+        /**
+         * 发送，异步，进入发送队列按顺序合并写入，超过高水位直接失败
+         *
+         * @param bytes 数据，写入完成前不要修改
+         * @return 写入结果
+         */
+        public YFuture<Boolean> send(byte[] bytes) {
+            return send(bytes, YSendQueue.Priority.NORMAL);
+        }
+
+        public YFuture<Boolean> send(byte[] bytes, YSendQueue.Priority priority) {
+            if (bytes == null || bytes.length == 0) return YFuture.failed(new IOException("发送内容为空"));
+            if (!open) return YFuture.failed(new IOException("连接已断开"));
+            return sendQueue.offer(ByteBuffer.wrap(bytes), 0, priority);
+        }
+
+        /**
+         * 合并写入发送队列中的数据，写不完则等待可写，只在事件循环线程中调用
+         */
+        protected void flush() {
+            if (!open) {
+                sendQueue.failAll(new IOException("连接已断开"));
+                return;
+            }
+            int n = 0;
+            try {
+                while ((n = sendQueue.gather(gather)) > 0) {
+                    if (channel.write(gather, 0, n) > 0 && idleMonitor != null) idleMonitor.onWrite();
+                    if (sendQueue.removeWritten() < n) {
+                        // 内核发送缓冲区满了，等待可写
+                        key.interestOps(readOps() | SelectionKey.OP_WRITE);
+                        Arrays.fill(gather, 0, n, null);
+                        return;
+                    }
+                    Arrays.fill(gather, 0, n, null);
+                }
+                if (key.isValid()) key.interestOps(readOps());
+            } catch (Exception e) {
+                Arrays.fill(gather, 0, n, null);
+                close(e.getMessage());
+            }
+        }
+
+        /**
+         * 关闭连接，任意线程调用
+         */
+        public void close() {
+            getLoop().execute(() -> close("服务端关闭"));
+        }
+
+        protected void close(String reason) {
+            if (!open) return;
+            open = false;
+            if (idleMonitor != null) idleMonitor.stop();
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            sendQueue.failAll(new IOException("连接已断开"));
+            sessions.remove(id);
+            metrics.onDisconnected();
+            YSocketMetrics.Snapshot snapshot = metrics.snapshot();
+            snapshot.connected = false;
+            synchronized (closedMetrics) {
+                closedMetrics.add(snapshot);
+            }
+            printLog("断开：" + this + "，" + reason + "，当前连接数：" + sessions.size());
+            notifySession(false);
+        }
+
+        protected void notifySession(boolean connected) {
+            SessionListener listener = sessionListener;
+            if (listener == null) return;
+            dispatcher.post(() -> {
+                try {
+                    listener.onSession(this, connected);
+                } catch (Exception e) {
+                    printLog("错误：" + e.getMessage());
+                }
+            }, false);
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public SocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        public SocketChannel getChannel() {
+            return channel;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        public YSendQueue getSendQueue() {
+            return sendQueue;
+        }
+
+        public YSocketMetrics getMetrics() {
+            return metrics;
+        }
+
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        public void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+
+        @Override
+        public String toString() {
+            return "会话" + id + "(" + remoteAddress + ")";
+        }
+    }
+
+    /**
+     * 会话连接、断开
+     */
+    public interface SessionListener {
+        void onSession(Session session, boolean connected);
+    }
+
+    /**
+     * 收到数据，分发器中回调
+     */
+    public interface DataListener {
+        void data(Session session, byte[] bytes);
+    }
+
+    /**
+     * 收到数据，事件循环线程中回调，frame只在回调期间有效
+     */
+    public interface FrameListener {
+        void frame(Session session, ByteBuffer frame);
+    }
+
+    /**
+     * 广播条件
+     */
+    public interface Filter {
+        boolean accept(Session session);
+    }
+}
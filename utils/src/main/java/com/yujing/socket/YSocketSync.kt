@@ -2,24 +2,35 @@ package com.yujing.socket
 
 import com.yujing.utils.YClass
 import com.yujing.utils.YLog
+import com.yujing.utils.YReadInputStream
 import com.yujing.utils.YThread
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
 import java.io.IOException
 import java.io.InputStream
 import java.net.InetSocketAddress
 import java.net.Socket
 import java.net.SocketAddress
+import java.net.SocketTimeoutException
 import java.util.*
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeoutException
+import javax.net.ssl.SSLSocket
+import kotlin.coroutines.resume
 
 /**
  * YSocketSync，套接字连接,同步请求
  * 1.启动时候，如果服务器没有启动或者检测不到服务器已经启动，就每3秒（默认）重新连接一次，连接成功后回调成功，没有连接成功回调失败。
  * 2.如果使用中途与服务器断开（如断网，服务器重启）立即回到等待连接状态，并且回调连接失败。每隔3秒（默认）重新连接一次服务器，如果此时再次连接上服务器立即回调连接成功。
- * 使用用于保持socket连接，和自动重新连接功能。 首先我们有2主要线程。
- * 心跳线程：当启动后每一定时间发送一条心跳信息，当心跳发送失败时把连接状态（connect）标记为失败，反之成功。
+ * 使用用于保持socket连接，和自动重新连接功能。 首先我们有1主要线程。
+ * 心跳：全部连接共用一个时间轮（YTimerWheel），超过心跳时间没有读写才发送心跳，当心跳发送失败时把连接状态（connect）标记为失败，反之成功。设置了读空闲时间后，超过这个时间没收到数据认为连接已断开。
  * 连接线程：连接线程每一定时间根据（connect）检查一连接，如果连接断开就重新连接，更新socket，并通知连接状态。
  *
  * 发送消息采用同步模式，一问一答模式。
+ * 流水线模式：设置correlationId后，可以同时发送多个请求，不等待上一个应答，读取线程按请求ID把应答交给对应的请求。
+ * TLS：设置tlsConfig后连接成功再握手，重连时恢复会话。
  *
  * @author 余静
  * @version 2022年5月31日14:12:56
@@ -37,6 +48,7 @@ ySocketSync?.showLog = true
 ySocketSync?.showSendLog = true
 ySocketSync?.showReceiveLog = true
 ySocketSync?.clearInputStream = true //发送前清空输入流
+ySocketSync?.frameDecoder = YFrameDecoder.lengthField(6, 4, true, 10) //可选，按帧读取，一问一答读取完整一帧
 ySocketSync?.connectListeners?.add {
     YLog.i("连接状态", "连接${if (it) "成功" else "失败"}")
 }
@@ -52,18 +64,40 @@ Thread {
 //退出
 ySocketSync?.exit()
 
+//流水线模式，需要设置frameDecoder，应答第2、3字节是请求ID
+ySocketSync?.frameDecoder = YFrameDecoder.lengthField(6, 4, true, 10)
+ySocketSync?.correlationId = { frame -> YConvertNumberBytes.bytes2ToInt(frame, 2) }
+ySocketSync?.start()
+//多个线程同时请求，每个请求单独超时
+val result = ySocketSync?.request(seq, data, 3000)
+//或者异步
+ySocketSync?.requestAsync(seq, data, 3000)?.addListener { if (it.isSuccess) YLog.i("应答：" + YConvert.bytesToHexString(it.now)) }
+//或者协程
+lifecycleScope.launch { val result = ySocketSync?.requestAwait(seq, data, 3000) }
+
 */
 class YSocketSync(var ip: String?, var port: Int) {
     var socket: Socket? = null //当前socket
     var connectThread: ConnectThread? = null // 连接线程
-    var heartbeat: HeartbeatThread? = null // 心跳线程
+    var idleMonitor: YIdleMonitor? = null // 空闲检测，写空闲发送心跳，读空闲断开重连
     var hearBytes = ByteArray(0) // 心跳包内容，如果设置了heartbeatContent，则使用heartbeatContent，否则使用默认的心跳包内容
     var urgentData = 0xFF // 紧急数据,发送1个字节的紧急数据，默认情况下，服务器端没有开启紧急数据处理，不影响正常通信
     var isNoHeartbeatSendUrgentData = true  // 没有设置心跳包时,发送紧急数据
     var connectListeners: Vector<(Boolean) -> Unit> = Vector() // 连接监听
     var isConnect = false // 当前连接状态
-    var heartTime = 1000 * 3L // 心跳间隔时间
+    var heartTime = 1000 * 3L // 心跳间隔时间，超过这个时间没有读写才发送心跳
+        set(value) {
+            field = value
+            idleMonitor?.setWriteIdleTime(value)
+        }
+    var readIdleTime = 0L // 读空闲时间，超过这个时间没收到数据认为连接已断开，0不检测
+        set(value) {
+            field = value
+            idleMonitor?.setReadIdleTime(value)
+        }
     var checkConnectTime = 1000 * 3L // 检查连接时间
+    var connectTimeOut = 1000 * 5 // 连接超时时间
+    var reconnectPolicy = YReconnectPolicy() // 重连策略，指数退避+抖动，YReconnectPolicy.fixed(3000)为原来的每3秒重连一次
     var readTimeOut = 1000 * 30L // 每次读取最长时间，防止inputStream.available()卡死
     var showLog = false // 显示日志
     var showReceiveLog = false // 显示接收日志
@@ -72,14 +106,37 @@ class YSocketSync(var ip: String?, var port: Int) {
     var inputStreamReadListener: ((InputStream?) -> ByteArray)? = null // 读取InputStream接口，此接口一旦实现，则采用该接口返回数据
     var createSocketInterceptor: (() -> Socket)? = null // 创建Socket，此接口一旦实现，不会实例化Socket,采用该接口返回数据
     var heartbeatContent: (() -> ByteArray)? = null  // 心跳包发送内容监听
+    var tlsConfig: YTlsConfig? = null // TLS加密，start之前设置，多个连接共用一个YTlsConfig时共用会话缓存，重连时恢复会话
+    var framePipeline: YFramePipeline? = null // 帧解码管道
+        private set
+    var correlationId: ((ByteArray) -> Any?)? = null // 流水线模式，从应答中取出请求ID，start之前设置，需要frameDecoder或inputStreamReadListener分帧
+    var unmatchedListener: ((ByteArray) -> Unit)? = null // 流水线模式，没有对应请求的数据，如服务器主动推送、已超时的应答，在读取线程中回调
+    val pending = ConcurrentHashMap<Any, YFuture<ByteArray>>() // 流水线模式，等待应答的请求
+    var pipelineReadThread: Thread? = null // 流水线模式读取线程
+    private var pipelineReader: YFramePipeline? = null // 流水线模式当前连接的帧解码管道，每个连接一个
+    private val writeLock = Any() // 写入锁，请求和心跳不会互相打断
+
+    // 连接统计，可以取快照或设置定时推送
+    val metrics = YSocketMetrics().apply { setProbe { snapshot -> (pipelineReader ?: framePipeline)?.let { snapshot.decodeErrors += it.decodeErrors } } }
+
+    // 帧解码器，设置后每次读取一帧完整数据，如果实现了inputStreamReadListener，则以inputStreamReadListener为准
+    var frameDecoder: YFrameDecoder?
+        get() = framePipeline?.decoder
+        set(value) {
+            framePipeline = value?.let { YFramePipeline(it) }
+        }
 
     /**
      * 开始，此方法只能调一次，用于启动心跳发送线程和连接线程，当连接线程连接成功后启动读取数据线程，当收到连接断开消息后，关闭读取消息线程。
      */
     fun start() {
-        heartbeat = HeartbeatThread(this)
-        heartbeat?.name = "YSocket-心跳线程"
-        heartbeat?.start()
+        idleMonitor?.stop()
+        idleMonitor = YIdleMonitor(YTimerWheel.getDefault(), heartTime, readIdleTime, object : YIdleMonitor.Listener {
+            // 心跳写入可能阻塞，不在时间轮线程中执行
+            override fun onWriteIdle() = YSocketDispatcher.getDefaultExecutor().execute { sendHeartbeat() }
+            override fun onReadIdle() = this@YSocketSync.onReadIdle()
+        })
+        idleMonitor?.start()
         connectThread = ConnectThread(this)
         connectThread?.connectListener = { success ->
             for (i in connectListeners.indices) backNotice(connectListeners[i], success)
@@ -89,42 +146,43 @@ class YSocketSync(var ip: String?, var port: Int) {
     }
 
     /**
-     * 心跳类，用于发送心跳包
+     * 发送心跳包，超过heartTime没有读写时调用
      */
-    class HeartbeatThread(var ySocketSync: YSocketSync) : Thread() {
-        override fun run() {
-            while (!isInterrupted) {
-                try {
-                    sleep(ySocketSync.heartTime)
-                } catch (e: InterruptedException) {
-                    interrupt()
-                }
-                if (ySocketSync.heartbeatContent == null) {
-                    send(ySocketSync.hearBytes)
-                } else {
-                    val bytes = ySocketSync.heartbeatContent?.invoke()
-                    send(bytes ?: ySocketSync.hearBytes)
-                }
+    fun sendHeartbeat() {
+        val socket = socket ?: return
+        val bytes = heartbeatContent?.invoke() ?: hearBytes
+        try {
+            if (bytes.isEmpty()) {
+                //如果开启了,没有设置心跳包时发送紧急数据，SSLSocket不支持紧急数据
+                if (isNoHeartbeatSendUrgentData && socket !is SSLSocket) synchronized(writeLock) { socket.sendUrgentData(urgentData) }
+                isConnect = true
+                return
+            }
+            val os = socket.getOutputStream() // 获得输出流
+            synchronized(writeLock) {
+                os.write(bytes)
+                os.flush()
             }
-            ySocketSync.printLog("退出心跳线程")
+            metrics.onWrite(bytes.size)
+            metrics.onHeartbeat()
+            idleMonitor?.onWrite()
+            isConnect = true
+        } catch (e: Exception) {
+            isConnect = false
         }
+    }
 
-        fun send(bytes: ByteArray?) {
-            if (ySocketSync.socket == null) return
-            try {
-                if (bytes == null || bytes.isEmpty()) {
-                    //如果开启了,没有设置心跳包时发送紧急数据
-                    if (ySocketSync.isNoHeartbeatSendUrgentData) ySocketSync.socket?.sendUrgentData(ySocketSync.urgentData)
-                    ySocketSync.isConnect = true
-                    return
-                }
-                val os = ySocketSync.socket?.getOutputStream() // 获得输出流
-                os?.write(bytes)
-                os?.flush()
-                ySocketSync.isConnect = true
-            } catch (e: Exception) {
-                ySocketSync.isConnect = false
-            }
+    /**
+     * 读空闲，超过readIdleTime没收到数据，断开重连
+     */
+    private fun onReadIdle() {
+        if (socket == null || !isConnect) return
+        printLog("读取超时，${readIdleTime}ms没有收到数据，断开重连")
+        isConnect = false
+        try {
+            socket?.close()
+        } catch (e: IOException) {
+            printLog("onReadIdle:" + e.message)
         }
     }
 
@@ -136,25 +194,53 @@ class YSocketSync(var ip: String?, var port: Int) {
         var connectListener: ((Boolean) -> Unit)? = null
 
         override fun run() {
+            var online = false // 上次检查时是否已连接
             // 保持连接
             while (!isInterrupted) {
+                var interval = ySocketSync.checkConnectTime
                 if (ySocketSync.socket == null || !ySocketSync.isConnect) {
+                    // 先关闭旧连接，阻塞在旧连接上的读取会立即返回，旧连接上等待应答的请求失败
+                    if (ySocketSync.socket != null) {
+                        ySocketSync.closeSocket()
+                        ySocketSync.failPending(IOException("连接断开"))
+                    }
+                    val policy = ySocketSync.reconnectPolicy
+                    if (online) {
+                        policy.onDisconnected()
+                        ySocketSync.metrics.onDisconnected()
+                    }
+                    online = false
+                    val start = policy.onAttemptStart()
                     try {
                         ySocketSync.socket = ySocketSync.createSocketInterceptor?.invoke() ?: Socket()
                         val socAddress: SocketAddress = InetSocketAddress(ySocketSync.ip, ySocketSync.port) // 连接
-                        ySocketSync.socket?.connect(socAddress, 1000 * 5)
+                        ySocketSync.socket?.connect(socAddress, ySocketSync.connectTimeOut)
                         ySocketSync.socket?.keepAlive = true
+                        // 握手失败时socket已经关闭
+                        val tls = ySocketSync.tlsConfig
+                        val plain = ySocketSync.socket
+                        if (tls != null && plain != null) ySocketSync.socket = tls.wrap(plain, ySocketSync.ip, ySocketSync.port)
+                        policy.onSuccess(start)
+                        ySocketSync.idleMonitor?.reset()
+                        online = true
+                        // 一问一答模式等正在读取的线程（已经因为旧连接关闭而返回）退出后再清空半帧数据；流水线模式每个连接新建管道
+                        if (ySocketSync.correlationId == null) synchronized(ySocketSync) { ySocketSync.framePipeline?.reset() }
                         ySocketSync.isConnect = true
                         ySocketSync.printLog("连接成功... (${ySocketSync.ip}:${ySocketSync.port})")
+                        if (ySocketSync.correlationId != null) ySocketSync.startPipelineRead()
+                        ySocketSync.metrics.onConnected()
                         connectListener?.invoke(true)
                     } catch (e: Exception) {
+                        policy.onFailure(start)
+                        ySocketSync.metrics.onDisconnected()
                         connectListener?.invoke(false)
                         ySocketSync.closeSocket()
-                        ySocketSync.printLog("连接失败... (${ySocketSync.ip}:${ySocketSync.port})")
+                        interval = policy.nextDelay()
+                        ySocketSync.printLog("连接失败... (${ySocketSync.ip}:${ySocketSync.port})，${interval}ms后重连")
                     }
                 }
                 try {
-                    sleep(ySocketSync.checkConnectTime)
+                    sleep(interval)
                 } catch (es: Exception) {
                     interrupt()
                 }
@@ -168,32 +254,145 @@ class YSocketSync(var ip: String?, var port: Int) {
      */
     @Synchronized
     fun send(bytes: ByteArray?, readTimeOut: Long? = null): ByteArray? {
+        if (correlationId != null) {
+            printLog("流水线模式请使用request")
+            return null
+        }
         //发送数据
         if (sendSync(bytes)) {
             //是否清除缓存
-            if (clearInputStream) socket?.getInputStream()?.let { it.skip(it.available().toLong()) }
+            if (clearInputStream) {
+                socket?.getInputStream()?.let { it.skip(it.available().toLong()) }
+                framePipeline?.reset()
+            }
             //读取结果
             return readSync(readTimeOut ?: this.readTimeOut)
         }
         return null
     }
 
+    /**
+     * 流水线模式发送请求，同步，不用等待其他请求的应答
+     *
+     * @param id 请求ID，和correlationId从应答中取出的ID相等
+     * @param readTimeOut 这个请求的超时时间
+     * @return 应答，超时或失败返回null
+     */
+    fun request(id: Any, bytes: ByteArray?, readTimeOut: Long = this.readTimeOut): ByteArray? {
+        val future = requestAsync(id, bytes, readTimeOut)
+        future.await(readTimeOut)
+        return future.now
+    }
+
+    /**
+     * 流水线模式发送请求，协程
+     *
+     * @param id 请求ID，和correlationId从应答中取出的ID相等
+     * @param readTimeOut 这个请求的超时时间
+     * @return 应答，超时或失败返回null
+     */
+    suspend fun requestAwait(id: Any, bytes: ByteArray?, readTimeOut: Long = this.readTimeOut): ByteArray? = withContext(Dispatchers.IO) {
+        suspendCancellableCoroutine<ByteArray?> { continuation ->
+            val future = requestAsync(id, bytes, readTimeOut)
+            continuation.invokeOnCancellation { if (pending.remove(id, future)) future.fail(CancellationException("请求取消：$id")) }
+            future.addListener { continuation.resume(it.now) }
+        }
+    }
+
+    /**
+     * 流水线模式发送请求，异步，写入后立即返回
+     *
+     * @param id 请求ID，和correlationId从应答中取出的ID相等，同一时间不能重复
+     * @param readTimeOut 这个请求的超时时间，超时后future失败
+     * @return 应答
+     */
+    fun requestAsync(id: Any, bytes: ByteArray?, readTimeOut: Long = this.readTimeOut): YFuture<ByteArray> {
+        val future = YFuture<ByteArray>()
+        if (correlationId == null) {
+            future.fail(IllegalStateException("没有设置correlationId"))
+            return future
+        }
+        if (pending.putIfAbsent(id, future) != null) {
+            future.fail(IllegalStateException("请求ID重复：$id"))
+            return future
+        }
+        val timer = YTimerWheel.getDefault().newTimeout({
+            if (pending.remove(id, future)) future.fail(TimeoutException("请求超时：$id"))
+        }, readTimeOut)
+        future.addListener { timer.cancel() }
+        if (!sendSync(bytes) && pending.remove(id, future)) future.fail(IOException("发送失败：$id"))
+        return future
+    }
+
+    /**
+     * 流水线模式读取线程，一直读取，按请求ID分发应答，断开时全部等待中的请求失败
+     * 每个连接一个读取线程和帧解码管道，旧连接的线程退出时不影响新连接上的请求
+     */
+    private fun startPipelineRead() {
+        pipelineReadThread?.interrupt()
+        val socket = socket ?: return
+        val pipeline = framePipeline?.let { YFramePipeline(it.decoder) }
+        pipelineReader = pipeline
+        val thread = Thread {
+            try {
+                val inputStream = socket.getInputStream()
+                while (!Thread.currentThread().isInterrupted) {
+                    val frame = inputStreamReadListener?.invoke(inputStream) ?: pipeline?.readFrame(inputStream)
+                    ?: throw IOException("流水线模式需要设置frameDecoder或inputStreamReadListener")
+                    if (frame.isEmpty()) continue
+                    metrics.onRead(frame.size)
+                    if (showReceiveLog) printLog("收到:" + YSocketMetrics.toLogString(frame))
+                    isConnect = true
+                    idleMonitor?.onRead()
+                    val id = try {
+                        correlationId?.invoke(frame)
+                    } catch (e: Exception) {
+                        null
+                    }
+                    val future = id?.let { pending.remove(it) }
+                    if (future != null) future.complete(frame) else unmatchedListener?.invoke(frame)
+                }
+            } catch (e: Exception) {
+                if (!Thread.currentThread().isInterrupted) {
+                    printLog("流水线读取失败：" + e.message)
+                    if (this.socket === socket) isConnect = false
+                }
+            }
+            // 只处理自己连接上的请求，已经换了新连接时，旧连接的请求在重连前已经失败
+            if (this.socket === socket) failPending(IOException("连接断开"))
+            printLog("退出流水线读取线程")
+        }
+        thread.name = "YSocketSync-流水线读取线程"
+        pipelineReadThread = thread
+        thread.start()
+    }
+
+    /**
+     * 全部等待中的请求失败
+     */
+    private fun failPending(cause: Throwable) {
+        for (id in pending.keys) pending.remove(id)?.fail(cause)
+    }
+
     /**
      * 发送消息byte[],同步
      *
      * @param bytes 消息byte[]
      * @return 是否发送成功
      */
-    @Synchronized
     fun sendSync(bytes: ByteArray?): Boolean {
         // socket==null直接返回失败
         if (socket == null) return false
         // 判断消息为空直接丢弃
         return if (bytes == null || bytes.isEmpty()) false else try {
             val os = socket?.getOutputStream() // 获得输出流
-            os?.write(bytes)
-            os?.flush()
-            if (showSendLog) printLog("发送:" + Arrays.toString(bytes))
+            synchronized(writeLock) {
+                os?.write(bytes)
+                os?.flush()
+            }
+            metrics.onWrite(bytes.size)
+            if (showSendLog) printLog("发送:" + YSocketMetrics.toLogString(bytes))
+            idleMonitor?.onWrite()
             isConnect = true
             true
         } catch (e: Exception) {
@@ -215,7 +414,9 @@ class YSocketSync(var ip: String?, var port: Int) {
                 if (showReceiveLog) printLog("resultBytes.length==0")
                 return resultBytes
             }
-            if (showReceiveLog) printLog("收到:" + resultBytes.contentToString())
+            metrics.onRead(resultBytes.size)
+            if (showReceiveLog) printLog("收到:" + YSocketMetrics.toLogString(resultBytes))
+            idleMonitor?.onRead()
             isConnect = true
             return resultBytes
         } catch (e: TimeoutException) {
@@ -249,6 +450,19 @@ class YSocketSync(var ip: String?, var port: Int) {
     @Throws(Exception::class)
     fun inputStreamToBytes(inputStream: InputStream, readTimeOut: Long): ByteArray {
         inputStreamReadListener?.let { return it.invoke(inputStream) }
+        framePipeline?.let { pipeline ->
+            // 阻塞读取一帧，用soTimeout控制超时，半帧数据保留在管道中
+            socket?.soTimeout = readTimeOut.coerceIn(1, Int.MAX_VALUE.toLong()).toInt()
+            try {
+                return pipeline.readFrame(inputStream)
+            } catch (e: SocketTimeoutException) {
+                throw TimeoutException("读取超时")
+            } finally {
+                socket?.soTimeout = 0
+            }
+        }
+        // TLS的available()只返回已经解密的数据，不读取时一直是0，所以用soTimeout阻塞读取
+        (socket as? SSLSocket)?.let { return YReadInputStream.readOnce(it, readTimeOut) }
         val startTime = System.currentTimeMillis()
         var count = 0
         while (count == 0 && System.currentTimeMillis() - startTime < readTimeOut) count = inputStream.available() //获取真正长度
@@ -285,8 +499,11 @@ class YSocketSync(var ip: String?, var port: Int) {
      * 退出
      */
     fun exit() {
-        heartbeat?.interrupt()
+        metrics.setListener(null, 0)
+        idleMonitor?.stop()
         connectThread?.interrupt()
+        pipelineReadThread?.interrupt()
+        failPending(IOException("连接关闭"))
         for (i in connectListeners.indices) backNotice(connectListeners[i], false)
         connectListeners.clear()
         closeSocket()
@@ -0,0 +1,366 @@
+package com.yujing.socket
+
+import com.yujing.utils.YLog
+import java.util.ArrayDeque
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * YSocketSync连接池，同一个服务器多个连接，多个线程同时请求不用互相排队
+ * 1.最少minSize个连接，最多maxSize个连接，不够时新建，达到最大时等待归还。
+ * 2.公平借用：等待的线程按先来后到的顺序拿到连接。
+ * 3.空闲超过idleTimeOut的连接关闭，但保留minSize个。
+ * 4.健康检查使用YSocketSync自带的心跳，心跳失败（isConnect==false）的连接在借出前和维护线程中关闭。
+ * 5.统计等待时间和利用率，用于确定连接数。
+ *
+ * @author 余静 2026年10月18日15:02:33
+ */
+/*
+使用方法：
+val pool = YSocketSyncPool("192.168.1.21", 8888, 2, 8)
+pool.configure = { sync ->
+    sync.hearBytes = byteArrayOf(0)
+    sync.frameDecoder = YFrameDecoder.lengthField(6, 4, true, 10)
+}
+pool.start()
+
+//多个线程同时请求
+Thread {
+    val data = pool.send(YConvert.hexStringToByte("02 52 44 53 01 ea 0d"), 3000)
+}.start()
+
+//或者借出连接，连续请求多次
+pool.use { sync ->
+    sync.send(data1)
+    sync.send(data2)
+}
+
+//统计
+YLog.i(pool.getStats().toString())
+
+//退出
+pool.close()
+*/
+class YSocketSyncPool(val ip: String, val port: Int, val minSize: Int = 1, val maxSize: Int = 4) {
+    var borrowTimeOut = 1000 * 5L // 借用最长等待时间
+    var connectTimeOut = 1000 * 5L // 新建连接最长等待时间
+    var idleTimeOut = 1000 * 60L // 空闲超过这个时间关闭，保留minSize个
+    var checkTime = 1000 * 10L // 维护间隔：关闭断开和空闲超时的连接，补足minSize
+    var showLog = false // 显示日志
+    var configure: ((YSocketSync) -> Unit)? = null // 配置新建的连接，如心跳、帧解码器，start之前调用
+
+    private val lock = ReentrantLock(true) // 公平锁，等待的线程按顺序被唤醒
+    private val available = lock.newCondition()
+    private val idle = ArrayDeque<Entry>() // 空闲连接，头部是最近归还的
+    private val borrowed = HashSet<YSocketSync>() // 借出的连接
+    private var creating = 0 // 正在新建的连接数
+    private var maintainThread: Thread? = null // 维护线程
+    @Volatile
+    private var closed = false
+
+    // 统计
+    private var borrowCount = 0L // 借用次数
+    private var waitCount = 0L // 需要等待的借用次数
+    private var waitNanos = 0L // 等待总时间
+    private var maxWaitNanos = 0L // 最长等待时间
+    private var timeoutCount = 0L // 借用超时次数
+    private var createCount = 0L // 新建连接次数
+    private var closeCount = 0L // 关闭连接次数（断开、空闲超时）
+    private var lastChange = System.nanoTime() // 上次连接数变化时间，用于计算利用率
+    private var busyArea = 0.0 // 借出连接数对时间的积分
+    private var openArea = 0.0 // 总连接数对时间的积分
+
+    init {
+        require(minSize >= 0 && maxSize >= 1 && minSize <= maxSize) { "minSize、maxSize错误" }
+    }
+
+    /**
+     * 开始，建立minSize个连接，启动维护线程
+     */
+    fun start() {
+        val thread = Thread {
+            while (!closed && !Thread.currentThread().isInterrupted) {
+                maintain()
+                try {
+                    Thread.sleep(checkTime)
+                } catch (e: InterruptedException) {
+                    break
+                }
+            }
+            printLog("退出连接池维护线程")
+        }
+        thread.name = "YSocketSyncPool-维护线程"
+        thread.isDaemon = true
+        maintainThread = thread
+        thread.start()
+    }
+
+    /**
+     * 借出一个连接，用完必须release
+     *
+     * @param timeOut 最长等待时间
+     * @return 连接，超时返回null
+     */
+    fun borrow(timeOut: Long = borrowTimeOut): YSocketSync? {
+        val start = System.nanoTime()
+        val deadline = start + TimeUnit.MILLISECONDS.toNanos(timeOut)
+        var waited = false
+        while (!closed) {
+            var needCreate = false
+            lock.withLock {
+                // 先用空闲连接，跳过心跳已经失败的
+                while (idle.isNotEmpty()) {
+                    val entry = idle.pollFirst()!!
+                    if (entry.sync.isConnect && entry.sync.socket != null) {
+                        onBorrow(entry.sync, start, waited)
+                        return entry.sync
+                    }
+                    discard(entry.sync)
+                }
+                if (total() < maxSize) {
+                    creating++
+                    update()
+                    needCreate = true
+                } else {
+                    val nanos = deadline - System.nanoTime()
+                    if (nanos <= 0) {
+                        timeoutCount++
+                        printLog("借用连接超时")
+                        return null
+                    }
+                    waited = true
+                    try {
+                        available.awaitNanos(nanos)
+                    } catch (e: InterruptedException) {
+                        Thread.currentThread().interrupt()
+                        return null
+                    }
+                }
+            }
+            if (needCreate) {
+                val remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())
+                val sync = newConnection(remaining.coerceIn(1, connectTimeOut))
+                lock.withLock {
+                    creating--
+                    if (sync != null) {
+                        createCount++
+                        onBorrow(sync, start, waited)
+                        return sync
+                    }
+                    update()
+                    available.signal()
+                }
+                if (System.nanoTime() >= deadline) {
+                    lock.withLock { timeoutCount++ }
+                    return null
+                }
+            }
+        }
+        return null
+    }
+
+    /**
+     * 归还连接
+     *
+     * @param sync   借出的连接
+     * @param broken 连接是否已经不可用，不可用则关闭，默认按心跳状态判断
+     */
+    fun release(sync: YSocketSync, broken: Boolean = !sync.isConnect) {
+        lock.withLock {
+            if (!borrowed.remove(sync)) return
+            if (broken || closed) {
+                discard(sync)
+            } else {
+                update()
+                idle.addFirst(Entry(sync, System.currentTimeMillis()))
+            }
+            available.signal()
+        }
+    }
+
+    /**
+     * 借出连接执行block，执行完自动归还
+     *
+     * @return block返回值，借用超时返回null
+     */
+    fun <T> use(timeOut: Long = borrowTimeOut, block: (YSocketSync) -> T): T? {
+        val sync = borrow(timeOut) ?: return null
+        try {
+            return block(sync)
+        } finally {
+            release(sync)
+        }
+    }
+
+    /**
+     * 借一个连接一问一答
+     *
+     * @return 结果，借用超时或读取失败返回null
+     */
+    fun send(bytes: ByteArray?, readTimeOut: Long? = null): ByteArray? = use { it.send(bytes, readTimeOut) }
+
+    /**
+     * 统计信息
+     */
+    fun getStats(): Stats = lock.withLock {
+        update()
+        Stats(
+            total(), borrowed.size, idle.size, borrowCount, waitCount,
+            if (borrowCount == 0L) 0.0 else waitNanos / 1000_000.0 / borrowCount,
+            maxWaitNanos / 1000_000.0, timeoutCount, createCount, closeCount,
+            if (openArea == 0.0) 0.0 else busyArea / openArea
+        )
+    }
+
+    /**
+     * 关闭全部连接
+     */
+    fun close() {
+        closed = true
+        maintainThread?.interrupt()
+        val list = lock.withLock {
+            val list = ArrayList<YSocketSync>()
+            for (entry in idle) list.add(entry.sync)
+            list.addAll(borrowed)
+            idle.clear()
+            borrowed.clear()
+            update()
+            available.signalAll()
+            list
+        }
+        for (sync in list) sync.exit()
+    }
+
+    /**
+     * 关闭断开的、空闲超时的连接，补足minSize个
+     */
+    private fun maintain() {
+        val now = System.currentTimeMillis()
+        val discards = ArrayList<YSocketSync>()
+        var lack = 0
+        lock.withLock {
+            val iterator = idle.descendingIterator()
+            while (iterator.hasNext()) {
+                val entry = iterator.next()
+                val expired = now - entry.idleSince > idleTimeOut && total() > minSize
+                if (!entry.sync.isConnect || expired) {
+                    iterator.remove()
+                    closeCount++
+                    discards.add(entry.sync)
+                    update()
+                }
+            }
+            lack = minSize - total()
+            if (lack > 0) {
+                creating += lack
+                update()
+            }
+        }
+        for (sync in discards) sync.exit()
+        if (discards.isNotEmpty()) printLog("关闭${discards.size}个连接")
+        for (i in 0 until lack) {
+            val sync = newConnection(connectTimeOut)
+            lock.withLock {
+                creating--
+                if (sync != null && !closed) {
+                    createCount++
+                    idle.addFirst(Entry(sync, System.currentTimeMillis()))
+                    available.signal()
+                }
+                update()
+            }
+            if (sync != null && closed) sync.exit()
+        }
+    }
+
+    /**
+     * 新建连接，在连接监听上等待连接成功，连接失败时连接线程会继续重连，直到超时
+     */
+    private fun newConnection(timeOut: Long): YSocketSync? {
+        val sync = YSocketSync(ip, port)
+        sync.showLog = showLog
+        configure?.invoke(sync)
+        val latch = CountDownLatch(1)
+        val listener: (Boolean) -> Unit = { success -> if (success) latch.countDown() }
+        sync.connectListeners.add(listener)
+        sync.start()
+        try {
+            latch.await(timeOut, TimeUnit.MILLISECONDS)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        } finally {
+            sync.connectListeners.remove(listener)
+        }
+        if (sync.isConnect) {
+            printLog("新建连接成功... ($ip:$port)")
+            return sync
+        }
+        printLog("新建连接失败... ($ip:$port)")
+        sync.exit()
+        return null
+    }
+
+    private fun onBorrow(sync: YSocketSync, start: Long, waited: Boolean) {
+        update()
+        borrowed.add(sync)
+        borrowCount++
+        if (waited) {
+            val nanos = System.nanoTime() - start
+            waitCount++
+            waitNanos += nanos
+            if (nanos > maxWaitNanos) maxWaitNanos = nanos
+        }
+    }
+
+    /**
+     * 关闭连接，在锁中调用，sync.exit()在公共线程池执行，不卡住借用
+     */
+    private fun discard(sync: YSocketSync) {
+        closeCount++
+        update()
+        YSocketDispatcher.getDefaultExecutor().execute { sync.exit() }
+    }
+
+    private fun total() = idle.size + borrowed.size + creating
+
+    /**
+     * 连接数变化前调用，累计利用率
+     */
+    private fun update() {
+        val now = System.nanoTime()
+        val dt = (now - lastChange).toDouble()
+        busyArea += borrowed.size * dt
+        openArea += total() * dt
+        lastChange = now
+    }
+
+    private fun printLog(str: String?) {
+        if (showLog) YLog.d(str, 1)
+    }
+
+    private class Entry(val sync: YSocketSync, val idleSince: Long)
+
+    /**
+     * 统计信息
+     */
+    data class Stats(
+        val total: Int, // 连接数，包括正在新建的
+        val borrowed: Int, // 借出数
+        val idle: Int, // 空闲数
+        val borrowCount: Long, // 借用次数
+        val waitCount: Long, // 需要等待的借用次数
+        val avgWaitMillis: Double, // 平均等待时间
+        val maxWaitMillis: Double, // 最长等待时间
+        val timeoutCount: Long, // 借用超时次数
+        val createCount: Long, // 新建连接次数
+        val closeCount: Long, // 关闭连接次数
+        val utilization: Double // 利用率，借出连接数/总连接数 的时间平均值
+    ) {
+        override fun toString(): String {
+            return "连接：$total，借出：$borrowed，空闲：$idle，借用：$borrowCount，等待：$waitCount，平均等待：${"%.2f".format(avgWaitMillis)}ms，" +
+                    "最长等待：${"%.2f".format(maxWaitMillis)}ms，超时：$timeoutCount，新建：$createCount，关闭：$closeCount，利用率：${"%.1f".format(utilization * 100)}%"
+        }
+    }
+}
@@ -1,20 +1,74 @@
 package com.yujing.socket
 
+import android.os.Build
+import androidx.annotation.RequiresApi
 import com.yujing.utils.YLog
 import com.yujing.utils.YReadInputStream
 import java.io.IOException
 import java.net.InetSocketAddress
 import java.net.Socket
 import java.net.SocketAddress
+import java.net.SocketTimeoutException
+import java.util.ArrayDeque
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlinx.coroutines.suspendCancellableCoroutine
 
 /**
  * tcp同步收发，发送后及时断开socket
+ * 开启keepAlive后，发送完不断开，按ip:port缓存空闲连接，下次发送直接复用，省去TCP握手。
+ * 设置tlsConfig后连接成功再握手，同一个YTlsConfig的会话缓存按ip:port恢复会话，每次新建连接也不用完整握手。
  *
  * 保持连接，异步请求参照：YSocket
  * 保持连接，同步请求参照：YSocketSync
  */
+/*
+复用连接：
+YTcp.keepAlive = true
+YTcp.keepAliveTime = 30 * 1000L
+val receive = YTcp.send(ip, port, data, 5000)
+//统计
+YLog.i(YTcp.getKeepAliveStats().toString())
+//关闭全部空闲连接
+YTcp.clearKeepAlive()
+
+TLS加密：
+YTcp.tlsConfig = YTlsConfig().apply { setTrustCertificate(assets.open("server.crt")) }
+val receive = YTcp.send(ip, port, data, 5000)
+//握手次数、恢复会话次数
+YLog.i(YTcp.tlsConfig?.stats.toString())
+
+//收发统计
+YLog.i(YTcp.metrics.snapshot().toString())
+
+异步，不占用线程，在共享的YSocketLoop上完成：
+YTcp.sendAsync(ip, port, data, 5000).thenAccept { YLog.i(YConvert.bytesToHexString(it)) }
+lifecycleScope.launch { val receive = YTcp.sendAwait(ip, port, data, 5000) }
+//安卓7.0以下
+YTcp.sendFuture(ip, port, data, 5000).addListener { if (it.isSuccess) YLog.i(YConvert.bytesToHexString(it.now)) }
+*/
 object YTcp {
     var showLog = false //是否显示log
+    var keepAlive = false //是否复用连接，发送完不断开，下次发送相同ip:port时复用
+    var keepAliveTime = 1000 * 30L //空闲连接保留时间，超过关闭
+    var maxIdlePerHost = 4 //每个ip:port最多保留几个空闲连接
+    var tlsConfig: YTlsConfig? = null //TLS加密，为null不加密
+    val metrics = YSocketMetrics() //收发统计，send、sendFrame、sendReadTime、sendReadLength的收发字节数、条数
+
+    private val idleSockets = HashMap<String, ArrayDeque<IdleSocket>>() //空闲连接，key为ip:port
+    private val handshakeCount = AtomicLong() //新建连接次数
+    private val reuseCount = AtomicLong() //复用次数
+    private val staleCount = AtomicLong() //复用时发现已失效的连接数
+    private val retryCount = AtomicLong() //复用连接失败后重试次数
+    private val evictCount = AtomicLong() //空闲超时关闭的连接数
+
+    private class IdleSocket(val socket: Socket, val idleSince: Long) {
+        var timeout: YTimerWheel.Timeout? = null
+    }
 
     /**
      * 连接并发送数据
@@ -22,34 +76,198 @@ object YTcp {
      * val receive = YTcp.connectAndSend(ip, port, timeOut) { socket ->
      *   socket.outputStream.write(data)
      *   socket.outputStream.flush()
-     *   return@connectAndSend YReadInputStream.readOnce(socket.inputStream, timeOut.toLong())
+     *   return@connectAndSend YReadInputStream.readOnce(socket, timeOut.toLong())
      * }
      */
     @JvmStatic
     @Throws(java.net.SocketTimeoutException::class, Exception::class)
     fun connectAndSend(ip: String, port: Int, timeOut: Int = 5000, handler: (Socket) -> ByteArray?): ByteArray? {
-        val socket = Socket()
+        if (keepAlive) return connectAndSendKeepAlive(ip, port, timeOut, handler)
+        var socket = Socket()
         try {
             val socAddress: SocketAddress = InetSocketAddress(ip, port) // 连接
             socket.connect(socAddress, timeOut)
+            handshakeCount.incrementAndGet()
+            socket = wrapTls(socket, ip, port)
             if (showLog) YLog.i("连接成功... (${ip}:${port})")
             return handler.invoke(socket)
         } finally {
+            close(socket)
+        }
+    }
+
+    /**
+     * 设置了tlsConfig时在已经连接的socket上握手，握手失败时socket已经关闭
+     */
+    private fun wrapTls(socket: Socket, ip: String, port: Int): Socket {
+        return tlsConfig?.wrap(socket, ip, port) ?: socket
+    }
+
+    /**
+     * 复用连接发送，复用的连接失败时（服务器已经关闭了空闲连接）新建连接重试一次
+     */
+    private fun connectAndSendKeepAlive(ip: String, port: Int, timeOut: Int, handler: (Socket) -> ByteArray?): ByteArray? {
+        val tls = tlsConfig
+        val key = if (tls != null) "tls://$ip:$port" else "$ip:$port"
+        val reused = acquire(key)
+        if (reused != null) {
             try {
-                socket.shutdownInput()
+                val result = handler.invoke(reused)
+                release(key, reused)
+                return result
+            } catch (e: SocketTimeoutException) {
+                close(reused)
+                throw e
             } catch (e: IOException) {
-                e.printStackTrace()
+                close(reused)
+                retryCount.incrementAndGet()
+                if (showLog) YLog.i("复用连接失败，重新连接... (${ip}:${port})" + e.message)
+            } catch (e: Exception) {
+                close(reused)
+                throw e
             }
-            try {
-                socket.shutdownOutput()
-            } catch (e: IOException) {
-                e.printStackTrace()
+        }
+        var socket = Socket()
+        try {
+            socket.connect(InetSocketAddress(ip, port), timeOut)
+            socket.keepAlive = true
+            handshakeCount.incrementAndGet()
+            if (tls != null) socket = tls.wrap(socket, ip, port)
+            if (showLog) YLog.i("连接成功... (${ip}:${port})")
+            val result = handler.invoke(socket)
+            release(key, socket)
+            return result
+        } catch (e: Exception) {
+            close(socket)
+            throw e
+        }
+    }
+
+    /**
+     * 取出一个可用的空闲连接，没有返回null
+     */
+    private fun acquire(key: String): Socket? {
+        while (true) {
+            val idle = synchronized(idleSockets) { idleSockets[key]?.pollFirst() } ?: return null
+            idle.timeout?.cancel()
+            if (System.currentTimeMillis() - idle.idleSince < keepAliveTime && isAlive(idle.socket)) {
+                reuseCount.incrementAndGet()
+                return idle.socket
             }
-            try {
-                socket.close()
-            } catch (e: IOException) {
-                e.printStackTrace()
+            staleCount.incrementAndGet()
+            close(idle.socket)
+        }
+    }
+
+    /**
+     * 检查空闲连接是否可用：没有关闭，没有上次残留的数据，不阻塞
+     * 服务器已经断开的连接这里不一定能发现，发送或读取失败时由connectAndSendKeepAlive新建连接重试一次
+     */
+    private fun isAlive(socket: Socket): Boolean {
+        if (socket.isClosed || !socket.isConnected || socket.isInputShutdown || socket.isOutputShutdown) return false
+        return try {
+            socket.getInputStream().available() == 0
+        } catch (e: IOException) {
+            false
+        }
+    }
+
+    /**
+     * 归还连接，超过keepAliveTime没有复用则关闭
+     */
+    private fun release(key: String, socket: Socket) {
+        if (!keepAlive || socket.isClosed) {
+            close(socket)
+            return
+        }
+        try {
+            socket.soTimeout = 0
+        } catch (e: IOException) {
+            close(socket)
+            return
+        }
+        val idle = IdleSocket(socket, System.currentTimeMillis())
+        val added = synchronized(idleSockets) {
+            val queue = idleSockets.getOrPut(key) { ArrayDeque() }
+            if (queue.size < maxIdlePerHost) {
+                queue.addFirst(idle)
+                true
+            } else false
+        }
+        if (!added) {
+            close(socket)
+            return
+        }
+        idle.timeout = YTimerWheel.getDefault().newTimeout({
+            val removed = synchronized(idleSockets) { idleSockets[key]?.remove(idle) == true }
+            if (removed) {
+                evictCount.incrementAndGet()
+                close(socket)
             }
+        }, keepAliveTime)
+    }
+
+    /**
+     * 关闭全部空闲连接
+     */
+    @JvmStatic
+    fun clearKeepAlive() {
+        val list = ArrayList<IdleSocket>()
+        synchronized(idleSockets) {
+            for (queue in idleSockets.values) list.addAll(queue)
+            idleSockets.clear()
+        }
+        for (idle in list) {
+            idle.timeout?.cancel()
+            close(idle.socket)
+        }
+    }
+
+    /**
+     * 复用连接统计
+     */
+    @JvmStatic
+    fun getKeepAliveStats(): KeepAliveStats {
+        val idle = synchronized(idleSockets) { idleSockets.values.sumOf { it.size } }
+        return KeepAliveStats(handshakeCount.get(), reuseCount.get(), staleCount.get(), retryCount.get(), evictCount.get(), idle)
+    }
+
+    /**
+     * 复用连接统计
+     */
+    data class KeepAliveStats(
+        val handshakeCount: Long, //新建连接次数
+        val reuseCount: Long, //复用次数
+        val staleCount: Long, //复用时发现已失效的连接数
+        val retryCount: Long, //复用连接失败后重试次数
+        val evictCount: Long, //空闲超时关闭的连接数
+        val idleCount: Int //当前空闲连接数
+    ) {
+        //复用率
+        val reuseRatio: Double
+            get() = if (handshakeCount + reuseCount == 0L) 0.0 else reuseCount.toDouble() / (handshakeCount + reuseCount)
+
+        override fun toString(): String {
+            return "新建连接：$handshakeCount，复用：$reuseCount，复用率：${"%.1f".format(reuseRatio * 100)}%，失效：$staleCount，重试：$retryCount，超时关闭：$evictCount，空闲：$idleCount"
+        }
+    }
+
+    private fun close(socket: Socket) {
+        if (socket.isClosed) return
+        try {
+            socket.shutdownInput()
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+        try {
+            socket.shutdownOutput()
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+        try {
+            socket.close()
+        } catch (e: IOException) {
+            e.printStackTrace()
         }
     }
 
@@ -64,11 +282,29 @@ object YTcp {
         return connectAndSend(ip, port, timeOut) { socket ->
             socket.outputStream.write(data)
             socket.outputStream.flush()
-            return@connectAndSend YReadInputStream.readOnce(socket.inputStream, timeOut.toLong())
+            metrics.onWrite(data.size)
+            return@connectAndSend YReadInputStream.readOnce(socket, timeOut.toLong()).also { metrics.onRead(it.size) }
         }
     }
 
 
+    /**
+     * 发送并读取一帧完整数据，最多等timeOut时间
+     * 举例：
+     * val frame = YTcp.sendFrame(ip, port, data, YFrameDecoder.lengthField(6, 4, true, 10), 5000)
+     */
+    @JvmStatic
+    @Throws(java.net.SocketTimeoutException::class, Exception::class)
+    fun sendFrame(ip: String, port: Int, data: ByteArray, frameDecoder: YFrameDecoder, timeOut: Int = 5000): ByteArray? {
+        return connectAndSend(ip, port, timeOut) { socket ->
+            socket.outputStream.write(data)
+            socket.outputStream.flush()
+            metrics.onWrite(data.size)
+            socket.soTimeout = timeOut
+            return@connectAndSend YFramePipeline(frameDecoder).readFrame(socket.inputStream)?.also { metrics.onRead(it.size) }
+        }
+    }
+
     /**
      * 发送并等待数据，一直不停组包，每次组包时间maxGroupTime，如果一直有数据总时间不超过timeOut
      */
@@ -78,7 +314,8 @@ object YTcp {
         return connectAndSend(ip, port, timeOut) { socket ->
             socket.outputStream.write(data)
             socket.outputStream.flush()
-            return@connectAndSend YReadInputStream.readTime(socket.inputStream, maxGroupTime, timeOut).bytes
+            metrics.onWrite(data.size)
+            return@connectAndSend YReadInputStream.readTime(socket, maxGroupTime, timeOut).bytes?.also { metrics.onRead(it.size) }
         }
     }
 
@@ -91,7 +328,64 @@ object YTcp {
         return connectAndSend(ip, port, timeOut) { socket ->
             socket.outputStream.write(data)
             socket.outputStream.flush()
-            return@connectAndSend YReadInputStream.readLength(socket.inputStream, minLength, timeOut).bytes
+            metrics.onWrite(data.size)
+            return@connectAndSend YReadInputStream.readLength(socket, minLength, timeOut).bytes?.also { metrics.onRead(it.size) }
+        }
+    }
+
+    /**
+     * 异步发送，在共享的YSocketLoop上连接、发送、读取，不占用线程，读到数据立即返回
+     * timeOut为总时间（连接+发送+读取），超时future失败，异常为TimeoutException
+     * 每次新建连接，不使用keepAlive
+     * 设置了tlsConfig时在YSocketDispatcher的默认线程池中调用send或sendFrame（YSocketLoop不支持TLS），keepAlive有效，恢复会话
+     * @param frameDecoder 帧解码器，为null时读到数据立即返回，否则读到一帧完整数据后返回
+     * 举例：
+     * YTcp.sendFuture(ip, port, data, 5000).addListener { if (it.isSuccess) YLog.i(YConvert.bytesToHexString(it.now)) }
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun sendFuture(ip: String, port: Int, data: ByteArray, timeOut: Int = 5000, frameDecoder: YFrameDecoder? = null): YFuture<ByteArray> {
+        if (tlsConfig != null) {
+            val future = YFuture<ByteArray>()
+            YSocketDispatcher.getDefaultExecutor().execute {
+                try {
+                    val result = if (frameDecoder == null) send(ip, port, data, timeOut) else sendFrame(ip, port, data, frameDecoder, timeOut)
+                    if (result != null) future.complete(result) else future.fail(IOException("连接已关闭"))
+                } catch (e: SocketTimeoutException) {
+                    future.fail(TimeoutException("读取超时"))
+                } catch (e: Exception) {
+                    future.fail(e)
+                }
+            }
+            return future
+        }
+        return YNioExchange.tcp(YSocketLoop.getDefault(), ip, port, data, frameDecoder, timeOut.toLong())
+    }
+
+    /**
+     * 异步发送，返回CompletableFuture，安卓7.0以上，说明见sendFuture
+     * 举例：
+     * YTcp.sendAsync(ip, port, data, 5000).thenAccept { YLog.i(YConvert.bytesToHexString(it)) }
+     */
+    @JvmStatic
+    @JvmOverloads
+    @RequiresApi(Build.VERSION_CODES.N)
+    fun sendAsync(ip: String, port: Int, data: ByteArray, timeOut: Int = 5000, frameDecoder: YFrameDecoder? = null): CompletableFuture<ByteArray> {
+        return YNioExchange.toCompletableFuture(sendFuture(ip, port, data, timeOut, frameDecoder))
+    }
+
+    /**
+     * 协程发送，挂起不阻塞线程，说明见sendFuture，超时抛出TimeoutException
+     * 举例：
+     * lifecycleScope.launch { val receive = YTcp.sendAwait(ip, port, data, 5000) }
+     */
+    suspend fun sendAwait(ip: String, port: Int, data: ByteArray, timeOut: Int = 5000, frameDecoder: YFrameDecoder? = null): ByteArray {
+        return suspendCancellableCoroutine { continuation ->
+            val future = sendFuture(ip, port, data, timeOut, frameDecoder)
+            continuation.invokeOnCancellation { future.fail(CancellationException("请求取消")) }
+            future.addListener {
+                if (it.isSuccess) continuation.resume(it.now) else continuation.resumeWithException(it.cause)
+            }
         }
     }
 }
\ No newline at end of file
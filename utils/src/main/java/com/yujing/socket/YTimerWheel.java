@@ -0,0 +1,198 @@
+package com.yujing.socket;
+
+import com.yujing.utils.YLog;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 哈希时间轮定时器，全部连接共用一个线程
+ * 1.时间轮有wheelSize个格子，每tickMillis毫秒走一格，定时任务按到期时间放入对应格子，超过一圈的记录剩余圈数。
+ * 2.添加、取消都是O(1)，几百个连接的心跳、读空闲检测只用一个线程。
+ * 3.精度为一格（默认100毫秒），适合心跳、超时这类不要求精确的定时。
+ * 任务在时间轮线程中执行，不要做耗时操作，阻塞的操作请交给其他线程。
+ *
+ * @author 余静 2026年10月18日15:58:21
+ */
+/*
+使用方法：
+YTimerWheel.Timeout timeout = YTimerWheel.getDefault().newTimeout(() -> YLog.i("5秒到了"), 5000);
+//取消
+timeout.cancel();
+ */
+@SuppressWarnings("unused")
+public class YTimerWheel {
+    private static volatile YTimerWheel defaultWheel;
+    protected final String name;// 线程名称
+    protected final long tickMillis;// 每格时间
+    protected final int mask;// 格子数-1
+    protected final ArrayList<Timeout>[] wheel;// 格子，只在时间轮线程中访问
+    protected final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();// 新添加还没放入格子的任务
+    protected volatile Thread thread;
+    protected volatile boolean terminated;// 已经关闭
+    protected long startTime;// 开始时间，nanoTime
+    protected long tick;// 已经走过的格数
+    protected volatile int size;// 任务数量
+    protected boolean showLog = false;
+
+    /**
+     * 默认共享时间轮，每格100毫秒，512格
+     */
+    public static YTimerWheel getDefault() {
+        if (defaultWheel == null) {
+            synchronized (YTimerWheel.class) {
+                if (defaultWheel == null) defaultWheel = new YTimerWheel("YTimerWheel-默认", 100, 512);
+            }
+        }
+        return defaultWheel;
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param name       线程名称
+     * @param tickMillis 每格时间，毫秒
+     * @param wheelSize  格子数，会调整为2的幂
+     */
+    @SuppressWarnings("unchecked")
+    public YTimerWheel(String name, long tickMillis, int wheelSize) {
+        if (tickMillis < 1) throw new IllegalArgumentException("tickMillis必须大于0");
+        int n = 1;
+        while (n < wheelSize) n <<= 1;
+        this.name = name;
+        this.tickMillis = tickMillis;
+        this.mask = n - 1;
+        this.wheel = new ArrayList[n];
+        for (int i = 0; i < n; i++) wheel[i] = new ArrayList<>();
+    }
+
+    public void setShowLog(boolean showLog) {
+        this.showLog = showLog;
+    }
+
+    /**
+     * 添加定时任务
+     *
+     * @param task        任务，在时间轮线程中执行
+     * @param delayMillis 延时毫秒
+     * @return 可取消
+     */
+    public Timeout newTimeout(Runnable task, long delayMillis) {
+        if (thread == null) start();
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + Math.max(0, delayMillis) * 1000_000L);
+        pending.offer(timeout);
+        return timeout;
+    }
+
+    /**
+     * 未执行的任务数量（包括已取消还没清理的）
+     */
+    public int size() {
+        return size + pending.size();
+    }
+
+    /**
+     * 关闭，未执行的任务不再执行
+     */
+    public synchronized void shutdown() {
+        terminated = true;
+        Thread t = thread;
+        if (t != null) t.interrupt();
+        if (this == defaultWheel) defaultWheel = null;
+    }
+
+    protected synchronized void start() {
+        if (thread != null || terminated) return;
+        startTime = System.nanoTime();
+        Thread t = new Thread(this::run);
+        t.setName(name);
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    protected void run() {
+        while (!terminated) {
+            long deadline = tickMillis * 1000_000L * (tick + 1);
+            long sleep = (deadline - (System.nanoTime() - startTime)) / 1000_000L;
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            transferPending();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+        if (showLog) YLog.d("退出时间轮线程：" + name);
+    }
+
+    /**
+     * 新任务放入格子
+     */
+    protected void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) continue;
+            long ticks = timeout.deadline / (tickMillis * 1000_000L);
+            timeout.rounds = (ticks - tick) / wheel.length;
+            // 已经过期的放到当前格子，马上执行
+            wheel[(int) (Math.max(ticks, tick) & mask)].add(timeout);
+            size++;
+        }
+    }
+
+    /**
+     * 执行格子中到期的任务，清理已取消的任务
+     */
+    protected void expire(ArrayList<Timeout> bucket) {
+        int keep = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout timeout = bucket.get(i);
+            if (timeout.cancelled) {
+                size--;
+                continue;
+            }
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                bucket.set(keep++, timeout);
+                continue;
+            }
+            size--;
+            try {
+                timeout.task.run();
+            } catch (Throwable e) {
+                if (showLog) YLog.e("定时任务异常：" + e.getMessage(), e);
+            }
+        }
+        for (int i = bucket.size() - 1; i >= keep; i--) bucket.remove(i);
+    }
+
+    /**
+     * 定时任务
+     */
+    public static class Timeout {
+        final Runnable task;
+        final long deadline;// 相对开始时间，纳秒
+        long rounds;// 剩余圈数
+        volatile boolean cancelled;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消，取消后不会执行
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
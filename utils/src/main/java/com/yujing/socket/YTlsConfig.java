@@ -0,0 +1,488 @@
+package com.yujing.socket;
+
+import com.yujing.utils.YBase64;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * TLS加密配置，YSocket、YSocketSync、YTcp共用
+ * 1.一个配置一个SSLContext，会话缓存（SSLSessionContext）在使用这个配置的全部连接之间共享，重连、YTcp短连接按ip:port恢复会话，省去证书校验和密钥交换。
+ * 2.信任证书：默认系统证书；可以设置KeyStore或者直接加载服务器证书（自签名证书），双向认证时设置客户端证书。
+ * 3.证书固定：设置后证书链中至少一个证书的公钥SHA-256和pin相同，格式同OkHttp："sha256/base64"。
+ * 4.ALPN：安卓10以上用系统接口，安卓5.0~9.0通过反射调用Conscrypt，都不支持时忽略。
+ * 5.统计握手次数、恢复会话次数、耗时，用于确认低端设备上省下的CPU。
+ * 修改配置后重新创建SSLContext，已缓存的会话失效，所以应该在连接之前配置好。
+ *
+ * @author 余静 2026年10月18日18:42:15
+ */
+/*
+使用方法：
+YTlsConfig tls = new YTlsConfig();
+//自签名证书
+tls.setTrustCertificate(context.getAssets().open("server.crt"));
+//证书固定
+tls.addPin("sha256/AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=");
+tls.setApplicationProtocols("device/1");
+//用ip连接，证书中没有ip时关闭主机名校验，同时建议使用证书固定
+tls.setHostnameVerify(false);
+
+ySocket.setTlsConfig(tls);
+ySocketSync.tlsConfig = tls
+YTcp.tlsConfig = tls
+
+//统计
+YLog.i(tls.getStats().toString());
+ */
+@SuppressWarnings("unused")
+public class YTlsConfig {
+    protected String protocol = "TLS";// SSLContext协议
+    protected String[] enabledProtocols;// 启用的协议版本，如TLSv1.2，为空使用默认
+    protected TrustManager[] trustManagers;// 信任管理，为空使用系统证书
+    protected KeyManager[] keyManagers;// 客户端证书，双向认证时使用
+    protected final Set<String> pins = new LinkedHashSet<>();// 证书固定，公钥SHA-256的base64
+    protected String[] applicationProtocols;// ALPN协议
+    protected boolean hostnameVerify = true;// 是否校验主机名
+    protected HostnameVerifier hostnameVerifier;// 主机名校验，为空使用HttpsURLConnection默认校验
+    protected int sessionCacheSize = 32;// 会话缓存个数，0不限制
+    protected int sessionTimeout = 60 * 60 * 24;// 会话缓存时间，秒
+    protected int handshakeTimeOut = 1000 * 10;// 握手超时时间
+    protected SSLContext sslContext;// 共享的SSLContext，会话缓存在其中
+    protected SSLSocketFactory socketFactory;
+    protected final Map<String, Boolean> sessionIds = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > Math.max(sessionCacheSize, 32) * 2;
+        }
+    };// 握手过的会话ID，用于判断是否恢复会话
+    // 统计
+    protected final AtomicLong handshakeCount = new AtomicLong();// 握手成功次数
+    protected final AtomicLong resumeCount = new AtomicLong();// 恢复会话次数
+    protected final AtomicLong failCount = new AtomicLong();// 握手失败次数
+    protected final AtomicLong pinFailCount = new AtomicLong();// 证书固定校验失败次数
+    protected final AtomicLong fullTime = new AtomicLong();// 完整握手总耗时
+    protected final AtomicLong resumeTime = new AtomicLong();// 恢复会话总耗时
+
+    /**
+     * 设置信任的KeyStore，为null使用系统证书
+     */
+    public synchronized void setTrustStore(KeyStore trustStore) throws GeneralSecurityException {
+        if (trustStore == null) {
+            setTrustManagers(null);
+            return;
+        }
+        TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        factory.init(trustStore);
+        setTrustManagers(factory.getTrustManagers());
+    }
+
+    /**
+     * 加载信任证书，X.509格式（PEM或DER），一个流中可以有多个证书，只信任这些证书，不再信任系统证书
+     */
+    public void setTrustCertificate(InputStream inputStream) throws GeneralSecurityException, IOException {
+        try {
+            Collection<? extends Certificate> certificates = CertificateFactory.getInstance("X.509").generateCertificates(inputStream);
+            if (certificates.isEmpty()) throw new GeneralSecurityException("没有证书");
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null, null);
+            int index = 0;
+            for (Certificate certificate : certificates) keyStore.setCertificateEntry("ca" + index++, certificate);
+            setTrustStore(keyStore);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * 设置信任管理，为null使用系统证书
+     */
+    public synchronized void setTrustManagers(TrustManager[] trustManagers) {
+        this.trustManagers = trustManagers;
+        reset();
+    }
+
+    /**
+     * 设置客户端证书，双向认证时使用
+     */
+    public synchronized void setKeyStore(KeyStore keyStore, char[] password) throws GeneralSecurityException {
+        if (keyStore == null) {
+            keyManagers = null;
+        } else {
+            KeyManagerFactory factory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            factory.init(keyStore, password);
+            keyManagers = factory.getKeyManagers();
+        }
+        reset();
+    }
+
+    /**
+     * 添加证书固定，格式："sha256/base64"，base64为证书公钥（SubjectPublicKeyInfo）的SHA-256
+     * 证书链中任意一个证书匹配即可，可以添加备用证书的pin，方便换证书
+     */
+    public synchronized void addPin(String pin) {
+        if (pin == null || !pin.startsWith("sha256/")) throw new IllegalArgumentException("pin格式：sha256/base64");
+        pins.add(pin);
+    }
+
+    public synchronized void clearPins() {
+        pins.clear();
+    }
+
+    /**
+     * 设置ALPN协议，如"h2"、"http/1.1"或自定义协议
+     */
+    public synchronized void setApplicationProtocols(String... applicationProtocols) {
+        this.applicationProtocols = applicationProtocols;
+    }
+
+    /**
+     * 设置启用的协议版本，如"TLSv1.2"，为空使用默认。安卓4.4默认没有启用TLSv1.2，可以在这里启用
+     */
+    public synchronized void setEnabledProtocols(String... enabledProtocols) {
+        this.enabledProtocols = enabledProtocols;
+    }
+
+    /**
+     * 设置SSLContext协议，默认"TLS"
+     */
+    public synchronized void setProtocol(String protocol) {
+        this.protocol = protocol;
+        reset();
+    }
+
+    /**
+     * 是否校验主机名，用ip连接且证书中没有ip时关闭，同时建议使用证书固定
+     */
+    public synchronized void setHostnameVerify(boolean hostnameVerify) {
+        this.hostnameVerify = hostnameVerify;
+    }
+
+    public synchronized void setHostnameVerifier(HostnameVerifier hostnameVerifier) {
+        this.hostnameVerifier = hostnameVerifier;
+    }
+
+    /**
+     * 会话缓存个数，0不限制
+     */
+    public synchronized void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = Math.max(0, sessionCacheSize);
+        if (sslContext != null) sslContext.getClientSessionContext().setSessionCacheSize(this.sessionCacheSize);
+    }
+
+    /**
+     * 会话缓存时间，秒，超过后重新完整握手
+     */
+    public synchronized void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = Math.max(0, sessionTimeout);
+        if (sslContext != null) sslContext.getClientSessionContext().setSessionTimeout(this.sessionTimeout);
+    }
+
+    public synchronized void setHandshakeTimeOut(int handshakeTimeOut) {
+        this.handshakeTimeOut = Math.max(1, handshakeTimeOut);
+    }
+
+    public int getHandshakeTimeOut() {
+        return handshakeTimeOut;
+    }
+
+    /**
+     * 配置已修改，下次使用时重新创建SSLContext
+     */
+    protected void reset() {
+        sslContext = null;
+        socketFactory = null;
+        synchronized (sessionIds) {
+            sessionIds.clear();
+        }
+    }
+
+    /**
+     * 获取共享的SSLContext，第一次调用时创建
+     */
+    public synchronized SSLContext getSslContext() throws GeneralSecurityException {
+        if (sslContext == null) {
+            SSLContext context = SSLContext.getInstance(protocol);
+            context.init(keyManagers, trustManagers, null);
+            SSLSessionContext sessionContext = context.getClientSessionContext();
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeout);
+            sslContext = context;
+            socketFactory = context.getSocketFactory();
+        }
+        return sslContext;
+    }
+
+    /**
+     * 获取共享的SSLSocketFactory
+     */
+    public synchronized SSLSocketFactory getSocketFactory() throws GeneralSecurityException {
+        getSslContext();
+        return socketFactory;
+    }
+
+    /**
+     * 新建连接并握手
+     */
+    public SSLSocket connect(String host, int port, int connectTimeOut) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeOut);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return wrap(socket, host, port);
+    }
+
+    /**
+     * 在已经连接的socket上握手，返回SSLSocket，关闭SSLSocket时同时关闭socket
+     * 会话按host:port缓存，同一个host:port再次握手时恢复会话
+     * 握手失败时关闭socket，抛出异常
+     *
+     * @param socket 已经连接的socket
+     * @param host   服务器地址，用于恢复会话、SNI、主机名校验
+     * @param port   服务器端口
+     */
+    public SSLSocket wrap(Socket socket, String host, int port) throws IOException {
+        SSLSocket sslSocket;
+        String[] enabledProtocols;
+        String[] applicationProtocols;
+        try {
+            SSLSocketFactory factory;
+            synchronized (this) {
+                factory = getSocketFactory();
+                enabledProtocols = this.enabledProtocols;
+                applicationProtocols = this.applicationProtocols;
+            }
+            sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+        } catch (GeneralSecurityException e) {
+            failCount.incrementAndGet();
+            socket.close();
+            throw new IOException("创建SSLContext失败：" + e.getMessage(), e);
+        } catch (IOException e) {
+            failCount.incrementAndGet();
+            socket.close();
+            throw e;
+        }
+        try {
+            sslSocket.setUseClientMode(true);
+            if (enabledProtocols != null && enabledProtocols.length > 0) sslSocket.setEnabledProtocols(enabledProtocols);
+            if (applicationProtocols != null && applicationProtocols.length > 0) setApplicationProtocols(sslSocket, applicationProtocols);
+            int soTimeout = sslSocket.getSoTimeout();
+            sslSocket.setSoTimeout(handshakeTimeOut);
+            long start = System.currentTimeMillis();
+            sslSocket.startHandshake();
+            long time = System.currentTimeMillis() - start;
+            SSLSession session = sslSocket.getSession();
+            verify(host, session);
+            if (isResumed(session, start)) {
+                resumeCount.incrementAndGet();
+                resumeTime.addAndGet(time);
+            } else {
+                fullTime.addAndGet(time);
+            }
+            handshakeCount.incrementAndGet();
+            sslSocket.setSoTimeout(soTimeout);
+            return sslSocket;
+        } catch (IOException e) {
+            failCount.incrementAndGet();
+            sslSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 握手后校验主机名和证书固定
+     */
+    protected void verify(String host, SSLSession session) throws IOException {
+        HostnameVerifier verifier;
+        String[] pins;
+        synchronized (this) {
+            verifier = !hostnameVerify ? null : hostnameVerifier != null ? hostnameVerifier : HttpsURLConnection.getDefaultHostnameVerifier();
+            pins = this.pins.toArray(new String[0]);
+        }
+        if (verifier != null && !verifier.verify(host, session))
+            throw new SSLPeerUnverifiedException("主机名校验失败：" + host);
+        if (pins.length == 0) return;
+        Certificate[] certificates = session.getPeerCertificates();
+        StringBuilder actual = new StringBuilder();
+        for (Certificate certificate : certificates) {
+            String pin = pin(certificate);
+            for (String p : pins) if (p.equals(pin)) return;
+            actual.append("\n").append(pin);
+        }
+        pinFailCount.incrementAndGet();
+        throw new SSLPeerUnverifiedException("证书固定校验失败，服务器证书：" + actual);
+    }
+
+    /**
+     * 是否恢复的会话：会话ID已经握手过，或者会话在握手之前就已经创建
+     */
+    protected boolean isResumed(SSLSession session, long start) {
+        byte[] id = session.getId();
+        boolean resumed = session.getCreationTime() < start;
+        if (id != null && id.length > 0) {
+            String key = YBase64.encode(id);
+            synchronized (sessionIds) {
+                if (sessionIds.put(key, Boolean.TRUE) != null) resumed = true;
+            }
+        }
+        return resumed;
+    }
+
+    /**
+     * 计算证书的pin，"sha256/" + 公钥SHA-256的base64，可以用于打印服务器证书的pin
+     */
+    public static String pin(Certificate certificate) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getPublicKey().getEncoded());
+            return "sha256/" + YBase64.encode(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 设置ALPN，安卓10以上、Java 9以上用SSLParameters.setApplicationProtocols，安卓5.0~9.0反射Conscrypt的setAlpnProtocols，都没有时忽略
+     */
+    protected static void setApplicationProtocols(SSLSocket socket, String[] protocols) {
+        try {
+            Method method = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+            SSLParameters parameters = socket.getSSLParameters();
+            method.invoke(parameters, (Object) protocols);
+            socket.setSSLParameters(parameters);
+            return;
+        } catch (NoSuchMethodException ignored) {
+        } catch (Exception e) {
+            return;
+        }
+        try {
+            Method method = socket.getClass().getMethod("setAlpnProtocols", byte[].class);
+            method.invoke(socket, (Object) alpnWireFormat(protocols));
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * 获取协商的ALPN协议，没有协商或者不支持返回null
+     */
+    public static String getApplicationProtocol(SSLSocket socket) {
+        try {
+            Object protocol = SSLSocket.class.getMethod("getApplicationProtocol").invoke(socket);
+            return protocol == null || "".equals(protocol) ? null : (String) protocol;
+        } catch (NoSuchMethodException ignored) {
+        } catch (Exception e) {
+            return null;
+        }
+        try {
+            byte[] protocol = (byte[]) socket.getClass().getMethod("getAlpnSelectedProtocol").invoke(socket);
+            return protocol == null ? null : new String(protocol, StandardCharsets.US_ASCII);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * ALPN协议列表的编码，每个协议前加一个字节长度
+     */
+    protected static byte[] alpnWireFormat(String[] protocols) {
+        int length = 0;
+        for (String protocol : protocols) length += 1 + protocol.length();
+        byte[] bytes = new byte[length];
+        int index = 0;
+        for (String protocol : protocols) {
+            byte[] name = protocol.getBytes(StandardCharsets.US_ASCII);
+            bytes[index++] = (byte) name.length;
+            System.arraycopy(name, 0, bytes, index, name.length);
+            index += name.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * 统计信息
+     */
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.handshakeCount = handshakeCount.get();
+        stats.resumeCount = resumeCount.get();
+        stats.failCount = failCount.get();
+        stats.pinFailCount = pinFailCount.get();
+        stats.fullTime = fullTime.get();
+        stats.resumeTime = resumeTime.get();
+        SSLContext context;
+        synchronized (this) {
+            context = sslContext;
+        }
+        if (context != null) {
+            Enumeration<byte[]> ids = context.getClientSessionContext().getIds();
+            while (ids.hasMoreElements()) {
+                ids.nextElement();
+                stats.cachedSessions++;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 统计信息
+     */
+    public static class Stats {
+        public long handshakeCount;// 握手成功次数，包括恢复会话
+        public long resumeCount;// 恢复会话次数
+        public long failCount;// 握手失败次数
+        public long pinFailCount;// 证书固定校验失败次数
+        public long fullTime;// 完整握手总耗时
+        public long resumeTime;// 恢复会话总耗时
+        public int cachedSessions;// 当前缓存的会话数
+
+        // 完整握手次数
+        public long getFullCount() {
+            return handshakeCount - resumeCount;
+        }
+
+        // 恢复率
+        public double getResumeRatio() {
+            return handshakeCount == 0 ? 0 : (double) resumeCount / handshakeCount;
+        }
+
+        @Override
+        public String toString() {
+            long fullCount = getFullCount();
+            return "握手：" + handshakeCount + "，完整握手：" + fullCount + "，平均" + (fullCount == 0 ? 0 : fullTime / fullCount) + "ms"
+                    + "，恢复会话：" + resumeCount + "，平均" + (resumeCount == 0 ? 0 : resumeTime / resumeCount) + "ms"
+                    + "，恢复率：" + String.format("%.1f", getResumeRatio() * 100) + "%"
+                    + "，失败：" + failCount + "，证书固定失败：" + pinFailCount + "，缓存会话：" + cachedSessions;
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package com.yujing.socket
 
+import android.os.Build
+import androidx.annotation.RequiresApi
 import com.yujing.bus.YBusUtil
 import com.yujing.contract.YListener1
 import com.yujing.utils.YBytes
 import com.yujing.utils.YConvert
 import com.yujing.utils.YLog
 import com.yujing.utils.YThread
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.suspendCancellableCoroutine
 import java.net.*
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 
 /**
  * Udp通信
@@ -25,6 +34,28 @@ yUdp?.readListener= YListener1<ByteArray> {
     textView1.text=YConvert.bytesToHexString(it)
 }
 
+//高频数据，按帧合并回调，一帧回调一次List
+yUdp?.frameBatcher = YFrameBatcher<ByteArray>(YFrameBatcher.BatchListener { list ->
+    textView1.text = YConvert.bytesToHexString(list.last())
+})
+
+//DatagramChannel模式，通道一直打开，发送不会关闭接收，接收缓存重复使用
+yUdp?.nio = true
+//原始数据报，在事件循环线程中回调借出的缓存，不复制，设置后不再回调readListener、frameBatcher、YBus
+yUdp?.packetListener = YUdpChannel.PacketListener { packet ->
+    parse(packet.buffer)
+}
+
+//可靠UDP，对端也使用YUdpReliable，大数据自动分片，丢包自动重传，收到的是完整消息
+yUdp?.reliable = true
+yUdp?.sendReliable(bigData)?.addListener { YLog.i("发送" + if (it.isSuccess) "成功" else "失败") }
+YLog.i(yUdp?.reliableChannel?.stats.toString())
+
+//Flow，在Dispatchers.Default中解析，缓冲满时暂停读取，界面只收集结果
+lifecycleScope.launch {
+    yUdp!!.receiveFlow(64, YBufferPolicy.SUSPEND).decode { parse(it) }.flowOn(Dispatchers.Default).collect { textView1.text = it.toString() }
+}
+
 //或者
 @YBus(YUdp.UdpReceive)
 fun receive(value: ByteArray) {
@@ -47,6 +78,16 @@ YUdp.sendSyncTime("192.168.6.3", 8080, data, 1000)
 
 //1秒内，能读多少度多少，但是不超过16384，超过立即返回
 YUdp.sendSyncLength("192.168.6.3", 8080, data, 16384, 1000)
+
+发现（广播、组播）:
+
+//广播查询，1秒内收集全部设备应答，每收到一个回调一次
+YUdp.discover("255.255.255.255", 8080, data, 1000) { address, bytes ->
+    textView1.append("${address.hostString}:${YConvert.bytesToHexString(bytes)}\n")
+}.addListener { YLog.i("共发现${it.now.size}个设备") }
+
+//协程
+lifecycleScope.launch { val devices = YUdp.discoverAwait("239.255.255.250", 8080, data, 1000) }
 */
 class YUdp(var ip: String, var port: Int) {
     //一次最多读取多长的数据
@@ -67,9 +108,47 @@ class YUdp(var ip: String, var port: Int) {
     //YBus-Tag
     var tag = defaultTag
 
+    //按帧合并回调，高频数据时使用，设置后不再逐条回调readListener
+    var frameBatcher: YFrameBatcher<ByteArray>? = null
+
+    //DatagramChannel模式，一个通道一直打开，在共享的YSocketLoop上收发，发送不会关闭、重建接收，接收缓存重复使用
+    var nio = false
+
+    //DatagramChannel模式接收缓存最多个数，全部借出时暂停读取
+    var poolSize = 64
+
+    //DatagramChannel模式原始接收监听，在事件循环线程中回调借出的缓存，不复制；设置后不再回调readListener、frameBatcher、YBus
+    var packetListener: YUdpChannel.PacketListener? = null
+
+    //可靠UDP模式，在DatagramChannel模式上加序号、选择确认、自适应重传、滑动窗口、分片重组，对端也必须使用YUdpReliable
+    //大于MTU的数据自动分片，收到的是完整消息，丢包、乱序自动处理
+    var reliable = false
+
+    //可靠UDP模式的可靠通道
+    @Volatile
+    var reliableChannel: YUdpReliable? = null
+        private set
+
+    //DatagramChannel模式的通道
+    @Volatile
+    var channel: YUdpChannel? = null
+        private set
+
     //读取线程
     private var readThread: Thread? = null
 
+    //通道当前发送地址
+    private var channelRemote: String? = null
+
+    //收发统计，可以取快照或设置定时推送
+    val metrics = YSocketMetrics()
+
+    //接收Flow，在读取线程或事件循环线程中放进缓冲
+    private val receiveSinks = CopyOnWriteArrayList<YReceiveSink>()
+
+    //暂停读取的次数，多个收集方都恢复后才继续读取
+    private var readPauseCount = 0
+
     fun start() = send(ByteArray(0))
 
     fun reStart() = start()
@@ -82,11 +161,21 @@ class YUdp(var ip: String, var port: Int) {
 
     //同步发送
     fun send(data: ByteArray) {
+        if (data.isNotEmpty()) metrics.onWrite(data.size)
+        if (reliable) {
+            if (data.isNotEmpty()) sendReliable(data)
+            else openChannel()
+            return
+        }
+        if (nio) {
+            sendNio(data)
+            return
+        }
         val thread = Thread {
             try {
                 onDestroy()
                 datagramSocket = DatagramSocket()
-                if (showLog) YLog.i("UDP发送数据", YConvert.bytesToHexString(data))
+                if (showLog) YLog.i("UDP发送数据", YSocketMetrics.toLogString(data))
                 datagramSocket?.send(
                     DatagramPacket(data, data.size, InetAddress.getByName(ip), port)
                 )
@@ -118,9 +207,7 @@ class YUdp(var ip: String, var port: Int) {
                     //2.取出数据
                     val bytes = ByteArray(datagramPacketRead.length)
                     System.arraycopy(tempRead, 0, bytes, 0, datagramPacketRead.length)
-                    if (showLog) YLog.i("UDP收到数据", YConvert.bytesToHexString(bytes))
-                    YThread.runOnUiThread { readListener?.value(bytes) }
-                    YBusUtil.post(tag, bytes)
+                    onReceive(bytes)
                 } catch (e: SocketException) {
                     if ("Socket closed" == e.message && showLog) YLog.i("读取数据时Socket关闭")
                     Thread.currentThread().interrupt()
@@ -141,13 +228,125 @@ class YUdp(var ip: String, var port: Int) {
         readThread?.start()
     }
 
+    private fun onReceive(bytes: ByteArray) {
+        metrics.onRead(bytes.size)
+        if (showLog) YLog.i("UDP收到数据", YSocketMetrics.toLogString(bytes))
+        for (sink in receiveSinks) sink.offer(bytes)
+        val batcher = frameBatcher
+        if (batcher != null) batcher.add(bytes)
+        else YThread.runOnUiThread { readListener?.value(bytes) }
+        YBusUtil.post(tag, bytes)
+    }
+
+    /**
+     * 接收Flow，收集方按自己的速度处理，不影响readListener、frameBatcher、YBus
+     * 缓冲满时SUSPEND：普通模式读取线程阻塞等待，DatagramChannel、可靠模式暂停读取，数据报留在内核缓冲区，满了由内核丢弃
+     * 设置了packetListener时收不到数据，可以同时有多个收集方，都恢复后才继续读取
+     * 举例：
+     * lifecycleScope.launch { yUdp.receiveFlow(policy = YBufferPolicy.CONFLATE).collect { textView1.text = YConvert.bytesToHexString(it) } }
+     *
+     * @param capacity 缓冲条数
+     * @param policy   缓冲满时的策略
+     */
+    fun receiveFlow(capacity: Int = 64, policy: YBufferPolicy = YBufferPolicy.SUSPEND): Flow<ByteArray> =
+        receiveFlowOf(capacity, policy, { paused -> setReadPaused(paused) }) { sink ->
+            receiveSinks.add(sink)
+            return@receiveFlowOf { receiveSinks.remove(sink) }
+        }
+
+    /**
+     * 暂停或恢复读取，按次数计算，只有DatagramChannel、可靠模式支持
+     */
+    @Synchronized
+    private fun setReadPaused(paused: Boolean): Boolean {
+        val c = channel ?: return false
+        if (paused) {
+            if (readPauseCount++ == 0) c.setReadPaused(true)
+        } else if (readPauseCount > 0 && --readPauseCount == 0) {
+            c.setReadPaused(false)
+        }
+        return true
+    }
+
+    /**
+     * 可靠发送，对端全部确认后成功，需要reliable = true
+     * 举例：
+     * yUdp?.sendReliable(config)?.addListener { YLog.i("发送" + if (it.isSuccess) "成功" else "失败") }
+     */
+    fun sendReliable(data: ByteArray): YFuture<Boolean> {
+        if (!reliable) return YFuture.failed(IllegalStateException("没有开启可靠UDP模式"))
+        val c = openChannel()
+        if (!updateRemote(c)) return YFuture.failed(UnknownHostException(ip))
+        val r = reliableChannel ?: return YFuture.failed(IllegalStateException("可靠通道已关闭"))
+        if (showLog) YLog.i("UDP可靠发送数据", "${data.size}字节")
+        return r.send(data).addListener {
+            if (!it.isSuccess && showLog) YLog.e("可靠发送失败:" + it.cause?.message)
+        }
+    }
+
+    private fun updateRemote(c: YUdpChannel): Boolean {
+        try {
+            val remote = "$ip:$port"
+            if (remote != channelRemote) {
+                c.setRemote(ip, port)
+                channelRemote = remote
+            }
+            return true
+        } catch (e: Exception) {
+            if (showLog) YLog.e("发送数据时异常:" + e.message, e)
+            return false
+        }
+    }
+
+    //DatagramChannel模式发送，只放进发送队列，不影响接收
+    private fun sendNio(data: ByteArray) {
+        val c = openChannel()
+        if (!updateRemote(c)) return
+        if (showLog) YLog.i("UDP发送数据", YSocketMetrics.toLogString(data))
+        c.send(data).addListener {
+            if (!it.isSuccess && showLog) YLog.e("发送数据时异常:" + it.cause?.message)
+        }
+    }
+
+    @Synchronized
+    private fun openChannel(): YUdpChannel {
+        channel?.let { return it }
+        // 可靠模式接收缓存至少放得下一个分片
+        val c = YUdpChannel(YSocketLoop.getDefault(), if (reliable) maxOf(readMaxLength, 1500) else readMaxLength, poolSize)
+        c.setShowLog(showLog)
+        if (reliable) {
+            val r = YUdpReliable(c)
+            r.setShowLog(showLog)
+            r.setMessageListener { onReceive(it) }
+            reliableChannel = r
+        } else {
+            c.setPacketListener { packet ->
+                val listener = packetListener
+                if (listener != null) listener.onPacket(packet)
+                else onReceive(packet.copy())
+            }
+        }
+        channelRemote = null
+        updateRemote(c)
+        // 还有收集方暂停着，新通道也先不读取
+        if (readPauseCount > 0) c.setReadPaused(true)
+        c.open()
+        channel = c
+        return c
+    }
+
     fun onDestroy() {
         readThread?.interrupt()
         datagramSocket?.close()
+        val c = channel
+        channel = null
+        reliableChannel?.close()
+        reliableChannel = null
+        c?.close()
     }
 
     fun sendSync(data: ByteArray): ByteArray {
-        onDestroy()
+        if (!nio && !reliable) onDestroy()
         return sendSync(
             data = data,
             ip = ip,
@@ -204,6 +403,101 @@ class YUdp(var ip: String, var port: Int) {
             return bytes
         }
 
+        /**
+         * 异步发送，在共享的YSocketLoop上发送并等待一个数据报返回，不占用线程
+         * 超时future失败，异常为TimeoutException
+         * @param readMaxLength 接收数据最大长度，超过部分抛弃
+         */
+        /*举例：
+        //同时查询整个网段，只用一个线程
+        for (i in 1..254) YUdp.sendFuture("192.168.6.$i", 8080, data, 1024, 1000).addListener { if (it.isSuccess) YLog.i("192.168.6.$i") }
+        */
+        @JvmStatic
+        @JvmOverloads
+        fun sendFuture(ip: String, port: Int, data: ByteArray, readMaxLength: Int = 1024, timeout: Int = 1000): YFuture<ByteArray> {
+            return YNioExchange.udp(YSocketLoop.getDefault(), ip, port, data, readMaxLength, timeout.toLong())
+        }
+
+        /**
+         * 异步发送，返回CompletableFuture，安卓7.0以上，说明见sendFuture
+         */
+        /*举例：
+        YUdp.sendAsync("192.168.6.3", 8080, data, 2048, 1000).thenAccept { YLog.i(YConvert.bytesToHexString(it)) }
+        */
+        @JvmStatic
+        @JvmOverloads
+        @RequiresApi(Build.VERSION_CODES.N)
+        fun sendAsync(ip: String, port: Int, data: ByteArray, readMaxLength: Int = 1024, timeout: Int = 1000): CompletableFuture<ByteArray> {
+            return YNioExchange.toCompletableFuture(sendFuture(ip, port, data, readMaxLength, timeout))
+        }
+
+        /**
+         * 协程发送，挂起不阻塞线程，说明见sendFuture，超时抛出TimeoutException
+         */
+        /*举例：
+        lifecycleScope.launch { val bytes = YUdp.sendAwait("192.168.6.3", 8080, data, 2048, 1000) }
+        */
+        suspend fun sendAwait(ip: String, port: Int, data: ByteArray, readMaxLength: Int = 1024, timeout: Int = 1000): ByteArray {
+            return suspendCancellableCoroutine { continuation ->
+                val future = sendFuture(ip, port, data, readMaxLength, timeout)
+                continuation.invokeOnCancellation { future.fail(CancellationException("请求取消")) }
+                future.addListener {
+                    if (it.isSuccess) continuation.resume(it.now) else continuation.resumeWithException(it.cause)
+                }
+            }
+        }
+
+        /**
+         * 发现，向广播或组播地址发送一个数据报，在window时间内收集所有设备的应答
+         * 原来逐个sendSync需要 设备数×timeout，现在只需要一个window
+         * @param ip 广播地址（如255.255.255.255、192.168.6.255）或者组播地址（如239.255.255.250）
+         * @param window 收集时间窗口，毫秒
+         * @param readMaxLength 接收数据最大长度，超过部分抛弃
+         * @param expected 收到多少个设备应答后提前结束，0不提前结束
+         * @param listener 每收到一个设备应答回调一次，主线程回调
+         * @return 结果按设备地址，同一设备只保留第一个应答
+         */
+        /*举例：
+        YUdp.discover("255.255.255.255", 8080, data, 1000) { address, bytes -> YLog.i("发现：$address") }
+        */
+        @JvmStatic
+        @JvmOverloads
+        fun discover(
+            ip: String, port: Int, data: ByteArray, window: Int = 1000, readMaxLength: Int = 1024, expected: Int = 0,
+            listener: ((InetSocketAddress, ByteArray) -> Unit)? = null
+        ): YFuture<Map<InetSocketAddress, ByteArray>> {
+            val responseListener = if (listener == null) null else YNioExchange.ResponseListener { address, bytes ->
+                if (showLog) YLog.i("UDP发现", "$address:${YConvert.bytesToHexString(bytes)}")
+                YThread.runOnUiThread { listener.invoke(address, bytes) }
+            }
+            return YNioExchange.discover(YSocketLoop.getDefault(), ip, port, data, readMaxLength, window.toLong(), expected, responseListener)
+        }
+
+        /**
+         * 发现，同步，阻塞window时间，说明见discover
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun discoverSync(ip: String, port: Int, data: ByteArray, window: Int = 1000, readMaxLength: Int = 1024, expected: Int = 0): Map<InetSocketAddress, ByteArray> {
+            return discover(ip, port, data, window, readMaxLength, expected).get()
+        }
+
+        /**
+         * 发现，协程，挂起window时间，说明见discover
+         */
+        suspend fun discoverAwait(
+            ip: String, port: Int, data: ByteArray, window: Int = 1000, readMaxLength: Int = 1024, expected: Int = 0,
+            listener: ((InetSocketAddress, ByteArray) -> Unit)? = null
+        ): Map<InetSocketAddress, ByteArray> {
+            return suspendCancellableCoroutine { continuation ->
+                val future = discover(ip, port, data, window, readMaxLength, expected, listener)
+                continuation.invokeOnCancellation { future.fail(CancellationException("发现取消")) }
+                future.addListener {
+                    if (it.isSuccess) continuation.resume(it.now) else continuation.resumeWithException(it.cause)
+                }
+            }
+        }
+
         /**
          * 同步发送，连续读取指定时间，读取时间够了之后退出
          * @param data 发送的数据
@@ -263,7 +557,7 @@ class YUdp(var ip: String, var port: Int) {
                     System.arraycopy(tempRead, 0, bytes, 0, datagramPacketRead.length)
                     yBytes.addByte(bytes)
                     //如果数据够了就退出
-                    if (yBytes.bytes.size >= maxLength) break
+                    if (yBytes.size() >= maxLength) break
                 } catch (ignore: Exception) {
                 }
             }
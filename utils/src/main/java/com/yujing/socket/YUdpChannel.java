@@ -0,0 +1,451 @@
+package com.yujing.socket;
+
+import com.yujing.utils.YLog;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * UDP长期通道，DatagramChannel + YSocketLoop
+ * 1.通道一直打开，发送只是把数据报放进发送队列，不会关闭、重建接收，发送期间到达的数据报不会丢失。
+ * 2.接收缓存从有上限的直接内存缓存池借出，数据报以借出的缓存交给监听，不复制。
+ * 3.监听返回后缓存自动归还；需要在其他线程处理时调用packet.retain()，处理完调用packet.release()。
+ * 4.缓存全部借出时暂停读取（数据报留在内核缓冲区），有归还后恢复，内存不会无限增长。
+ * 接收监听在事件循环线程中回调，不要做耗时操作。
+ *
+ * @author 余静 2026年10月18日17:05:36
+ */
+/*
+使用方法：
+YUdpChannel channel = new YUdpChannel(YSocketLoop.getDefault(), 2048, 64);
+channel.setRemote("192.168.6.3", 8080);
+channel.setPacketListener(packet -> {
+    ByteBuffer buffer = packet.getBuffer();//借出的缓存，position到limit为数据
+    //需要保留数据时复制
+    byte[] bytes = packet.copy();
+});
+channel.open();
+channel.send(data);
+//发给其他地址
+channel.send(ByteBuffer.wrap(data), new InetSocketAddress("192.168.6.4", 8080));
+//关闭
+channel.close();
+ */
+@SuppressWarnings("unused")
+public class YUdpChannel implements YSocketLoop.Handler {
+    protected static final int MAX_READ_PER_READY = 64;// 每次就绪最多读取数据报个数，避免其他通道饿死
+    protected final YSocketLoop loop;
+    protected final YBufferPool pool;// 接收缓存池
+    protected final ConcurrentLinkedQueue<Outgoing> sendQueue = new ConcurrentLinkedQueue<>();// 发送队列
+    protected final AtomicBoolean flushPending = new AtomicBoolean();// 是否已经安排发送
+    protected final Runnable flushTask = () -> {
+        flushPending.set(false);
+        flush();
+    };
+    protected DatagramChannel channel;
+    protected SelectionKey key;
+    protected volatile SocketAddress remote;// 默认发送地址
+    protected int localPort = 0;// 本地端口，0随机
+    protected boolean broadcast = false;// 是否允许发送广播
+    protected volatile PacketListener packetListener;// 接收监听，在事件循环线程中回调
+    protected volatile boolean open;// 是否已经打开
+    protected volatile boolean closed;// 已经关闭，再次open之前发送直接失败
+    protected boolean readPaused;// 缓存借完，暂停读取
+    protected volatile boolean holdRead;// 接收方处理不过来，暂停读取，恢复前缓存归还也不读取
+    protected boolean showLog = false;
+    // 统计，只在事件循环线程中修改
+    protected volatile long receiveCount;// 接收数据报个数
+    protected volatile long receiveBytes;// 接收字节数
+    protected volatile long sendCount;// 发送数据报个数
+    protected volatile long sendBytes;// 发送字节数
+    protected volatile long sendFailCount;// 发送失败个数
+    protected volatile long pauseCount;// 缓存借完暂停读取次数
+
+    /**
+     * 默认事件循环，缓存2048字节，最多64个
+     */
+    public YUdpChannel() {
+        this(YSocketLoop.getDefault(), 2048, 64);
+    }
+
+    /**
+     * @param loop       事件循环
+     * @param bufferSize 接收缓存大小，即一个数据报最大长度，超过部分抛弃
+     * @param poolSize   接收缓存最多个数
+     */
+    public YUdpChannel(YSocketLoop loop, int bufferSize, int poolSize) {
+        this.loop = loop;
+        this.pool = new YBufferPool(bufferSize, poolSize);
+        pool.setReleaseListener(() -> loop.execute(this::resumeRead));
+    }
+
+    public void setShowLog(boolean showLog) {
+        this.showLog = showLog;
+    }
+
+    /**
+     * 设置默认发送地址，域名在当前线程解析
+     */
+    public void setRemote(String ip, int port) {
+        this.remote = new InetSocketAddress(ip, port);
+    }
+
+    public SocketAddress getRemote() {
+        return remote;
+    }
+
+    /**
+     * 设置本地端口，open之前调用，0随机
+     */
+    public void setLocalPort(int localPort) {
+        this.localPort = localPort;
+    }
+
+    /**
+     * 是否允许发送广播，open之前调用
+     */
+    public void setBroadcast(boolean broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    /**
+     * 设置接收监听，在事件循环线程中回调
+     */
+    public void setPacketListener(PacketListener packetListener) {
+        this.packetListener = packetListener;
+    }
+
+    public YBufferPool getPool() {
+        return pool;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * 获取实际绑定的本地端口，没有打开返回-1
+     */
+    public int getBoundPort() {
+        DatagramChannel c = channel;
+        return c == null ? -1 : c.socket().getLocalPort();
+    }
+
+    /**
+     * 打开通道，返回是否成功
+     */
+    public YFuture<Boolean> open() {
+        YFuture<Boolean> future = new YFuture<>();
+        closed = false;
+        loop.execute(() -> {
+            if (open) {
+                future.complete(true);
+                return;
+            }
+            try {
+                channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setBroadcast(broadcast);
+                channel.socket().bind(new InetSocketAddress(localPort));
+                key = loop.register(channel, holdRead ? 0 : SelectionKey.OP_READ, this);
+                readPaused = holdRead;
+                open = true;
+                printLog("UDP通道打开，本地端口：" + channel.socket().getLocalPort());
+                future.complete(true);
+                flush();
+            } catch (Exception e) {
+                printLog("UDP通道打开失败：" + e.getMessage());
+                closeChannel();
+                future.fail(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 关闭通道，未发送的数据报失败
+     */
+    public void close() {
+        closed = true;
+        loop.execute(this::closeChannel);
+    }
+
+    /**
+     * 发送到默认地址
+     */
+    public YFuture<Boolean> send(byte[] data) {
+        return send(ByteBuffer.wrap(data), remote);
+    }
+
+    /**
+     * 发送数据报，任意线程调用，不阻塞
+     *
+     * @param data   数据，发送前不要修改
+     * @param target 目标地址
+     * @return 发送结果
+     */
+    public YFuture<Boolean> send(ByteBuffer data, SocketAddress target) {
+        YFuture<Boolean> future = new YFuture<>();
+        if (target == null) {
+            future.fail(new IOException("没有设置发送地址"));
+            return future;
+        }
+        if (closed) {
+            future.fail(new IOException("UDP通道已关闭"));
+            return future;
+        }
+        sendQueue.offer(new Outgoing(data, target, future));
+        if (flushPending.compareAndSet(false, true)) loop.execute(flushTask);
+        return future;
+    }
+
+    @Override
+    public void onReady(SelectionKey key) {
+        if (key.isValid() && key.isReadable()) read();
+        if (key.isValid() && key.isWritable()) flush();
+    }
+
+    protected void read() {
+        for (int i = 0; i < MAX_READ_PER_READY && open; i++) {
+            ByteBuffer buffer = pool.acquire();
+            if (buffer == null) {
+                pauseRead();
+                return;
+            }
+            SocketAddress from;
+            try {
+                from = channel.receive(buffer);
+            } catch (IOException e) {
+                pool.release(buffer);
+                printLog("UDP接收异常：" + e.getMessage());
+                return;
+            }
+            if (from == null) {
+                pool.release(buffer);
+                return;
+            }
+            buffer.flip();
+            receiveCount++;
+            receiveBytes += buffer.remaining();
+            Packet packet = new Packet(pool, buffer, from);
+            try {
+                PacketListener listener = packetListener;
+                if (listener != null) listener.onPacket(packet);
+            } catch (Throwable e) {
+                YLog.e("YUdpChannel", "接收回调异常：" + e.getMessage(), e);
+            } finally {
+                if (!packet.retained) packet.release();
+            }
+        }
+    }
+
+    /**
+     * 暂停、恢复读取，接收方处理不过来时使用，数据报留在内核缓冲区，满了由内核丢弃
+     */
+    public void setReadPaused(boolean paused) {
+        // 多次调用以最后一次为准
+        holdRead = paused;
+        loop.execute(() -> {
+            if (!holdRead) {
+                resumeRead();
+                return;
+            }
+            if (readPaused || key == null || !key.isValid()) return;
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        });
+    }
+
+    /**
+     * 缓存借完，暂停读取，数据报留在内核缓冲区
+     */
+    protected void pauseRead() {
+        if (readPaused || key == null || !key.isValid()) return;
+        readPaused = true;
+        pauseCount++;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        printLog("接收缓存已借完，暂停读取");
+    }
+
+    protected void resumeRead() {
+        if (holdRead || !readPaused || key == null || !key.isValid()) return;
+        readPaused = false;
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+    }
+
+    /**
+     * 发送队列中的数据报，内核缓冲区满时等待可写
+     */
+    protected void flush() {
+        if (!open) return;
+        Outgoing outgoing;
+        while ((outgoing = sendQueue.peek()) != null) {
+            int size = outgoing.data.remaining();
+            try {
+                if (channel.send(outgoing.data, outgoing.target) == 0 && size > 0) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                sendQueue.poll();
+                sendCount++;
+                sendBytes += size;
+                outgoing.future.complete(true);
+            } catch (IOException e) {
+                // 单个数据报失败不影响通道，如地址不可达
+                sendQueue.poll();
+                sendFailCount++;
+                outgoing.future.fail(e);
+            }
+        }
+        if (key != null && key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    protected void closeChannel() {
+        open = false;
+        if (key != null) key.cancel();
+        key = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                printLog("closeChannel:" + e.getMessage());
+            }
+        }
+        channel = null;
+        Outgoing outgoing;
+        while ((outgoing = sendQueue.poll()) != null) outgoing.future.fail(new IOException("UDP通道关闭"));
+    }
+
+    protected void printLog(String str) {
+        if (showLog) YLog.d("YUdpChannel", str);
+    }
+
+    /**
+     * 统计信息
+     */
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.receiveCount = receiveCount;
+        stats.receiveBytes = receiveBytes;
+        stats.sendCount = sendCount;
+        stats.sendBytes = sendBytes;
+        stats.sendFailCount = sendFailCount;
+        stats.pauseCount = pauseCount;
+        stats.queued = sendQueue.size();
+        stats.pool = pool.getStats();
+        return stats;
+    }
+
+    /**
+     * 接收监听
+     */
+    public interface PacketListener {
+        /**
+         * 收到数据报，在事件循环线程中回调，返回后缓存自动归还，除非调用了packet.retain()
+         */
+        void onPacket(Packet packet);
+    }
+
+    /**
+     * 收到的数据报，缓存从缓存池借出
+     */
+    public static class Packet {
+        protected final YBufferPool pool;
+        protected final ByteBuffer buffer;
+        protected final SocketAddress address;
+        protected volatile boolean retained;// 是否由调用方负责归还
+        protected final AtomicBoolean released = new AtomicBoolean();
+
+        Packet(YBufferPool pool, ByteBuffer buffer, SocketAddress address) {
+            this.pool = pool;
+            this.buffer = buffer;
+            this.address = address;
+        }
+
+        /**
+         * 借出的缓存，position到limit为数据，归还后不能再使用
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * 发送方地址
+         */
+        public SocketAddress getAddress() {
+            return address;
+        }
+
+        /**
+         * 数据长度
+         */
+        public int length() {
+            return buffer.remaining();
+        }
+
+        /**
+         * 复制数据
+         */
+        public byte[] copy() {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
+
+        /**
+         * 保留缓存，监听返回后不自动归还，处理完必须调用release
+         */
+        public Packet retain() {
+            retained = true;
+            return this;
+        }
+
+        /**
+         * 归还缓存，重复调用无效
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) pool.release(buffer);
+        }
+    }
+
+    /**
+     * 待发送的数据报
+     */
+    protected static class Outgoing {
+        final ByteBuffer data;
+        final SocketAddress target;
+        final YFuture<Boolean> future;
+
+        Outgoing(ByteBuffer data, SocketAddress target, YFuture<Boolean> future) {
+            this.data = data;
+            this.target = target;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 统计信息
+     */
+    public static class Stats {
+        public long receiveCount;// 接收数据报个数
+        public long receiveBytes;// 接收字节数
+        public long sendCount;// 发送数据报个数
+        public long sendBytes;// 发送字节数
+        public long sendFailCount;// 发送失败个数
+        public long pauseCount;// 缓存借完暂停读取次数
+        public int queued;// 发送队列中的个数
+        public YBufferPool.Stats pool;// 缓存池
+
+        @Override
+        public String toString() {
+            return "接收：" + receiveCount + "个/" + receiveBytes + "字节，发送：" + sendCount + "个/" + sendBytes + "字节，发送失败：" + sendFailCount
+                    + "，暂停读取：" + pauseCount + "次，待发送：" + queued + "，缓存池：" + pool;
+        }
+    }
+}
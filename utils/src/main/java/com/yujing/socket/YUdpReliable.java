@@ -0,0 +1,626 @@
+package com.yujing.socket;
+
+import com.yujing.utils.YLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+/**
+ * 可靠UDP，建立在YUdpChannel之上，一个实例对应一个对端
+ * 1.分片：消息按mss切成多个分片，每个分片一个序号，接收方按序号重组，超过MTU的消息不会再被截断。
+ * 2.滑动窗口：从最小的未确认序号开始最多windowSize个分片，收到确认后继续发送，不用等每个分片往返一次。
+ * 3.选择确认：ACK带累计确认序号和之后32个序号的位图，丢一个分片只重发这一个；比已确认的最大序号小3个以上的分片立即快速重传。
+ * 4.RTT自适应重传：按RFC 6298计算srtt、rttvar，rto = srtt + 4 * rttvar，超时后rto翻倍；只用触发ACK的分片采样，重传过的分片不采样（Karn算法）。
+ * 5.会话：每次打开随机生成会话ID，对端重启后按新会话重新开始计算序号；DATA带发送方的累计确认序号，
+ * 接收方从它开始接收，会话开头的分片丢了也会等重传，不会把没收到的序号当成已经收到。
+ * 6.跳过：消息重传失败后它的序号不会再发送，发送方发送FORWARD让接收方跳过这些序号，后面的消息可以继续交付；
+ * 消息只在累计确认越过它的全部分片（接收方已经按顺序交付）后才成功，只被选择确认（还在接收方乱序缓存中）的不算成功。
+ * 全部状态只在事件循环线程中访问，消息监听在事件循环线程中回调，不要做耗时操作。
+ * <p>
+ * 数据报格式（大端）：
+ * DATA：0xA5 | 1 | 会话ID(4) | 序号(4) | 基准序号(4)，发送方的累计确认序号，小于它的已经送达或者放弃 | 分片下标(2) | 分片总数(2) | 数据
+ * ACK： 0xA5 | 2 | 会话ID(4) | 累计确认序号(4)，即下一个期望的序号 | 位图(4)，第i位表示累计确认序号+1+i已收到 | 触发这个ACK的序号(4)，用于采样RTT
+ * FORWARD：0xA5 | 3 | 会话ID(4) | 序号(4)，小于这个序号的不会再发送，接收方跳过没收到的
+ *
+ * @author 余静 2026年10月18日17:48:20
+ */
+/*
+使用方法：
+YUdpChannel channel = new YUdpChannel(YSocketLoop.getDefault(), 2048, 256);
+channel.setRemote("192.168.6.3", 8080);
+YUdpReliable reliable = new YUdpReliable(channel);
+reliable.setMessageListener(bytes -> YLog.i("收到完整消息：" + bytes.length));
+channel.open();
+//大于MTU的数据自动分片，全部确认后future成功，重传maxRetransmit次失败后future失败
+reliable.send(bigData).addListener(f -> YLog.i("发送" + (f.isSuccess() ? "成功" : "失败：" + f.getCause())));
+//统计
+YLog.i(reliable.getStats().toString());
+ */
+@SuppressWarnings("unused")
+public class YUdpReliable {
+    protected static final byte MAGIC = (byte) 0xA5;
+    protected static final byte TYPE_DATA = 1;
+    protected static final byte TYPE_ACK = 2;
+    protected static final byte TYPE_FORWARD = 3;
+    protected static final int DATA_HEAD = 18;// DATA头长度
+    protected static final int ACK_LENGTH = 18;// ACK长度
+    protected static final int FORWARD_LENGTH = 10;// FORWARD长度
+    protected static final int SACK_BITS = 32;// 选择确认位图位数
+    protected final YUdpChannel channel;
+    protected final YSocketLoop loop;
+    protected int mss = 1200;// 每个分片最大数据长度，加上头不超过常见的MTU
+    protected int windowSize = 128;// 滑动窗口，从最小的未确认序号开始最多发送多少个分片
+    protected int maxRetransmit = 10;// 一个分片最多重传次数，超过后消息失败
+    protected long minRto = 200;// 最小重传超时，毫秒
+    protected long maxRto = 1000 * 10;// 最大重传超时，毫秒
+    protected long tickTime = 20;// 重传检查间隔，毫秒
+    protected boolean showLog = false;
+    protected MessageListener messageListener;// 收到完整消息，在事件循环线程中回调
+    // 发送，只在事件循环线程中访问
+    protected final int session = new Random().nextInt();// 本端会话ID
+    protected int nextSeq;// 下一个发送序号
+    protected final ArrayDeque<Segment> unsent = new ArrayDeque<>();// 等待窗口的分片
+    protected final LinkedHashMap<Integer, Segment> inflight = new LinkedHashMap<>();// 已发送未确认的分片，按序号先后
+    protected long srtt;// 平滑RTT，纳秒，0表示还没有采样
+    protected long rttvar;// RTT偏差，纳秒
+    protected long rto = 1000;// 当前重传超时，毫秒
+    protected int lastAck;// 最后一次累计确认序号
+    protected int abandonedSeq;// 失败消息的最大序号，累计确认没有越过它之前要发送FORWARD
+    protected boolean abandoned;// 是否有失败消息的序号等待接收方跳过
+    protected long forwardDeadline;// 下次发送FORWARD的时间，纳秒
+    protected YSocketLoop.Timer tickTimer;// 重传检查定时
+    // 接收，只在事件循环线程中访问
+    protected Integer peerSession;// 对端会话ID
+    protected int expectedSeq;// 下一个期望的序号
+    protected final HashMap<Integer, Segment> outOfOrder = new HashMap<>();// 乱序到达的分片
+    protected final ByteArrayOutputStream reassembly = new ByteArrayOutputStream();// 正在重组的消息
+    protected int reassemblyCount;// 正在重组的消息分片总数，0表示没有
+    protected int reassemblyIndex;// 正在重组的消息下一个分片下标
+    protected boolean ackPending;// 本轮读取后需要发送ACK
+    protected SocketAddress ackTarget;// ACK发送地址
+    protected int lastReceivedSeq;// 最后收到的序号，放在ACK中用于对端采样RTT
+    protected final Runnable ackTask = this::sendAck;
+    // 统计
+    protected volatile long sendMessageCount;// 发送成功消息数
+    protected volatile long failMessageCount;// 发送失败消息数
+    protected volatile long sendSegmentCount;// 发送分片数（不含重传）
+    protected volatile long retransmitCount;// 超时重传次数
+    protected volatile long fastRetransmitCount;// 快速重传次数
+    protected volatile long receiveMessageCount;// 收到消息数
+    protected volatile long receiveSegmentCount;// 收到分片数
+    protected volatile long duplicateCount;// 收到重复分片数
+    protected volatile long outOfOrderCount;// 乱序到达分片数
+    protected volatile long invalidCount;// 格式错误或者超出窗口的数据报
+    protected volatile long skipCount;// 收到FORWARD后跳过的序号数
+
+    /**
+     * @param channel UDP通道，发送到channel.getRemote()，接管通道的接收监听
+     */
+    public YUdpReliable(YUdpChannel channel) {
+        this.channel = channel;
+        this.loop = channel.loop;
+        channel.setPacketListener(this::onPacket);
+    }
+
+    public void setShowLog(boolean showLog) {
+        this.showLog = showLog;
+    }
+
+    /**
+     * 每个分片最大数据长度，两端的接收缓存（YUdpChannel的bufferSize）必须大于mss+18
+     */
+    public void setMss(int mss) {
+        this.mss = Math.max(16, mss);
+    }
+
+    /**
+     * 滑动窗口大小，两端应该相同
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    public void setMaxRetransmit(int maxRetransmit) {
+        this.maxRetransmit = Math.max(1, maxRetransmit);
+    }
+
+    /**
+     * 重传超时范围，毫秒
+     */
+    public void setRto(long minRto, long maxRto) {
+        this.minRto = Math.max(1, minRto);
+        this.maxRto = Math.max(this.minRto, maxRto);
+    }
+
+    /**
+     * 收到完整消息监听，在事件循环线程中回调
+     */
+    public void setMessageListener(MessageListener messageListener) {
+        this.messageListener = messageListener;
+    }
+
+    /**
+     * 可靠发送，自动分片，任意线程调用
+     *
+     * @param data 消息
+     * @return 全部分片确认后成功，重传超过maxRetransmit次失败
+     */
+    public YFuture<Boolean> send(byte[] data) {
+        YFuture<Boolean> future = new YFuture<>();
+        int count = Math.max(1, (data.length + mss - 1) / mss);
+        if (count > 0xFFFF) {
+            future.fail(new IOException("消息太长：" + data.length));
+            return future;
+        }
+        loop.execute(() -> {
+            Message message = new Message(future, count);
+            for (int i = 0; i < count; i++) {
+                int offset = i * mss;
+                int length = Math.min(mss, data.length - offset);
+                int seq = nextSeq++;
+                ByteBuffer datagram = ByteBuffer.allocate(DATA_HEAD + length);
+                // 基准序号在每次发送时写入
+                datagram.put(MAGIC).put(TYPE_DATA).putInt(session).putInt(seq).putInt(0).putShort((short) i).putShort((short) count).put(data, offset, length);
+                datagram.flip();
+                unsent.addLast(new Segment(seq, datagram, message));
+                message.lastSeq = seq;
+            }
+            pump();
+        });
+        return future;
+    }
+
+    /**
+     * 关闭，未确认的消息失败
+     */
+    public void close() {
+        loop.execute(() -> failAll(new IOException("可靠UDP关闭")));
+    }
+
+    /**
+     * 窗口有空位时发送
+     */
+    protected void pump() {
+        SocketAddress remote = channel.getRemote();
+        if (remote == null) {
+            failAll(new IOException("没有设置发送地址"));
+            return;
+        }
+        while (!unsent.isEmpty()) {
+            // 窗口从最小的未确认序号开始，选择确认不会让窗口越过接收方的窗口
+            int base = inflight.isEmpty() ? unsent.peekFirst().seq : inflight.keySet().iterator().next();
+            if (unsent.peekFirst().seq - base >= windowSize) break;
+            Segment segment = unsent.pollFirst();
+            if (segment.message.future.isDone()) continue;
+            inflight.put(segment.seq, segment);
+            transmit(segment, remote);
+            sendSegmentCount++;
+        }
+        if (!inflight.isEmpty() && tickTimer == null) tickTimer = loop.schedule(this::tick, tickTime);
+    }
+
+    protected void transmit(Segment segment, SocketAddress remote) {
+        segment.datagram.putInt(10, lastAck);
+        segment.sentTime = System.nanoTime();
+        segment.deadline = segment.sentTime + rto * 1000_000L;
+        channel.send(segment.datagram.duplicate(), remote);
+    }
+
+    /**
+     * 检查超时重传
+     */
+    protected void tick() {
+        tickTimer = null;
+        if (inflight.isEmpty()) return;
+        SocketAddress remote = channel.getRemote();
+        long now = System.nanoTime();
+        boolean timeout = false;
+        Iterator<Segment> iterator = inflight.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment.message.future.isDone()) {
+                // 同一消息的其他分片已经失败
+                iterator.remove();
+                continue;
+            }
+            // 已经选择确认的不重传，等累计确认
+            if (segment.sacked || segment.deadline - now > 0) continue;
+            if (segment.seq - lastAck > SACK_BITS) {
+                // 超出选择确认范围的分片可能已经到达，只是还不能确认，等累计确认前进后再判断；对端一直没有回应时也要失败
+                if (++segment.waits > maxRetransmit) {
+                    iterator.remove();
+                    failMessage(segment.message, new IOException("等待" + maxRetransmit + "次没有确认，序号：" + segment.seq));
+                    continue;
+                }
+                segment.deadline = now + rto * 1000_000L;
+                continue;
+            }
+            if (segment.retransmits >= maxRetransmit) {
+                iterator.remove();
+                failMessage(segment.message, new IOException("重传" + maxRetransmit + "次没有确认，序号：" + segment.seq));
+                continue;
+            }
+            if (!timeout) {
+                // 一轮超时只退避一次
+                timeout = true;
+                rto = Math.min(maxRto, rto * 2);
+            }
+            segment.retransmits++;
+            retransmitCount++;
+            transmit(segment, remote);
+        }
+        pump();
+        sendForward(now);
+        if ((!inflight.isEmpty() || abandoned) && tickTimer == null) tickTimer = loop.schedule(this::tick, tickTime);
+    }
+
+    /**
+     * 有失败消息的序号时，让接收方跳到最小的未完成序号，累计确认越过失败的序号后停止
+     */
+    protected void sendForward(long now) {
+        if (!abandoned) return;
+        if (lastAck - abandonedSeq > 0) {
+            abandoned = false;
+            return;
+        }
+        if (forwardDeadline - now > 0) return;
+        SocketAddress remote = channel.getRemote();
+        if (remote == null) return;
+        int forward = nextSeq;
+        for (Segment segment : inflight.values()) {
+            if (!segment.message.future.isDone()) {
+                forward = segment.seq;
+                break;
+            }
+        }
+        for (Segment segment : unsent) {
+            if (segment.message.future.isDone()) continue;
+            if (segment.seq - forward < 0) forward = segment.seq;
+            break;
+        }
+        // 更小的序号还没有确认，等确认后再跳
+        if (forward - lastAck <= 0) return;
+        forwardDeadline = now + rto * 1000_000L;
+        ByteBuffer datagram = ByteBuffer.allocate(FORWARD_LENGTH);
+        datagram.put(MAGIC).put(TYPE_FORWARD).putInt(session).putInt(forward).flip();
+        channel.send(datagram, remote);
+    }
+
+    protected void onPacket(YUdpChannel.Packet packet) {
+        SocketAddress remote = channel.getRemote();
+        if (remote != null && !remote.equals(packet.getAddress())) return;
+        ByteBuffer buffer = packet.getBuffer();
+        if (buffer.remaining() < 2 || buffer.get(buffer.position()) != MAGIC) {
+            invalidCount++;
+            return;
+        }
+        byte type = buffer.get(buffer.position() + 1);
+        if (type == TYPE_DATA && buffer.remaining() >= DATA_HEAD) onData(buffer, packet.getAddress());
+        else if (type == TYPE_ACK && buffer.remaining() >= ACK_LENGTH) onAck(buffer);
+        else if (type == TYPE_FORWARD && buffer.remaining() >= FORWARD_LENGTH) onForward(buffer, packet.getAddress());
+        else invalidCount++;
+    }
+
+    protected void onData(ByteBuffer buffer, SocketAddress from) {
+        int start = buffer.position();
+        int peer = buffer.getInt(start + 2);
+        int seq = buffer.getInt(start + 6);
+        int base = buffer.getInt(start + 10);
+        if (peerSession == null || peerSession != peer) {
+            // 新会话（对端重启或者本端刚开始接收），从发送方的累计确认序号开始，之前没收到的分片等重传
+            if (peerSession != null) printLog("对端会话变化，重新开始接收");
+            peerSession = peer;
+            expectedSeq = base;
+            outOfOrder.clear();
+            resetReassembly();
+        } else if (base - expectedSeq > 0) {
+            // 小于基准序号的已经送达（本端重启前）或者被放弃，不会再发送
+            skipTo(base);
+        }
+        receiveSegmentCount++;
+        ackTarget = from;
+        lastReceivedSeq = seq;
+        scheduleAck();
+        int offset = seq - expectedSeq;
+        if (offset < 0 || outOfOrder.containsKey(seq)) {
+            duplicateCount++;
+            return;
+        }
+        if (offset >= windowSize) {
+            invalidCount++;
+            return;
+        }
+        // 缓存是借出的，要复制出来
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate()).flip();
+        if (offset > 0) {
+            outOfOrderCount++;
+            outOfOrder.put(seq, new Segment(seq, copy, null));
+            return;
+        }
+        deliver(copy);
+        expectedSeq++;
+        Segment next;
+        while ((next = outOfOrder.remove(expectedSeq)) != null) {
+            deliver(next.datagram);
+            expectedSeq++;
+        }
+    }
+
+    /**
+     * 发送方放弃了小于forward的序号，没收到的跳过，已经收到的按顺序交付
+     */
+    protected void onForward(ByteBuffer buffer, SocketAddress from) {
+        int start = buffer.position();
+        Integer peer = buffer.getInt(start + 2);
+        if (!peer.equals(peerSession)) return;
+        int forward = buffer.getInt(start + 6);
+        ackTarget = from;
+        scheduleAck();
+        if (forward - expectedSeq > 0) skipTo(forward);
+    }
+
+    /**
+     * 跳到forward，没收到的跳过，已经收到的按顺序交付
+     */
+    protected void skipTo(int forward) {
+        while (expectedSeq - forward < 0) {
+            Segment segment = outOfOrder.remove(expectedSeq);
+            if (segment != null) deliver(segment.datagram);
+            else {
+                // 缺少分片，正在重组的消息不完整
+                skipCount++;
+                resetReassembly();
+            }
+            expectedSeq++;
+        }
+        Segment next;
+        while ((next = outOfOrder.remove(expectedSeq)) != null) {
+            deliver(next.datagram);
+            expectedSeq++;
+        }
+    }
+
+    /**
+     * 按序号交付分片，重组成消息
+     */
+    protected void deliver(ByteBuffer datagram) {
+        int index = datagram.getShort(14) & 0xFFFF;
+        int count = datagram.getShort(16) & 0xFFFF;
+        if (index == 0) {
+            resetReassembly();
+            reassemblyCount = count;
+        } else if (reassemblyCount == 0 || index != reassemblyIndex || count != reassemblyCount) {
+            // 会话中途开始接收，丢弃不完整的消息
+            invalidCount++;
+            resetReassembly();
+            return;
+        }
+        reassembly.write(datagram.array(), datagram.arrayOffset() + DATA_HEAD, datagram.limit() - DATA_HEAD);
+        reassemblyIndex = index + 1;
+        if (reassemblyIndex < reassemblyCount) return;
+        byte[] message = reassembly.toByteArray();
+        resetReassembly();
+        receiveMessageCount++;
+        MessageListener listener = messageListener;
+        if (listener == null) return;
+        try {
+            listener.onMessage(message);
+        } catch (Throwable e) {
+            YLog.e("YUdpReliable", "消息回调异常：" + e.getMessage(), e);
+        }
+    }
+
+    protected void resetReassembly() {
+        reassembly.reset();
+        reassemblyCount = 0;
+        reassemblyIndex = 0;
+    }
+
+    /**
+     * 一轮读取只发送一个ACK
+     */
+    protected void scheduleAck() {
+        if (ackPending) return;
+        ackPending = true;
+        // 定时任务在本轮就绪事件处理完之后执行
+        loop.schedule(ackTask, 0);
+    }
+
+    protected void sendAck() {
+        ackPending = false;
+        if (peerSession == null || ackTarget == null) return;
+        int bitmap = 0;
+        for (int i = 0; i < SACK_BITS; i++) {
+            if (outOfOrder.containsKey(expectedSeq + 1 + i)) bitmap |= 1 << i;
+        }
+        ByteBuffer ack = ByteBuffer.allocate(ACK_LENGTH);
+        ack.put(MAGIC).put(TYPE_ACK).putInt(peerSession).putInt(expectedSeq).putInt(bitmap).putInt(lastReceivedSeq).flip();
+        channel.send(ack, ackTarget);
+    }
+
+    protected void onAck(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.getInt(start + 2) != session) return;
+        int cumAck = buffer.getInt(start + 6);
+        // 乱序到达的旧ACK，不能让累计确认序号后退
+        if (cumAck - lastAck < 0) return;
+        int bitmap = buffer.getInt(start + 10);
+        // 只用触发这个ACK的分片采样，乱序缓存中等待的分片被确认时不能采样
+        Segment trigger = inflight.get(buffer.getInt(start + 14));
+        if (trigger != null && trigger.retransmits == 0) updateRto(System.nanoTime() - trigger.sentTime);
+        Iterator<Segment> iterator = inflight.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            int offset = segment.seq - cumAck;
+            if (offset > 0) {
+                // 选择确认的只是到了接收方乱序缓存，不再重传，累计确认越过后才算送达
+                if (offset <= SACK_BITS && (bitmap & (1 << (offset - 1))) != 0) segment.sacked = true;
+                continue;
+            }
+            if (offset == 0) continue;
+            iterator.remove();
+            Message message = segment.message;
+            if (--message.remaining == 0 && message.future.complete(true)) sendMessageCount++;
+        }
+        lastAck = cumAck;
+        if (bitmap != 0) {
+            // 比已确认的最大序号小3个以上还没确认，认为已经丢失，不等超时立即重传一次
+            int highestSeq = cumAck + 1 + (31 - Integer.numberOfLeadingZeros(bitmap));
+            SocketAddress remote = channel.getRemote();
+            for (Segment segment : inflight.values()) {
+                if (highestSeq - segment.seq < 3) break;
+                if (segment.sacked || segment.fastRetransmitted || segment.retransmits >= maxRetransmit) continue;
+                segment.fastRetransmitted = true;
+                segment.retransmits++;
+                fastRetransmitCount++;
+                transmit(segment, remote);
+            }
+        }
+        pump();
+        sendForward(System.nanoTime());
+    }
+
+    /**
+     * RFC 6298
+     */
+    protected void updateRto(long sample) {
+        if (srtt == 0) {
+            srtt = sample;
+            rttvar = sample / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - sample)) / 4;
+            srtt = (7 * srtt + sample) / 8;
+        }
+        rto = Math.max(minRto, Math.min(maxRto, (srtt + 4 * rttvar) / 1000_000L));
+    }
+
+    protected void failMessage(Message message, Throwable cause) {
+        if (message.future.fail(cause)) {
+            failMessageCount++;
+            printLog("消息发送失败：" + cause.getMessage());
+            // 这条消息的序号不会再发送，让接收方跳过
+            if (!abandoned || message.lastSeq - abandonedSeq > 0) abandonedSeq = message.lastSeq;
+            abandoned = true;
+            forwardDeadline = 0;
+        }
+    }
+
+    protected void failAll(Throwable cause) {
+        for (Segment segment : inflight.values()) failMessage(segment.message, cause);
+        for (Segment segment : unsent) failMessage(segment.message, cause);
+        inflight.clear();
+        unsent.clear();
+        abandoned = false;
+        if (tickTimer != null) tickTimer.cancel();
+        tickTimer = null;
+    }
+
+    protected void printLog(String str) {
+        if (showLog) YLog.d("YUdpReliable", str);
+    }
+
+    /**
+     * 统计信息
+     */
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.sendMessageCount = sendMessageCount;
+        stats.failMessageCount = failMessageCount;
+        stats.sendSegmentCount = sendSegmentCount;
+        stats.retransmitCount = retransmitCount;
+        stats.fastRetransmitCount = fastRetransmitCount;
+        stats.receiveMessageCount = receiveMessageCount;
+        stats.receiveSegmentCount = receiveSegmentCount;
+        stats.duplicateCount = duplicateCount;
+        stats.outOfOrderCount = outOfOrderCount;
+        stats.invalidCount = invalidCount;
+        stats.skipCount = skipCount;
+        stats.srtt = srtt / 1000_000L;
+        stats.rto = rto;
+        return stats;
+    }
+
+    /**
+     * 收到完整消息监听
+     */
+    public interface MessageListener {
+        void onMessage(byte[] bytes);
+    }
+
+    /**
+     * 一条消息，全部分片确认后成功
+     */
+    protected static class Message {
+        final YFuture<Boolean> future;
+        int remaining;// 未确认分片数
+        int lastSeq;// 最后一个分片的序号
+
+        Message(YFuture<Boolean> future, int remaining) {
+            this.future = future;
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * 分片
+     */
+    protected static class Segment {
+        final int seq;
+        final ByteBuffer datagram;// 整个数据报，包括头
+        final Message message;// 接收的分片为null
+        long sentTime;// 最后发送时间，纳秒
+        long deadline;// 重传时间，纳秒
+        int retransmits;// 重传次数
+        int waits;// 超出选择确认范围等待的次数
+        boolean fastRetransmitted;// 是否已经快速重传过
+        boolean sacked;// 已经选择确认，在接收方乱序缓存中
+
+        Segment(int seq, ByteBuffer datagram, Message message) {
+            this.seq = seq;
+            this.datagram = datagram;
+            this.message = message;
+        }
+    }
+
+    /**
+     * 统计信息
+     */
+    public static class Stats {
+        public long sendMessageCount;// 发送成功消息数
+        public long failMessageCount;// 发送失败消息数
+        public long sendSegmentCount;// 发送分片数（不含重传）
+        public long retransmitCount;// 超时重传次数
+        public long fastRetransmitCount;// 快速重传次数
+        public long receiveMessageCount;// 收到消息数
+        public long receiveSegmentCount;// 收到分片数
+        public long duplicateCount;// 收到重复分片数
+        public long outOfOrderCount;// 乱序到达分片数
+        public long invalidCount;// 格式错误或者超出窗口的数据报
+        public long skipCount;// 收到FORWARD后跳过的序号数
+        public long srtt;// 平滑RTT，毫秒
+        public long rto;// 当前重传超时，毫秒
+
+        /**
+         * 重传率
+         */
+        public double retransmitRate() {
+            return sendSegmentCount == 0 ? 0 : (double) (retransmitCount + fastRetransmitCount) / sendSegmentCount;
+        }
+
+        @Override
+        public String toString() {
+            return "发送消息：" + sendMessageCount + "，失败：" + failMessageCount + "，发送分片：" + sendSegmentCount + "，超时重传：" + retransmitCount
+                    + "，快速重传：" + fastRetransmitCount + "，重传率：" + String.format("%.1f", retransmitRate() * 100) + "%，收到消息：" + receiveMessageCount
+                    + "，收到分片：" + receiveSegmentCount + "，重复：" + duplicateCount + "，乱序：" + outOfOrderCount + "，无效：" + invalidCount + "，跳过：" + skipCount
+                    + "，srtt：" + srtt + "ms，rto：" + rto + "ms";
+        }
+    }
+}
@@ -1,16 +1,37 @@
 package com.yujing.utils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * byte拼接类
+ * 内部数组容量不够时翻倍扩容，末尾添加均摊O(1)，组包1MB数据不再是平方级复制。
+ * getBytes()返回刚好size长度的数组，容量多余时收缩一次（compact），之后不再复制。
  *
  * @author 余静 2019年12月5日09:39:55
  */
+/*
+用法：
+YBytes yBytes = new YBytes();
+yBytes.addByte(head).addByte(body, length);
+//直接从流读取到内部数组，不用临时数组
+yBytes.addFrom(inputStream, inputStream.available());
+int size = yBytes.size();
+//截取
+byte[] part = yBytes.slice(2, 4);
+//不复制，包装内部数组，下次修改前有效
+ByteBuffer buffer = yBytes.toByteBuffer();
+//重复使用
+yBytes.clear();
+ */
 @SuppressWarnings("unused")
 public class YBytes {
-    private byte[] bytes;
+    private byte[] bytes;//内部数组，容量可能大于size
+    private int size;//实际长度
 
     /**
      * 构造函数，创建一个长度为0的byte数组
@@ -26,6 +47,7 @@ public class YBytes {
      */
     public YBytes(int i) {
         bytes = new byte[i];
+        size = i;
     }
 
     /**
@@ -36,6 +58,33 @@ public class YBytes {
     public YBytes(byte[] b) {
         this.bytes = new byte[b.length];
         System.arraycopy(b, 0, this.bytes, 0, b.length);
+        size = b.length;
+    }
+
+    /**
+     * 创建一个长度为0，容量为capacity的YBytes，已知大概长度时避免扩容
+     *
+     * @param capacity 初始容量
+     * @return YBytes
+     */
+    public static YBytes withCapacity(int capacity) {
+        YBytes yBytes = new YBytes();
+        yBytes.bytes = new byte[Math.max(0, capacity)];
+        return yBytes;
+    }
+
+    /**
+     * 保证至少还能添加length个byte，不够时容量翻倍
+     *
+     * @param length 要添加的长度
+     */
+    public void ensureCapacity(int length) {
+        int need = size + length;
+        if (need < 0) throw new OutOfMemoryError("YBytes长度超过上限");
+        if (need <= bytes.length) return;
+        int capacity = Math.max(need, Math.max(16, bytes.length * 2));
+        if (capacity < 0) capacity = need;
+        bytes = Arrays.copyOf(bytes, capacity);
     }
 
     /**
@@ -45,10 +94,8 @@ public class YBytes {
      * @return YBytes
      */
     public YBytes addByte(byte b) {
-        byte[] temp = new byte[bytes.length + 1];
-        System.arraycopy(bytes, 0, temp, 0, bytes.length);
-        temp[temp.length - 1] = b;
-        bytes = temp;
+        ensureCapacity(1);
+        bytes[size++] = b;
         return this;
     }
 
@@ -59,11 +106,7 @@ public class YBytes {
      * @return YBytes
      */
     public YBytes addByte(byte[] bs) {
-        byte[] temp = new byte[bytes.length + bs.length];
-        System.arraycopy(bytes, 0, temp, 0, bytes.length);
-        System.arraycopy(bs, 0, temp, bytes.length, bs.length);
-        bytes = temp;
-        return this;
+        return addByte(bs, 0, bs.length);
     }
 
     /**
@@ -74,11 +117,7 @@ public class YBytes {
      * @return Bytes
      */
     public YBytes addByte(byte[] bs, int length) {
-        byte[] temp = new byte[bytes.length + length];
-        System.arraycopy(bytes, 0, temp, 0, bytes.length);
-        System.arraycopy(bs, 0, temp, bytes.length, length);
-        bytes = temp;
-        return this;
+        return addByte(bs, 0, length);
     }
 
     /**
@@ -90,10 +129,23 @@ public class YBytes {
      * @return Bytes
      */
     public YBytes addByte(byte[] bs, int start, int length) {
-        byte[] temp = new byte[bytes.length + length];
-        System.arraycopy(bytes, 0, temp, 0, bytes.length);
-        System.arraycopy(bs, start, temp, bytes.length, length);
-        bytes = temp;
+        ensureCapacity(length);
+        System.arraycopy(bs, start, bytes, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * 在byte数组末尾添加ByteBuffer中position到limit的数据，添加后position移到limit
+     *
+     * @param buffer buffer
+     * @return YBytes
+     */
+    public YBytes addByte(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        ensureCapacity(length);
+        buffer.get(bytes, size, length);
+        size += length;
         return this;
     }
 
@@ -104,13 +156,7 @@ public class YBytes {
      * @return YBytes
      */
     public YBytes addByte(List<Byte> bs) {
-        byte[] temp = new byte[bytes.length + bs.size()];
-        System.arraycopy(bytes, 0, temp, 0, bytes.length);
-        for (int i = 0; i < bs.size(); i++) {
-            temp[bytes.length + i] = bs.get(i);
-        }
-        bytes = temp;
-        return this;
+        return addByte(bs, 0, bs.size());
     }
 
     /**
@@ -121,13 +167,7 @@ public class YBytes {
      * @return Bytes
      */
     public YBytes addByte(List<Byte> bs, int length) {
-        byte[] temp = new byte[bytes.length + length];
-        System.arraycopy(bytes, 0, temp, 0, bytes.length);
-        for (int i = 0; i < length; i++) {
-            temp[bytes.length + i] = bs.get(i);
-        }
-        bytes = temp;
-        return this;
+        return addByte(bs, 0, length);
     }
 
     /**
@@ -139,15 +179,30 @@ public class YBytes {
      * @return Bytes
      */
     public YBytes addByte(List<Byte> bs, int start, int length) {
-        byte[] temp = new byte[bytes.length + length];
-        System.arraycopy(bytes, 0, temp, 0, bytes.length);
+        ensureCapacity(length);
         for (int i = 0; i < length; i++) {
-            temp[bytes.length + i] = bs.get(i + start);
+            bytes[size + i] = bs.get(i + start);
         }
-        bytes = temp;
+        size += length;
         return this;
     }
 
+    /**
+     * 从流中读取最多length个byte，直接放到末尾，不用临时数组。会阻塞，和inputStream.read相同
+     *
+     * @param inputStream inputStream
+     * @param length      最多读取长度
+     * @return 读取长度，流结束返回-1
+     * @throws IOException IOException
+     */
+    public int addFrom(InputStream inputStream, int length) throws IOException {
+        if (length <= 0) return 0;
+        ensureCapacity(length);
+        int count = inputStream.read(bytes, size, length);
+        if (count > 0) size += count;
+        return count;
+    }
+
     /**
      * 修改byte数组中一位的值为byte
      *
@@ -156,7 +211,7 @@ public class YBytes {
      * @return YBytes
      */
     public YBytes changeByte(byte b, int index) {
-        if (index >= 0 && index < bytes.length) {
+        if (index >= 0 && index < size) {
             bytes[index] = b;
         }
         return this;
@@ -184,7 +239,7 @@ public class YBytes {
     public YBytes changeByte(byte[] b, int start, int length) {
         if (start >= 0 && length > 0) {
             for (int i = 0; i < length; i++) {
-                if (start + i < bytes.length) {
+                if (start + i < size) {
                     bytes[start + i] = b[i];
                 }
             }
@@ -214,7 +269,7 @@ public class YBytes {
     public YBytes changeByte(List<Byte> b, int start, int length) {
         if (start >= 0 && length > 0) {
             for (int i = 0; i < length; i++) {
-                if (start + i < bytes.length) {
+                if (start + i < size) {
                     bytes[start + i] = b.get(i);
                 }
             }
@@ -229,6 +284,7 @@ public class YBytes {
      */
     public void setBytes(byte[] bytes) {
         this.bytes = bytes;
+        this.size = bytes.length;
     }
 
     /**
@@ -265,7 +321,7 @@ public class YBytes {
      * @return 最终拆分的数据
      */
     public List<byte[]> split(int length) {
-        return split(bytes, length);
+        return split(getBytes(), length);
     }
 
     /**
@@ -274,6 +330,78 @@ public class YBytes {
      * @return byte[]
      */
     public byte[] getBytes() {
+        compact();
         return bytes;
     }
+
+    /**
+     * 实际长度，不复制
+     *
+     * @return 长度
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 当前容量
+     *
+     * @return 容量
+     */
+    public int capacity() {
+        return bytes.length;
+    }
+
+    /**
+     * 获取第index个byte
+     *
+     * @param index 位置
+     * @return byte
+     */
+    public byte get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index:" + index + ",size:" + size);
+        return bytes[index];
+    }
+
+    /**
+     * 截取，复制start开始的length个byte
+     *
+     * @param start  开始位置
+     * @param length 长度
+     * @return byte[]
+     */
+    public byte[] slice(int start, int length) {
+        if (start < 0 || length < 0 || start + length > size)
+            throw new IndexOutOfBoundsException("start:" + start + ",length:" + length + ",size:" + size);
+        return Arrays.copyOfRange(bytes, start, start + length);
+    }
+
+    /**
+     * 收缩容量到实际长度
+     *
+     * @return YBytes
+     */
+    public YBytes compact() {
+        if (bytes.length != size) bytes = Arrays.copyOf(bytes, size);
+        return this;
+    }
+
+    /**
+     * 清空，保留容量，重复使用
+     *
+     * @return YBytes
+     */
+    public YBytes clear() {
+        size = 0;
+        return this;
+    }
+
+    /**
+     * 包装内部数组为ByteBuffer，不复制，position为0，limit为size。下次修改YBytes之前有效
+     *
+     * @return ByteBuffer
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, size);
+    }
 }
\ No newline at end of file
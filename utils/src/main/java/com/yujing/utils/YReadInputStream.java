@@ -5,11 +5,19 @@ import android.util.Log;
 
 import com.yujing.contract.YListener1;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.concurrent.TimeoutException;
 
 /**
  * 读取InputStream
+ * 异步读取默认为原来的available()轮询，每毫秒检查一次，stop后立即退出。
+ * setBlockingRead(true)为阻塞读取：读取线程阻塞在inputStream.read中，组包线程等待组包时间差，没有数据时两个线程都在休眠，不轮询。
+ * 阻塞读取stop后要等read返回才退出，这期间读到的数据丢弃，只在流由这个对象独占、stop后会关闭流时使用。
+ * 同步读取Socket时请使用Socket参数的方法，用soTimeout阻塞等待，不轮询。
  *
  * @author yujing  2021年11月12日15:20:08
  */
@@ -34,17 +42,27 @@ readInputStream = new YReadInputStream(inputStream, bytes ->
 readInputStream.setToAuto(10);
 //设置手自动组包，读取长度100，超时时间为50毫秒。如果读取到数据大于等于100立即返回，否则直到读取到超时为止
 //readInputStream.setToManual(100,50);
+//阻塞读取，没有数据时不轮询，流由它独占时使用
+//readInputStream.setBlockingRead(true);
 //开始读取
 readInputStream.start();
+
+Socket（用soTimeout阻塞等待，不轮询）：
+YReadInputStream.readOnce(socket, timeOut);
+YReadInputStream.readTime(socket, maxGroupTime, maxTime);
+YReadInputStream.readLength(socket, minLength, maxTime);
  */
 public class YReadInputStream {
     private static final String TAG = "YRead";
+    private static final int READ_SIZE = 1024 * 4;//Socket每次读取长度
     private static boolean showLog = false;
     //轮询时候，是否休息1毫秒。inputStream.available()，如果不休息将会增加CPU功耗。
     private static boolean sleep = true;
     private InputStream inputStream;
     private YListener1<byte[]> readListener;
     private ReadThread readThread;
+    private BlockingReader blockingReader;
+    private boolean blockingRead = false;//阻塞读取，没有数据时不轮询；false为原来的available()轮询
 
     private boolean autoPackage = true;//自动组包
     private int maxGroupPackageTime = 1;//组包时间差，毫秒
@@ -72,16 +90,41 @@ public class YReadInputStream {
 
     //开始读取
     public void start() {
+        if (blockingRead) {
+            blockingReader = new BlockingReader();
+            blockingReader.start();
+            return;
+        }
         readThread = new ReadThread();
         readThread.setName("YReadInputStream-读取线程");
         readThread.start();
     }
 
-    //停止
+    /**
+     * 停止
+     * 阻塞读取时，读取线程要等read返回（收到数据或者流关闭）才退出，期间收到的数据丢弃，所以stop后应该关闭流。
+     * 默认的轮询读取stop后立即退出，之后可以用其他方式读取同一个流
+     */
     public void stop() {
         if (readThread != null) {
             readThread.interrupt();
         }
+        if (blockingReader != null) {
+            blockingReader.stop();
+        }
+    }
+
+    /**
+     * 设置是否阻塞读取，start之前调用
+     *
+     * @param blockingRead true阻塞在read中，没有数据时不占用CPU，stop后要关闭流；false（默认）用available()轮询，stop后立即退出
+     */
+    public void setBlockingRead(boolean blockingRead) {
+        this.blockingRead = blockingRead;
+    }
+
+    public boolean isBlockingRead() {
+        return blockingRead;
     }
 
     /**
@@ -137,6 +180,99 @@ public class YReadInputStream {
         }
     }
 
+    /**
+     * 阻塞读取：读取线程阻塞在read中，读到数据放入缓存；组包线程按组包时间差或者长度、时间回调
+     */
+    private class BlockingReader {
+        private final YBytes pending = new YBytes();//正在组包的数据，重复使用
+        private long firstTime;//本包第一次收到数据的时间，nanoTime
+        private long lastTime;//本包最后一次收到数据的时间，nanoTime
+        private boolean finished;//流已经关闭或者读取异常
+        private volatile boolean stopped;
+        private final Thread readThread = new Thread(this::read);
+        private final Thread groupThread = new Thread(this::group);
+
+        void start() {
+            readThread.setName("YReadInputStream-读取线程");
+            groupThread.setName("YReadInputStream-组包线程");
+            readThread.start();
+            groupThread.start();
+        }
+
+        void stop() {
+            stopped = true;
+            readThread.interrupt();
+            groupThread.interrupt();
+        }
+
+        private void read() {
+            log("开启一个读取线程");
+            byte[] buffer = new byte[1024 * 4];
+            try {
+                while (!stopped) {
+                    //阻塞，直到有数据或者流关闭
+                    int count = inputStream.read(buffer);
+                    if (count < 0) {
+                        log("流已经关闭");
+                        break;
+                    }
+                    if (count == 0 || stopped) continue;
+                    synchronized (this) {
+                        long now = System.nanoTime();
+                        if (pending.size() == 0) firstTime = now;
+                        lastTime = now;
+                        pending.addByte(buffer, count);
+                        notifyAll();
+                    }
+                }
+            } catch (Throwable e) {
+                if (!stopped) log("读取线程异常：" + e.getMessage(), e);
+            }
+            synchronized (this) {
+                finished = true;
+                notifyAll();
+            }
+            log("关闭一个读取线程");
+        }
+
+        private void group() {
+            try {
+                while (!stopped) {
+                    byte[] bytes;
+                    synchronized (this) {
+                        while (pending.size() == 0 && !finished) wait();
+                        if (pending.size() == 0) break;
+                        //等待组包完成，期间有新数据会被唤醒重新计算
+                        while (!finished) {
+                            long deadline;
+                            if (autoPackage) {
+                                deadline = lastTime + maxGroupPackageTime * 1000_000L;
+                            } else {
+                                if (pending.size() >= readLength) break;
+                                deadline = firstTime + Math.max(0, maxTime) * 1000_000L;
+                            }
+                            long wait = deadline - System.nanoTime();
+                            if (wait <= 0) break;
+                            wait(wait / 1000_000L, (int) (wait % 1000_000L));
+                        }
+                        bytes = pending.slice(0, pending.size());
+                        pending.clear();
+                    }
+                    if (stopped) break;
+                    if (readListener != null && (!noDataNotReturn || bytes.length != 0)) {
+                        try {
+                            readListener.value(bytes);
+                        } catch (Throwable e) {
+                            log("读取回调异常：" + e.getMessage(), e);
+                        }
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+            log("关闭一个组包线程");
+        }
+    }
+
     private static void log(String string) {
         if (showLog) Log.i(TAG, string);
     }
@@ -210,8 +346,10 @@ public class YReadInputStream {
     public static byte[] readOnce(InputStream inputStream, long timeOut) throws Exception {
         long startTime = System.currentTimeMillis();
         int count = 0;
-        while (count == 0 && System.currentTimeMillis() - startTime < timeOut)
+        while (count == 0 && System.currentTimeMillis() - startTime < timeOut) {
             count = inputStream.available();//获取真正长度
+            if (count == 0 && sleep) SystemClock.sleep(1);
+        }
         if (System.currentTimeMillis() - startTime >= timeOut) {
             throw new TimeoutException("读取超时");
         }
@@ -252,11 +390,10 @@ public class YReadInputStream {
         int i = 0;//第几次组包
         int count = inputStream.available();//可读取多少字节内容
         do {
-            byte[] newBytes = new byte[1024];
-            int newSize = inputStream.read(newBytes, 0, count);
+            //直接读到YBytes内部数组，不用临时数组
+            int newSize = bytes.addFrom(inputStream, count);
             if (newSize > 0) {
-                bytes.addByte(newBytes, newSize);
-                log("第" + (++i) + "次组包后长度：" + bytes.getBytes().length + "，\t已耗时：" + (System.currentTimeMillis() - startTime));
+                log("第" + (++i) + "次组包后长度：" + bytes.size() + "，\t已耗时：" + (System.currentTimeMillis() - startTime));
             }
             if (sleep) SystemClock.sleep(1);
             count = inputStream.available();
@@ -283,21 +420,139 @@ public class YReadInputStream {
         final YBytes bytes = new YBytes();
         long startTime = System.currentTimeMillis();
         int i = 0;
-        while (bytes.getBytes().length < minLength && System.currentTimeMillis() - startTime < maxTime) {
+        while (bytes.size() < minLength && System.currentTimeMillis() - startTime < maxTime) {
             //如果可读取消息为0，就不继续。防止InputStream.read阻塞
-            if (inputStream.available() == 0) {
+            int available = inputStream.available();
+            if (available == 0) {
                 if (sleep) SystemClock.sleep(1);
                 continue;
             }
-            byte[] newBytes = new byte[Math.max(minLength, 1024)];
-            int newSize = inputStream.read(newBytes, 0, inputStream.available());
+            int newSize = bytes.addFrom(inputStream, available);
             if (newSize > 0) {
-                bytes.addByte(newBytes, newSize);
-                log("第" + (++i) + "次组包后长度：" + bytes.getBytes().length + "，\t目标长度：" + minLength + "，\t已耗时：" + (System.currentTimeMillis() - startTime) + "ms，\t超时时间：" + maxTime + "ms");
+                log("第" + (++i) + "次组包后长度：" + bytes.size() + "，\t目标长度：" + minLength + "，\t已耗时：" + (System.currentTimeMillis() - startTime) + "ms，\t超时时间：" + maxTime + "ms");
             }
         }
         if (System.currentTimeMillis() - startTime >= maxTime)
             log("超时返回，超时时间：" + maxTime + "ms");
         return bytes;
     }
+
+    //★★★★★★★★★★★★★★★★★★★★★★★★★★★★★静态方法·读Socket★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★
+    //用soTimeout阻塞在read中，有数据立即唤醒，不用available()轮询
+
+    /**
+     * 只读一次，读取到就返回（包括已经到达的全部数据）。读取不到，一直等直到超时，如果超时则向上抛异常
+     *
+     * @param socket  socket
+     * @param timeOut 超时毫秒
+     * @return byte[]
+     * @throws Exception 超时TimeoutException，连接关闭EOFException
+     */
+    public static byte[] readOnce(Socket socket, long timeOut) throws Exception {
+        int soTimeout = socket.getSoTimeout();
+        try {
+            InputStream inputStream = socket.getInputStream();
+            socket.setSoTimeout(toSoTimeout(timeOut));
+            YBytes bytes = YBytes.withCapacity(READ_SIZE);
+            int count;
+            try {
+                count = bytes.addFrom(inputStream, READ_SIZE);
+            } catch (SocketTimeoutException e) {
+                throw new TimeoutException("读取超时");
+            }
+            if (count < 0) throw new EOFException("连接已关闭");
+            //把已经到达的数据一起读完
+            int available;
+            while ((available = inputStream.available()) > 0 && bytes.addFrom(inputStream, available) > 0) ;
+            return bytes.getBytes();
+        } finally {
+            restoreSoTimeout(socket, soTimeout);
+        }
+    }
+
+    /**
+     * 读取socket数据到YBytes,一直不停组包，每次组包时间maxGroupTime，如果一直有数据，不超过maxTime。
+     *
+     * @param socket       socket
+     * @param maxGroupTime 最大组包时间，如果这个时间内有数据，就一直组包。如果这个时间都没数据，就返回。
+     * @param maxTime      最多读取这么长时间
+     * @return YBytes
+     * @throws Exception Exception
+     */
+    public static YBytes readTime(Socket socket, int maxGroupTime, int maxTime) throws Exception {
+        final YBytes bytes = new YBytes();
+        int soTimeout = socket.getSoTimeout();
+        try {
+            InputStream inputStream = socket.getInputStream();
+            long startTime = System.currentTimeMillis();
+            int i = 0;
+            while (true) {
+                long remain = maxTime - (System.currentTimeMillis() - startTime);
+                if (remain <= 0) break;
+                socket.setSoTimeout(toSoTimeout(Math.min(maxGroupTime, remain)));
+                int count;
+                try {
+                    count = bytes.addFrom(inputStream, Math.max(READ_SIZE, inputStream.available()));
+                } catch (SocketTimeoutException e) {
+                    break;//组包时间内没有数据
+                }
+                if (count < 0) break;
+                log("第" + (++i) + "次组包后长度：" + bytes.size() + "，\t已耗时：" + (System.currentTimeMillis() - startTime));
+            }
+        } finally {
+            restoreSoTimeout(socket, soTimeout);
+        }
+        return bytes;
+    }
+
+    /**
+     * 读取socket数据到YBytes,一直不停组包，但是期间读取长度达到minLength，立即返回。最多读取maxTime时间
+     *
+     * @param socket    socket
+     * @param minLength 至少读取长度，只要读取长度大于等于minLength，直接返回，最多读取maxTime时间
+     * @param maxTime   最多读取这么长时间
+     * @return YBytes
+     * @throws Exception Exception
+     */
+    public static YBytes readLength(Socket socket, int minLength, int maxTime) throws Exception {
+        final YBytes bytes = new YBytes();
+        int soTimeout = socket.getSoTimeout();
+        try {
+            InputStream inputStream = socket.getInputStream();
+            long startTime = System.currentTimeMillis();
+            int i = 0;
+            while (bytes.size() < minLength) {
+                long remain = maxTime - (System.currentTimeMillis() - startTime);
+                if (remain <= 0) {
+                    log("超时返回，超时时间：" + maxTime + "ms");
+                    break;
+                }
+                socket.setSoTimeout(toSoTimeout(remain));
+                int count;
+                try {
+                    count = bytes.addFrom(inputStream, Math.max(minLength - bytes.size(), Math.max(READ_SIZE, inputStream.available())));
+                } catch (SocketTimeoutException e) {
+                    log("超时返回，超时时间：" + maxTime + "ms");
+                    break;
+                }
+                if (count < 0) break;
+                log("第" + (++i) + "次组包后长度：" + bytes.size() + "，\t目标长度：" + minLength + "，\t已耗时：" + (System.currentTimeMillis() - startTime) + "ms，\t超时时间：" + maxTime + "ms");
+            }
+        } finally {
+            restoreSoTimeout(socket, soTimeout);
+        }
+        return bytes;
+    }
+
+    //soTimeout为0表示一直等，所以至少1毫秒
+    private static int toSoTimeout(long timeOut) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeOut));
+    }
+
+    private static void restoreSoTimeout(Socket socket, int soTimeout) {
+        try {
+            if (!socket.isClosed()) socket.setSoTimeout(soTimeout);
+        } catch (IOException ignored) {
+        }
+    }
 }
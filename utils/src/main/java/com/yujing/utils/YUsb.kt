@@ -12,7 +12,12 @@ import android.hardware.usb.UsbInterface
 import android.hardware.usb.UsbManager
 import android.hardware.usb.UsbRequest
 import com.yujing.contract.YListener1
+import com.yujing.socket.YBufferPolicy
+import com.yujing.socket.YReceiveSink
+import com.yujing.socket.receiveFlowOf
+import kotlinx.coroutines.flow.Flow
 import java.nio.ByteBuffer
+import java.util.concurrent.CopyOnWriteArrayList
 
 /**
  * USB使用通用方法
@@ -58,6 +63,11 @@ yUsb.startRead {  result->  }
 //停止持续读取监听
 yUsb.stopRead()
 
+//接收Flow，在读取线程中放进缓冲，不经过主线程，没有启动读取线程时自动启动，取消收集后停止
+lifecycleScope.launch {
+    yUsb.receiveFlow(64, YBufferPolicy.SUSPEND).decode { parse(it) }.flowOn(Dispatchers.Default).collect { textView1.text = it.toString() }
+}
+
 //关闭
 yUsb.close()
 
@@ -364,6 +374,12 @@ class YUsb {
      * @yListener1 每次回调长度是读取数据的真实长度
      */
     private var readThread: Thread? = null
+
+    //receiveFlow的缓冲，在读取线程中放入
+    private val receiveSinks = CopyOnWriteArrayList<YReceiveSink>()
+
+    //读取线程是receiveFlow启动的，没有收集方时停止
+    private var readByFlow = false
     fun startRead(yListener1: YListener1<ByteArray>) {
         startRead(1024, 3000, yListener1)
     }
@@ -376,6 +392,11 @@ class YUsb {
      */
     @Synchronized
     fun startRead(maxLength: Int, timeOut: Int, yListener1: YListener1<ByteArray>) {
+        readByFlow = false
+        startReadThread(maxLength, timeOut, yListener1)
+    }
+
+    private fun startReadThread(maxLength: Int, timeOut: Int, yListener1: YListener1<ByteArray>?) {
         readThread?.interrupt()
         readThread = Thread {
             while (!Thread.interrupted()) {
@@ -390,7 +411,8 @@ class YUsb {
                 try {
                     // 接收服务器端响应的数据
                     val result = read(maxLength, timeOut) ?: continue
-                    YThread.runOnUiThread { yListener1.value(result) }
+                    for (sink in receiveSinks) sink.offer(result)
+                    if (yListener1 != null) YThread.runOnUiThread { yListener1.value(result) }
                 } catch (e: Exception) {
                     Thread.currentThread().interrupt()
                     if (showLog) YLog.e("读取数据时异常：" + e.message, e)
@@ -410,6 +432,41 @@ class YUsb {
         readThread?.interrupt()
     }
 
+    /**
+     * 接收Flow，在读取线程中放进缓冲，不经过主线程，可以在Dispatchers.Default中解析
+     * 没有启动读取线程时按maxLength、timeOut启动，所有收集方取消后停止；已经startRead的继续用原来的读取线程
+     * USB不能暂停读取，SUSPEND缓冲满时阻塞读取线程，数据留在设备中
+     *
+     * @param capacity  缓冲条数
+     * @param policy    缓冲满时的策略
+     * @param maxLength 一次读取最大长度
+     * @param timeOut   每次读取超时时间
+     */
+    fun receiveFlow(capacity: Int = 64, policy: YBufferPolicy = YBufferPolicy.SUSPEND, maxLength: Int = 1024, timeOut: Int = 3000): Flow<ByteArray> =
+        receiveFlowOf(capacity, policy, { false }) { sink ->
+            receiveSinks.add(sink)
+            startFlowRead(maxLength, timeOut)
+            return@receiveFlowOf {
+                receiveSinks.remove(sink)
+                stopFlowRead()
+            }
+        }
+
+    @Synchronized
+    private fun startFlowRead(maxLength: Int, timeOut: Int) {
+        val thread = readThread
+        if (thread != null && thread.isAlive && !thread.isInterrupted) return
+        readByFlow = true
+        startReadThread(maxLength, timeOut, null)
+    }
+
+    @Synchronized
+    private fun stopFlowRead() {
+        if (!readByFlow || receiveSinks.isNotEmpty()) return
+        readByFlow = false
+        stopRead()
+    }
+
     fun onDestroy() {
         stopRead()
         close()